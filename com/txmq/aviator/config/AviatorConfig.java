@@ -10,13 +10,10 @@ import java.util.Set;
 
 import java.util.Map.Entry;
 
-import org.reflections.Reflections;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
-
 import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.txmq.aviator.util.index.AnnotationIndex;
 
 public class AviatorConfig {
 
@@ -25,8 +22,7 @@ public class AviatorConfig {
 	
 	public static void loadConfiguration(String path) {
 		Map<String, Class<?>> processors = new HashMap<String, Class<?>>();
-		Reflections reflections = new Reflections(new ConfigurationBuilder().addUrls(ClasspathHelper.forPackage("com.txmq")));
-		Set<Class<?>> processorClasses = reflections.getTypesAnnotatedWith(AviatorConfiguration.class);
+		Set<Class<?>> processorClasses = AnnotationIndex.getTypesAnnotatedWith(AviatorConfiguration.class);
 		for (Class<?> processorClass : processorClasses) {
 			AviatorConfiguration annotation = processorClass.getAnnotation(AviatorConfiguration.class);
 			if (annotation.properties().length > 0) {
@@ -0,0 +1,35 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="admission")
+public class AdmissionConfig {
+	/**
+	 * Most transactions this node will have waiting for consensus at once.  
+	 * The limit starts here, and backs off while consensus is lagging.
+	 */
+	public int maxInFlight = 10000;
+	
+	/**
+	 * The limit never backs off below this many transactions
+	 */
+	public int minInFlight = 100;
+	
+	/**
+	 * Time, in milliseconds, from submission to consensus above which 
+	 * consensus is considered to be lagging
+	 */
+	public long targetLagMillis = 5000;
+	
+	/**
+	 * How long, in milliseconds, a new transaction may wait for room 
+	 * before it's rejected.  When 0, transactions are rejected immediately.
+	 */
+	public long maxWaitMillis = 0;
+	
+	/**
+	 * How long, in milliseconds, a transaction is counted as waiting for 
+	 * consensus before it's assumed lost
+	 */
+	public long timeoutMillis = 60000;
+}
@@ -0,0 +1,23 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="batching")
+public class BatchingConfig {
+	/**
+	 * Pack messages into batches before submitting them to the platform
+	 */
+	public boolean enabled = false;
+	
+	/**
+	 * Largest batch, in bytes, that will be submitted as a single transaction.  
+	 * This should not exceed the platform's transactionMaxBytes setting.
+	 */
+	public int maxBatchBytes = 6144;
+	
+	/**
+	 * How long, in milliseconds, a message can wait for more 
+	 * messages to join its batch before the batch is submitted.
+	 */
+	public long lingerMillis = 5;
+}
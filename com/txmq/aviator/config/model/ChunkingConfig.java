@@ -0,0 +1,25 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="chunking")
+public class ChunkingConfig {
+	/**
+	 * Largest platform transaction this node will submit.  Messages larger than 
+	 * this are split into chunks.  This should not exceed the platform's 
+	 * transactionMaxBytes setting.
+	 */
+	public int maxTransactionBytes = 6144;
+	
+	/**
+	 * Most memory, in bytes, that partially-received messages may occupy.  
+	 * When a new message would exceed this, the oldest partial messages are discarded.
+	 */
+	public long maxPendingBytes = 64L * 1024 * 1024;
+	
+	/**
+	 * How long, in seconds of consensus time, a partially-received 
+	 * message is kept waiting for its remaining chunks.
+	 */
+	public long timeoutSeconds = 120;
+}
@@ -0,0 +1,29 @@
+package com.txmq.aviator.config.model;
+
+import java.util.zip.Deflater;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="compression")
+public class CompressionConfig {
+	/**
+	 * Compress the payloads of all transaction types that are at least threshold bytes long.
+	 */
+	public boolean enabled = false;
+	
+	/**
+	 * Minimum encoded payload size, in bytes, before compression is attempted.
+	 */
+	public int threshold = 1024;
+	
+	/**
+	 * Deflate compression level, from 1 (fastest) to 9 (smallest).
+	 */
+	public int level = Deflater.DEFAULT_COMPRESSION;
+	
+	/**
+	 * Transaction types that should be compressed regardless of the enabled 
+	 * setting, optionally using their own threshold.
+	 */
+	public CompressionRuleConfig[] transactionTypes;
+}
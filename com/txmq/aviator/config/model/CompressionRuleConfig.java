@@ -0,0 +1,7 @@
+package com.txmq.aviator.config.model;
+
+public class CompressionRuleConfig {
+	public String namespace;
+	public String transactionType;
+	public Integer threshold;
+}
@@ -0,0 +1,33 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="execution")
+public class ExecutionConfig {
+	/**
+	 * Number of threads that run executePreConsensus handlers for transaction types 
+	 * that declare a partition key.  When 0, every pre-consensus handler runs on 
+	 * the platform's thread, one message at a time.
+	 */
+	public int preConsensusThreads = 0;
+
+	/**
+	 * Number of threads that speculatively execute executeConsensus handlers declared
+	 * speculative, when several arrive in the same batch.  When 0, every consensus
+	 * handler runs on the platform's thread, one message at a time.
+	 */
+	public int consensusThreads = 0;
+
+	/**
+	 * How long consensus waits for a run of speculative executions to finish.  
+	 * Messages whose speculation hasn't finished by then are executed in order.
+	 */
+	public long speculationTimeoutMillis = 1000;
+
+	/**
+	 * Number of threads that answer queries from messageReceived handlers declared
+	 * read-only, against a snapshot of the latest consensus state.  When 0, queries
+	 * are handled against the platform's state like any other message.
+	 */
+	public int queryThreads = 0;
+}
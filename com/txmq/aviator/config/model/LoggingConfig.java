@@ -0,0 +1,24 @@
+package com.txmq.aviator.config.model;
+
+import java.util.Map;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="logging")
+public class LoggingConfig {
+	/**
+	 * Level for subsystems that don't have one in levels, e.g. "INFO" or "DEBUG"
+	 */
+	public String level = "INFO";
+	
+	/**
+	 * Levels for individual subsystems, keyed by subsystem name
+	 */
+	public Map<String, String> levels;
+	
+	/**
+	 * Number of messages the log buffer holds while they wait to be written.  
+	 * Messages logged while the buffer is full are dropped.
+	 */
+	public int bufferSize = 8192;
+}
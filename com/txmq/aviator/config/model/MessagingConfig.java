@@ -9,6 +9,12 @@ public class MessagingConfig {
 	public Integer derivedPort;
 	public boolean secured;
 	public String[] handlers;
+	
+	/**
+	 * Largest binary frame a socket client may send.  Longer frames are refused 
+	 * before any memory is allocated for them.
+	 */
+	public int maxFrameBytes = 16 * 1024 * 1024;
 	public KeystoreConfig clientKeystore;
 	public KeystoreConfig clientTruststore;
 	public KeystoreConfig serverKeystore;
@@ -45,6 +51,7 @@ public class MessagingConfig {
 			);
 		}
 		
+		result.maxFrameBytes = this.maxFrameBytes;
 		result.secured = this.secured;
 		result.clientKeystore = this.clientKeystore;
 		result.clientTruststore = this.clientTruststore;
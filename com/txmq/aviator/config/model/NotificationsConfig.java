@@ -0,0 +1,31 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="notifications")
+public class NotificationsConfig {
+	/**
+	 * Include the full triggering message, payload and all, in notifications sent 
+	 * to subscribers.  When false, notifications only identify the triggering message 
+	 * by its uuid and transaction type.  Individual subscriptions can override this.
+	 */
+	public boolean includeTriggeringMessage = true;
+	
+	/**
+	 * Number of worker threads that deliver notifications to subscribers.  When 0, 
+	 * notifications are delivered by the thread that raises them, which for most 
+	 * notifications is the thread handling transactions.
+	 */
+	public int dispatcherThreads = 0;
+	
+	/**
+	 * Number of notifications each dispatcher thread's queue holds
+	 */
+	public int queueSize = 4096;
+	
+	/**
+	 * What to do with a notification when its queue is full, either "BLOCK" 
+	 * to wait for room or "DROP" to discard it
+	 */
+	public String overflowPolicy = "BLOCK";
+}
@@ -0,0 +1,17 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="queryCache")
+public class QueryCacheConfig {
+	/**
+	 * Most results the cache holds before evicting the least recently used
+	 */
+	public int maxEntries = 10000;
+	
+	/**
+	 * Most memory, in bytes, that cached results may occupy, estimated 
+	 * from the size of their serialized form
+	 */
+	public long maxBytes = 64L * 1024 * 1024;
+}
@@ -0,0 +1,35 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="tracing")
+public class TracingConfig {
+	/**
+	 * Fraction of finished traces written to the file.  Stage latencies 
+	 * are aggregated from every trace, whether or not it's written.
+	 */
+	public double sampleRate = 0.01;
+	
+	/**
+	 * File sampled traces are appended to, one JSON object per line.  When 
+	 * null, stage latencies are aggregated but no traces are written.
+	 */
+	public String file = "traces.jsonl";
+	
+	/**
+	 * Most sampled traces waiting to be written before more are dropped
+	 */
+	public int queueSize = 10000;
+	
+	/**
+	 * Most traces in progress at once.  Transactions submitted while 
+	 * this many traces are in progress aren't traced.
+	 */
+	public int maxActive = 100000;
+	
+	/**
+	 * How long a trace may be in progress before it's abandoned, e.g. 
+	 * because its transaction never reached consensus
+	 */
+	public long timeoutMillis = 60000;
+}
@@ -0,0 +1,23 @@
+package com.txmq.aviator.config.model;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+
+@AviatorConfiguration(property="wireFormat")
+public class WireFormatConfig {
+	/**
+	 * Write transactions using Java serialization.  Enable this while
+	 * rolling out an upgrade so that older nodes can read new transactions.
+	 */
+	public boolean writeLegacy = false;
+
+	/**
+	 * Accept Java-serialized transactions written by older nodes.
+	 */
+	public boolean readLegacy = true;
+
+	/**
+	 * Generate codecs for payload classes declared on handlers that don't declare a codec.
+	 * All nodes in a network must use the same setting.
+	 */
+	public boolean generatePayloadCodecs = true;
+}
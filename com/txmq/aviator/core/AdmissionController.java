@@ -0,0 +1,240 @@
+package com.txmq.aviator.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.txmq.aviator.pipeline.exception.AviatorBusyException;
+
+/**
+ * Limits the number of transactions this node has waiting for consensus, so that clients
+ * submitting faster than consensus can keep up are turned away instead of building up a
+ * backlog that grows until latency and memory give out.
+ *
+ * Transactions are counted from when they're admitted until this node sees them reach
+ * consensus, and the time in between is the consensus lag.  The limit on transactions in
+ * flight adapts to the lag: it grows by one for every limit's worth of transactions that
+ * reach consensus within the target lag, and is cut by a quarter, at most once per target
+ * lag, when they don't.  A transaction that arrives when the limit has been reached waits
+ * up to maxWaitMillis for room, then is rejected with an AviatorBusyException that says
+ * how long to wait before trying again.
+ *
+ * Transactions that never reach consensus, e.g. because the platform dropped them, stop
+ * being counted after timeoutMillis.
+ *
+ * @see com.txmq.aviator.config.model.AdmissionConfig
+ */
+public class AdmissionController {
+
+	/**
+	 * Fraction of the limit kept when consensus is lagging
+	 */
+	private static final double BACKOFF = 0.75;
+
+	/**
+	 * Weight of each new measurement in the average lag
+	 */
+	private static final double LAG_WEIGHT = 0.1;
+
+	private static final long MIN_RETRY_MILLIS = 1000;
+
+	private final int minInFlight;
+	private final int maxInFlight;
+	private final long targetLagMillis;
+	private final long maxWaitMillis;
+	private final long timeoutMillis;
+
+	/*
+	 * Everything below is guarded by this
+	 */
+
+	private double limit;
+	private int inFlight = 0;
+
+	/**
+	 * Submission time of each transaction waiting for consensus, oldest first
+	 */
+	private final LinkedHashMap<UUID, Long> submitted = new LinkedHashMap<UUID, Long>();
+
+	private double averageLagMillis = 0;
+	private long lastBackoff = 0;
+	private long lastSweep = 0;
+
+	private long admitted = 0;
+	private long delayed = 0;
+	private long rejected = 0;
+	private long timedOut = 0;
+
+	public AdmissionController(int minInFlight, int maxInFlight, long targetLagMillis, long maxWaitMillis, long timeoutMillis) {
+		this.minInFlight = Math.max(1, minInFlight);
+		this.maxInFlight = Math.max(this.minInFlight, maxInFlight);
+		this.targetLagMillis = targetLagMillis;
+		this.maxWaitMillis = maxWaitMillis;
+		this.timeoutMillis = timeoutMillis;
+		this.limit = this.maxInFlight;
+	}
+
+	/**
+	 * Takes room for a new transaction, waiting for it if necessary.  The transaction
+	 * must then be passed to submitted() or release().
+	 *
+	 * @throws AviatorBusyException if there's no room after waiting
+	 */
+	public synchronized void admit() throws AviatorBusyException {
+		this.sweep(System.currentTimeMillis());
+		if (this.inFlight >= (int) this.limit) {
+			this.delayed++;
+			long deadline = System.currentTimeMillis() + this.maxWaitMillis;
+			while (this.inFlight >= (int) this.limit) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					this.rejected++;
+					throw new AviatorBusyException(
+						"Too many transactions are waiting for consensus (" + this.inFlight + ")", this.getRetryAfterMillis()
+					);
+				}
+
+				try {
+					this.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.rejected++;
+					throw new AviatorBusyException("Interrupted while waiting for admission", this.getRetryAfterMillis());
+				}
+			}
+		}
+
+		this.inFlight++;
+		this.admitted++;
+	}
+
+	/**
+	 * Records that an admitted transaction has been handed to the platform,
+	 * so its room is given back when it reaches consensus
+	 */
+	public synchronized void submitted(UUID messageId) {
+		this.submitted.put(messageId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Gives back the room taken by an admitted transaction that won't be handed
+	 * to the platform, e.g. because a messageReceived handler interrupted it
+	 */
+	public synchronized void release() {
+		this.inFlight--;
+		this.notifyAll();
+	}
+
+	/**
+	 * Gives back the room taken by a submitted transaction that the platform didn't accept
+	 */
+	public synchronized void cancel(UUID messageId) {
+		if (this.submitted.remove(messageId) != null) {
+			this.inFlight--;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Records that a transaction has reached consensus, and adapts the limit to how long it took
+	 */
+	public synchronized void completed(UUID messageId) {
+		Long submittedAt = this.submitted.remove(messageId);
+		if (submittedAt == null) {
+			//Not submitted by this node, or already seen
+			return;
+		}
+
+		this.inFlight--;
+		long now = System.currentTimeMillis();
+		long lag = now - submittedAt;
+		this.averageLagMillis = (this.averageLagMillis == 0) ? lag :
+			(1 - LAG_WEIGHT) * this.averageLagMillis + LAG_WEIGHT * lag;
+
+		if (lag > this.targetLagMillis) {
+			//Back off once per target lag, so one slow round doesn't collapse the limit
+			if (now - this.lastBackoff >= this.targetLagMillis) {
+				this.limit = Math.max(this.minInFlight, this.limit * BACKOFF);
+				this.lastBackoff = now;
+			}
+		} else {
+			this.limit = Math.min(this.maxInFlight, this.limit + 1 / this.limit);
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Stops counting transactions that have waited too long for consensus.  Runs at most once a second.
+	 */
+	private void sweep(long now) {
+		if (now - this.lastSweep < 1000) {
+			return;
+		}
+		this.lastSweep = now;
+
+		boolean swept = false;
+		Iterator<Map.Entry<UUID, Long>> oldest = this.submitted.entrySet().iterator();
+		while (oldest.hasNext()) {
+			if (now - oldest.next().getValue() < this.timeoutMillis) {
+				break;
+			}
+			oldest.remove();
+			this.inFlight--;
+			this.timedOut++;
+			swept = true;
+		}
+
+		if (swept) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns how long a rejected client should wait before trying again,
+	 * estimated from how long transactions are taking to reach consensus
+	 */
+	private long getRetryAfterMillis() {
+		return Math.max(MIN_RETRY_MILLIS, (long) this.averageLagMillis);
+	}
+
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	/**
+	 * Returns the current limit on transactions in flight
+	 */
+	public synchronized int getLimit() {
+		return (int) this.limit;
+	}
+
+	/**
+	 * Returns the average time transactions are taking to reach consensus
+	 */
+	public synchronized long getAverageLagMillis() {
+		return (long) this.averageLagMillis;
+	}
+
+	public synchronized long getAdmitted() {
+		return this.admitted;
+	}
+
+	/**
+	 * Returns the number of transactions that had to wait for room, whether or not they got it
+	 */
+	public synchronized long getDelayed() {
+		return this.delayed;
+	}
+
+	public synchronized long getRejected() {
+		return this.rejected;
+	}
+
+	/**
+	 * Returns the number of transactions assumed lost because they took too long to reach consensus
+	 */
+	public synchronized long getTimedOut() {
+		return this.timedOut;
+	}
+}
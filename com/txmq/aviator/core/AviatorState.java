@@ -5,13 +5,22 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.swirlds.platform.Address;
 import com.swirlds.platform.AddressBook;
 import com.swirlds.platform.Platform;
 import com.swirlds.platform.SwirldState;
 import com.swirlds.platform.Transaction;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+import com.txmq.aviator.messaging.codec.BatchEnvelope;
+import com.txmq.aviator.messaging.codec.ChunkEnvelope;
+import com.txmq.aviator.metrics.TransactionTracer;
 
 /**
  * ExoState is a base class for developers to extend when implementing Swirlds states.
@@ -26,6 +35,8 @@ import com.txmq.aviator.messaging.AviatorMessage;
  */
 public class AviatorState {
 	
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("core");
+	
 	/** names and addresses of all members */
 	protected AddressBook addressBook;
 	
@@ -44,6 +55,71 @@ public class AviatorState {
 	 * List of endpoints reported through the Endpoints API
 	 */
 	private List<String> endpoints = Collections.synchronizedList(new ArrayList<String>());
+	
+	/**
+	 * Chunks of oversized messages received by this state that are still waiting for 
+	 * the rest of their message.  Created when the first chunk arrives.
+	 */
+	private ChunkAssembler chunkAssembler;
+	
+	/**
+	 * Set when this state has handled consensus transactions that haven't 
+	 * been published to read-only queries in a snapshot yet.
+	 */
+	private boolean unpublishedConsensus = false;
+	
+	/**
+	 * Set on a copy of a state with unpublished consensus transactions, so that 
+	 * the copy is published to read-only queries once the platform is done with it.
+	 */
+	private boolean publishable = false;
+	
+	/**
+	 * Version of each namespace's data, keyed by namespace hash.  Namespaces that 
+	 * no handler has touched are at version 0.
+	 */
+	private Map<Integer, Long> namespaceVersions = new ConcurrentHashMap<Integer, Long>();
+	
+	/**
+	 * Source of namespace versions.  Versions come from a single counter for every 
+	 * state in the JVM, so two states only have the same version of a namespace if 
+	 * one was copied from the other without the namespace being touched since.
+	 */
+	private static final AtomicLong versions = new AtomicLong();
+	
+	/**
+	 * Returns the version of a namespace's data.  The version increases whenever 
+	 * a pre-consensus or consensus handler in the namespace runs on this state.
+	 * 
+	 * @see com.txmq.aviator.pipeline.routers.QueryCache
+	 */
+	public long getNamespaceVersion(int namespaceHash) {
+		Long result = this.namespaceVersions.get(namespaceHash);
+		return (result != null) ? result : 0;
+	}
+	
+	/**
+	 * Records that a namespace's data may have changed.  Called by the pipeline 
+	 * router after running handlers that can modify the state, when the query 
+	 * cache is enabled.
+	 */
+	public void touchNamespace(int namespaceHash) {
+		this.namespaceVersions.put(namespaceHash, versions.incrementAndGet());
+	}
+
+	/**
+	 * Returns the chunks of partially received messages, or null if there aren't any.  
+	 * Subclasses that save the state, e.g. in copyTo(), should save this along with it 
+	 * (it's Serializable) and restore it with setChunkAssembler(), so that a restored 
+	 * node reassembles the same messages as its peers.
+	 */
+	protected synchronized ChunkAssembler getChunkAssembler() {
+		return this.chunkAssembler;
+	}
+	
+	protected synchronized void setChunkAssembler(ChunkAssembler chunkAssembler) {
+		this.chunkAssembler = chunkAssembler;
+	}
 
 	/** @return all the strings received so far from the network */
 	public synchronized List<String> getEndpoints() {
@@ -67,6 +143,31 @@ public class AviatorState {
 			addressBook = ((AviatorState) old).addressBook.copy();
 		}
 		myName = ((AviatorState) old).myName;
+		namespaceVersions = new ConcurrentHashMap<Integer, Long>(((AviatorState) old).namespaceVersions);
+		ChunkAssembler chunks = ((AviatorState) old).chunkAssembler;
+		chunkAssembler = (chunks != null) ? chunks.copy() : null;
+		
+		//The platform copies the consensus state after handling each round of consensus 
+		//transactions.  The copy holds the round's results, and is published to queries 
+		//once subclasses have finished copying into it and the platform has frozen it.
+		AviatorState source = (AviatorState) old;
+		publishable = source.unpublishedConsensus;
+		source.unpublishedConsensus = false;
+	}
+	
+	/**
+	 * Called by the platform once this state won't handle any more transactions, 
+	 * e.g. when it's a copy of the consensus state being signed.  A copy holding 
+	 * results of consensus transactions that haven't been published to read-only 
+	 * queries yet is published here, so queries share the platform's copy instead 
+	 * of taking their own.  When overriding noMoreTransactions, be sure to call 
+	 * super.noMoreTransactions().
+	 */
+	public synchronized void noMoreTransactions() {
+		if (publishable) {
+			publishable = false;
+			PlatformLocator.publishSnapshot(this);
+		}
 	}
 	
 	/**
@@ -80,29 +181,124 @@ public class AviatorState {
 	 * 
 	 * Transactions that have reached consensus are logged to a BlockLogger automatically.
 	 * 
+	 * Batch envelopes created by TransactionBatcher are unpacked here, and 
+	 * each message in the batch is routed in the order it was submitted.
+	 * Chunks of oversized messages are held until the whole message has 
+	 * arrived, and the message is then routed once.
+	 * 
+	 * If parallel pre-consensus execution is enabled, the messages in a batch whose 
+	 * handlers declare a partition key are handled in parallel.  They have all been 
+	 * handled by the time this returns, so none of them outlive the platform's lock.
+	 * If optimistic consensus execution is enabled, consensus handlers declared 
+	 * speculative are executed in parallel with others in the same batch.
+	 * 
 	 * TODO:  Make blockchain logging configurable
 	 */
 	public synchronized void handleTransaction(long id, boolean consensus,
 			Instant timeCreated, Instant timestamp, Transaction transaction, Address address) {
 		
+		if (consensus) {
+			this.unpublishedConsensus = true;
+		}
+		
 		try {
-			AviatorMessage<?> message = AviatorMessage.deserialize(transaction.getContents());
-			if (consensus == false) {
-				//Route the transaction through the pre-consensus part of the pipeline
-				PlatformLocator.getPipelineRouter(this.myName).routeExecutePreConsensus(message, this);				
-			} else {
-				PlatformLocator.getPipelineRouter(this.myName).routeExecuteConsensus(message, this);
-				if (message.isInterrupted() == false) {
-					PlatformLocator.getBlockLogger().addTransaction(message, this.myName);
+			//Only the message header is decoded here.  The payload is decoded 
+			//if and when a handler for the transaction type is invoked.
+			byte[] contents = transaction.getContents();
+			if (ChunkEnvelope.isChunk(contents)) {
+				if (this.chunkAssembler == null) {
+					this.chunkAssembler = PlatformLocator.createChunkAssembler();
+				}
+				contents = this.chunkAssembler.add(ChunkEnvelope.read(contents), timestamp);
+				if (contents == null) {
+					//Still waiting on the rest of the message
+					return;
 				}
 			}
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			
+			if (BatchEnvelope.isBatch(contents) && consensus && PlatformLocator.getConsensusExecutor() != null) {
+				this.handleConsensusBatch(BatchEnvelope.decodeLazy(contents), timeCreated, timestamp);
+			} else if (BatchEnvelope.isBatch(contents)) {
+				for (BatchEnvelope.Entry entry : BatchEnvelope.decodeLazy(contents)) {
+					try {
+						//Entry bytes are only needed for block logging, so they're only copied after consensus
+						this.handleMessage(entry.message, consensus, timeCreated, timestamp, (consensus) ? entry.getBytes() : null);
+					} catch (ReflectiveOperationException e) {
+						//One message failing shouldn't stop the rest of the batch
+						logger.error("Unable to route {} from a batch on {}", entry.message.getUuid(), this.myName, e);
+					}
+				}
+			} else {
+				this.handleMessage(AviatorMessageCodec.decodeLazy(contents), consensus, timeCreated, timestamp, contents);
+			}
+		} catch (ClassNotFoundException | IOException e) {
+			logger.error("Unable to decode transaction {} on {}", id, this.myName, e);
 		} catch (ReflectiveOperationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Unable to route transaction {} on {}", id, this.myName, e);
+		} finally {
+			//Partitioned pre-consensus handlers mustn't outlive the platform's lock on the 
+			//state, or run alongside whatever the platform hands the state to next
+			if (!consensus) {
+				PartitionedExecutor executor = PlatformLocator.getPreConsensusExecutor(this.myName);
+				if (executor != null) {
+					executor.awaitQuiescence();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Routes a single message through the pre-consensus or consensus part of the pipeline.  
+	 * rawTransaction holds the bytes the message was read from, for block logging.
+	 */
+	private void handleMessage(AviatorMessage<?> message, boolean consensus, Instant timeCreated, Instant timestamp, byte[] rawTransaction) throws ReflectiveOperationException {
+		if (consensus == false) {
+			//Route the transaction through the pre-consensus part of the pipeline
+			PlatformLocator.getPipelineRouter(this.myName).routeExecutePreConsensus(
+				message, this, PlatformLocator.getPreConsensusExecutor(this.myName)
+			);
+		} else {
+			this.reachedConsensus(message, timeCreated, timestamp);
+			PlatformLocator.getPipelineRouter(this.myName).routeExecuteConsensus(message, this);
+			if (message.isInterrupted() == false) {
+				PlatformLocator.getBlockLogger().addTransaction(message, rawTransaction, this.myName);
+			}
+			TransactionTracer.logged(message, this.myName, message.isInterrupted() == false);
+		}
+	}
+
+	/**
+	 * Routes a batch that has reached consensus as a whole, so that speculative consensus 
+	 * handlers can be executed in parallel, then logs the batch's messages in order.
+	 */
+	private void handleConsensusBatch(List<BatchEnvelope.Entry> entries, Instant timeCreated, Instant timestamp) throws ReflectiveOperationException {
+		List<AviatorMessage<?>> messages = new ArrayList<AviatorMessage<?>>(entries.size());
+		for (BatchEnvelope.Entry entry : entries) {
+			this.reachedConsensus(entry.message, timeCreated, timestamp);
+			messages.add(entry.message);
+		}
+		
+		PlatformLocator.getPipelineRouter(this.myName).routeExecuteConsensus(
+			messages, this, PlatformLocator.getConsensusExecutor()
+		);
+		
+		for (BatchEnvelope.Entry entry : entries) {
+			if (entry.message.isInterrupted() == false) {
+				PlatformLocator.getBlockLogger().addTransaction(entry.message, entry.getBytes(), this.myName);
+			}
+			TransactionTracer.logged(entry.message, this.myName, entry.message.isInterrupted() == false);
+		}
+	}
+
+	/**
+	 * Lets admission control know that a message this node submitted is no longer waiting 
+	 * for consensus, and records the platform's timestamps in the message's trace
+	 */
+	private void reachedConsensus(AviatorMessage<?> message, Instant timeCreated, Instant timestamp) {
+		TransactionTracer.reachedConsensus(message, this.myName, timeCreated, timestamp);
+		AdmissionController admission = PlatformLocator.getAdmissionController();
+		if (admission != null) {
+			admission.completed(message.getUuid());
 		}
 	}
 
@@ -0,0 +1,203 @@
+package com.txmq.aviator.core;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
+import com.txmq.aviator.messaging.codec.ChunkEnvelope;
+
+/**
+ * ChunkAssembler collects the chunks of messages that were too large for a single
+ * platform transaction, and hands back each message once all of its chunks have
+ * arrived.  Partial messages are part of the state:  each AviatorState has its own
+ * assembler, which is copied along with the rest of the state, so a copy the platform
+ * replays pre-consensus transactions onto picks up where the consensus state left off,
+ * and a message is routed through each part of the pipeline exactly once.  Copies share
+ * partial messages until one of them adds a chunk, so copying the state doesn't copy
+ * the data already received.
+ *
+ * Memory held by partial messages is bounded.  Space for the whole message, and for
+ * recording which of its chunks have arrived, is reserved when its first chunk
+ * arrives, and if that would exceed maxPendingBytes the oldest partial messages
+ * are discarded to make room.  Partial messages are also discarded
+ * once they have waited longer than the timeout.  Time is measured using the
+ * timestamps the platform passes to handleTransaction, so on the consensus side
+ * every node discards the same messages at the same point in the transaction order.
+ *
+ * @see com.txmq.aviator.messaging.codec.ChunkEnvelope
+ */
+public class ChunkAssembler implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("core");
+
+	private final long maxPendingBytes;
+
+	private final Duration timeout;
+
+	/**
+	 * Partial messages, oldest first
+	 */
+	private final LinkedHashMap<UUID, PartialMessage> pending = new LinkedHashMap<UUID, PartialMessage>();
+
+	private long pendingBytes = 0;
+
+	public ChunkAssembler(long maxPendingBytes, Duration timeout) {
+		this.maxPendingBytes = maxPendingBytes;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns a copy of this assembler, for use in the state's copyFrom().  Partial 
+	 * messages are shared with the copy until either assembler adds a chunk to them.
+	 */
+	public synchronized ChunkAssembler copy() {
+		ChunkAssembler result = new ChunkAssembler(this.maxPendingBytes, this.timeout);
+		for (PartialMessage partial : this.pending.values()) {
+			partial.shared = true;
+			result.pending.put(partial.group, partial);
+		}
+		result.pendingBytes = this.pendingBytes;
+		return result;
+	}
+
+	/**
+	 * Adds a chunk.  Returns the reassembled message if this was its last missing
+	 * chunk, otherwise null.  A chunk that has already been received for a partial
+	 * message is ignored.
+	 */
+	public synchronized byte[] add(ChunkEnvelope.Chunk chunk, Instant timestamp) throws IOException {
+		this.evictExpired(timestamp);
+
+		PartialMessage partial = this.pending.get(chunk.group);
+		if (partial == null) {
+			long size = PartialMessage.sizeOf(chunk.count, chunk.totalLength);
+			if (size > this.maxPendingBytes) {
+				throw new IOException(	"Chunked message of " + chunk.totalLength +
+										" bytes exceeds the reassembly limit of " + this.maxPendingBytes);
+			}
+
+			//Make room by discarding the oldest partial messages
+			Iterator<PartialMessage> oldest = this.pending.values().iterator();
+			while (this.pendingBytes + size > this.maxPendingBytes && oldest.hasNext()) {
+				PartialMessage evicted = oldest.next();
+				oldest.remove();
+				this.pendingBytes -= evicted.size();
+				logger.warn("Discarding incomplete chunked message {} to make room", evicted.group);
+			}
+
+			partial = new PartialMessage(chunk, timestamp);
+			this.pending.put(chunk.group, partial);
+			this.pendingBytes += partial.size();
+		} else if (chunk.count != partial.count || chunk.totalLength != partial.data.length) {
+			throw new IOException("Chunk " + chunk.index + " of " + chunk.group + " doesn't match the rest of its message");
+		}
+
+		if (partial.received.get(chunk.index)) {
+			return null;
+		}
+
+		if (partial.shared) {
+			//Another copy of the state holds it too, so it can't be changed in place
+			partial = new PartialMessage(partial);
+			this.pending.put(chunk.group, partial);
+		}
+
+		System.arraycopy(chunk.bytes, chunk.dataOffset, partial.data, chunk.offset, chunk.dataLength);
+		partial.received.set(chunk.index);
+		partial.receivedCount++;
+
+		if (partial.receivedCount < partial.count) {
+			return null;
+		}
+
+		this.pending.remove(chunk.group);
+		this.pendingBytes -= partial.size();
+		return partial.data;
+	}
+
+	/**
+	 * Returns the number of bytes reserved by partial messages
+	 */
+	public synchronized long getPendingBytes() {
+		return this.pendingBytes;
+	}
+
+	/**
+	 * Returns the number of messages waiting for more chunks
+	 */
+	public synchronized int getPendingMessages() {
+		return this.pending.size();
+	}
+
+	private void evictExpired(Instant now) {
+		if (now == null) {
+			return;
+		}
+
+		Iterator<PartialMessage> oldest = this.pending.values().iterator();
+		while (oldest.hasNext()) {
+			PartialMessage partial = oldest.next();
+			if (partial.firstSeen.plus(this.timeout).isAfter(now)) {
+				//Everything after this arrived later, so it hasn't expired either
+				break;
+			}
+
+			oldest.remove();
+			this.pendingBytes -= partial.size();
+			logger.warn("Discarding incomplete chunked message {} after {}", partial.group, this.timeout);
+		}
+	}
+
+	private static class PartialMessage implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final UUID group;
+		private final int count;
+		private final byte[] data;
+		private final BitSet received;
+		private final Instant firstSeen;
+		private int receivedCount = 0;
+
+		/**
+		 * Set once the message is held by more than one assembler, after which it's never changed
+		 */
+		private transient volatile boolean shared = false;
+
+		private PartialMessage(ChunkEnvelope.Chunk chunk, Instant firstSeen) {
+			this.group = chunk.group;
+			this.count = chunk.count;
+			this.data = new byte[chunk.totalLength];
+			this.received = new BitSet(chunk.count);
+			this.firstSeen = (firstSeen != null) ? firstSeen : Instant.MIN;
+		}
+
+		private PartialMessage(PartialMessage other) {
+			this.group = other.group;
+			this.count = other.count;
+			this.data = other.data.clone();
+			this.received = (BitSet) other.received.clone();
+			this.firstSeen = other.firstSeen;
+			this.receivedCount = other.receivedCount;
+		}
+
+		/**
+		 * Returns the memory reserved for a message's data and its record of received chunks
+		 */
+		private static long sizeOf(int count, int totalLength) {
+			return (long) totalLength + (count + 7L) / 8;
+		}
+
+		private long size() {
+			return sizeOf(this.count, this.data.length);
+		}
+	}
+}
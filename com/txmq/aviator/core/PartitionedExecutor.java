@@ -0,0 +1,121 @@
+package com.txmq.aviator.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
+
+/**
+ * Runs tasks in parallel on a work-stealing pool, except that tasks submitted with
+ * equal keys run one at a time, in the order they were submitted.  Used to handle
+ * pre-consensus messages whose handlers declare which partition of the state they touch.
+ *
+ * Each node has its own executor, since ordering only matters within a node's state.
+ * Nodes in the same JVM share the pool.
+ *
+ * @see com.txmq.aviator.pipeline.PartitionKeyExtractor
+ */
+public class PartitionedExecutor {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("pipeline");
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Tasks waiting behind the running task for each key.  A key is in the
+	 * map while one of its tasks is queued or running.
+	 */
+	private final Map<Object, ArrayDeque<Runnable>> queues = new HashMap<Object, ArrayDeque<Runnable>>();
+
+	/**
+	 * Number of tasks submitted but not yet finished.  Guarded by queues.
+	 */
+	private int pending = 0;
+
+	public PartitionedExecutor(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Runs a task after any earlier tasks with an equal key have finished
+	 */
+	public void execute(final Object key, Runnable task) {
+		synchronized (this.queues) {
+			this.pending++;
+			ArrayDeque<Runnable> queue = this.queues.get(key);
+			if (queue != null) {
+				queue.add(task);
+				return;
+			}
+
+			queue = new ArrayDeque<Runnable>();
+			queue.add(task);
+			this.queues.put(key, queue);
+			this.pool.execute(new Partition(key, queue));
+		}
+	}
+
+	/**
+	 * Waits until every task submitted so far has finished.  Called before running
+	 * anything that can't run alongside partitioned tasks, and before the state
+	 * they're working on goes back to the platform.
+	 */
+	public void awaitQuiescence() {
+		synchronized (this.queues) {
+			while (this.pending > 0) {
+				try {
+					this.queues.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a key's tasks one at a time.  After each task, the partition goes to the
+	 * back of the pool's queue rather than hogging a thread, so busy keys share the
+	 * pool with everything else.
+	 */
+	private class Partition implements Runnable {
+		private final Object key;
+		private final ArrayDeque<Runnable> queue;
+
+		Partition(Object key, ArrayDeque<Runnable> queue) {
+			this.key = key;
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			Runnable task;
+			synchronized (queues) {
+				task = this.queue.peek();
+			}
+
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("Unhandled exception in partition {}", this.key, e);
+			}
+
+			synchronized (queues) {
+				this.queue.poll();
+				pending--;
+				if (pending == 0) {
+					queues.notifyAll();
+				}
+
+				if (this.queue.isEmpty()) {
+					queues.remove(this.key);
+				} else {
+					pool.execute(this);
+				}
+			}
+		}
+	}
+}
@@ -3,12 +3,16 @@ package com.txmq.aviator.core;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.core.UriBuilder;
@@ -29,17 +33,46 @@ import com.swirlds.platform.Platform;
 import com.swirlds.platform.SwirldState;
 import com.swirlds.platform.Transaction;
 import com.txmq.aviator.config.AviatorConfig;
+import com.txmq.aviator.config.model.AdmissionConfig;
+import com.txmq.aviator.config.model.BatchingConfig;
 import com.txmq.aviator.config.model.BlockLoggerConfig;
+import com.txmq.aviator.config.model.ChunkingConfig;
+import com.txmq.aviator.config.model.CompressionConfig;
+import com.txmq.aviator.config.model.ExecutionConfig;
+import com.txmq.aviator.config.model.LoggingConfig;
 import com.txmq.aviator.config.model.MessagingConfig;
+import com.txmq.aviator.config.model.NotificationsConfig;
+import com.txmq.aviator.config.model.MetricsConfig;
+import com.txmq.aviator.config.model.QueryCacheConfig;
+import com.txmq.aviator.config.model.TracingConfig;
+import com.txmq.aviator.config.model.WireFormatConfig;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorCoreTransactionTypes;
 import com.txmq.aviator.messaging.AviatorTransactionType;
 import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+import com.txmq.aviator.messaging.codec.ChunkEnvelope;
+import com.txmq.aviator.messaging.codec.PayloadCompressor;
+import com.txmq.aviator.messaging.id.MessageIdGenerator;
+import com.txmq.aviator.messaging.id.MessageIds;
 import com.txmq.aviator.messaging.rest.CORSFilter;
 import com.txmq.aviator.messaging.socket.TransactionServer;
+import com.txmq.aviator.messaging.socket.TransactionServerConnection;
 import com.txmq.aviator.messaging.websocket.grizzly.AviatorWebSocketApplication;
+import com.txmq.aviator.metrics.HandlerMetrics;
+import com.txmq.aviator.metrics.TraceExporter;
+import com.txmq.aviator.metrics.TraceStage;
+import com.txmq.aviator.metrics.TransactionTracer;
 import com.txmq.aviator.persistence.BlockLogger;
+import com.txmq.aviator.pipeline.PipelineStatus;
+import com.txmq.aviator.pipeline.exception.AviatorBusyException;
 import com.txmq.aviator.persistence.IBlockLogger;
 import com.txmq.aviator.pipeline.routers.AviatorPipelineRouter;
+import com.txmq.aviator.pipeline.routers.NotificationDispatcher;
+import com.txmq.aviator.pipeline.routers.QueryCache;
+import com.txmq.aviator.pipeline.subscribers.AviatorSubscriberManager;
+import com.txmq.aviator.state.OptimisticExecutor;
 
 /**
  * A static locator class for Exo platform constructs.  This class allows applications
@@ -50,6 +83,8 @@ import com.txmq.aviator.pipeline.routers.AviatorPipelineRouter;
  * love to hear ideas on a better way to approach this.
  */
 public class PlatformLocator {
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("core");
+	
 	/**
 	 * Reference to the Swirlds platform
 	 */
@@ -65,6 +100,55 @@ public class PlatformLocator {
 	 * Reference to the block logging manager
 	 */
 	private static BlockLogger blockLogger = new BlockLogger();
+	
+	/**
+	 * Packs submitted messages into batches when batching has been enabled
+	 */
+	private static TransactionBatcher batcher = null;
+	
+	/**
+	 * Largest platform transaction this node will submit.  Larger messages are 
+	 * split into chunks.  Zero, the default, submits every message whole.
+	 */
+	private static int maxTransactionBytes = 0;
+	
+	/**
+	 * Pool that runs pre-consensus handlers in parallel, and each node's executor 
+	 * on it.  Null when pre-consensus handlers run on the platform's thread.
+	 */
+	private static ForkJoinPool preConsensusPool = null;
+	private static Map<String, PartitionedExecutor> preConsensusExecutors = new HashMap<String, PartitionedExecutor>();
+	
+	/**
+	 * Pool and executor for batched consensus handlers that are executed 
+	 * optimistically in parallel.  Null when consensus handlers run one at a time.
+	 */
+	private static ForkJoinPool consensusPool = null;
+	private static OptimisticExecutor consensusExecutor = null;
+	
+	/**
+	 * Pool that answers read-only queries, and the latest snapshot of each node's 
+	 * consensus state they're answered from.  Null when queries are handled 
+	 * against the platform's state like any other message.
+	 */
+	private static volatile ForkJoinPool queryPool = null;
+	private static Map<String, AviatorState> snapshots = new ConcurrentHashMap<String, AviatorState>();
+	
+	/**
+	 * Limits the transactions waiting for consensus.  Null when every transaction is admitted.
+	 */
+	private static volatile AdmissionController admissionController = null;
+	
+	/**
+	 * How long clients are asked to wait when the platform turns a transaction away
+	 */
+	private static final long BUSY_RETRY_MILLIS = 1000;
+	
+	/**
+	 * Chunk reassembly settings.  Chunks are always reassembled, whether 
+	 * or not this node splits the messages it submits.
+	 */
+	private static ChunkingConfig chunkingConfig = new ChunkingConfig();
 
 	/**
 	 * Tracks running instances of Grizzly so they can be shut down later. 
@@ -118,6 +202,17 @@ public class PlatformLocator {
 	public static void shutdown() {
 		shouldShutdown = true;
 		
+		//Submit anything still waiting in a batch
+		if (batcher != null) {
+			batcher.shutdown();
+		}
+		
+		//Deliver notifications that are still queued
+		NotificationDispatcher dispatcher = AviatorPipelineRouter.getNotificationDispatcher();
+		if (dispatcher != null) {
+			dispatcher.shutdown(30000);
+		}
+		
 		//TODO:  Shut down socket listeners
 		
 		//This will be slow, but in production there should only be one 
@@ -137,6 +232,7 @@ public class PlatformLocator {
 			e.printStackTrace();
 		}
 		getBlockLogger().flushLoggers();
+		AviatorLogManager.flush();
 	}
 	
 	/**
@@ -147,13 +243,115 @@ public class PlatformLocator {
 	@SuppressWarnings("unchecked")
 	public static synchronized void initFromConfig(Platform platform) throws ReflectiveOperationException {
 		PlatformLocator.platform = platform;
+		
+		//Configure logging levels first, so that they apply to everything initialized below
+		if (AviatorConfig.has("logging")) {
+			AviatorLogManager.configure((LoggingConfig) AviatorConfig.get("logging"));
+		}
+		
+		//Configure the wire format used for platform transactions, if it's in the config.. 
+		//This has to happen before handlers are registered, since it affects payload codecs.
+		if (AviatorConfig.has("wireFormat")) {
+			AviatorMessageCodec.configure((WireFormatConfig) AviatorConfig.get("wireFormat"));
+		}
+		
 		init(platform, (List<String>) AviatorConfig.get("transactionProcessors"));
 		
+		//Install a custom message ID generator, if it's in the config..
+		if (AviatorConfig.has("messageIdGenerator")) {
+			MessageIds.setGenerator(
+				(MessageIdGenerator) Class.forName((String) AviatorConfig.get("messageIdGenerator")).newInstance()
+			);
+		}
+		
+		//Configure payload compression, if it's in the config..
+		if (AviatorConfig.has("compression")) {
+			PayloadCompressor.configure((CompressionConfig) AviatorConfig.get("compression"));
+		}
+		
+		//Configure how notifications are sent to subscribers, if it's in the config..
+		if (AviatorConfig.has("notifications")) {
+			NotificationsConfig notificationsConfig = (NotificationsConfig) AviatorConfig.get("notifications");
+			AviatorSubscriberManager.configure(notificationsConfig);
+			if (notificationsConfig.dispatcherThreads > 0) {
+				initNotificationDispatcher(
+					notificationsConfig.dispatcherThreads, 
+					notificationsConfig.queueSize, 
+					NotificationDispatcher.OverflowPolicy.valueOf(notificationsConfig.overflowPolicy.toUpperCase())
+				);
+			}
+		}
+		
+		//Set up transaction batching, if it's in the config..
+		if (AviatorConfig.has("batching")) {
+			BatchingConfig batchingConfig = (BatchingConfig) AviatorConfig.get("batching");
+			if (batchingConfig.enabled) {
+				initBatching(batchingConfig.maxBatchBytes, batchingConfig.lingerMillis);
+			}
+		}
+		
+		//Set up chunking of oversized transactions, if it's in the config..
+		if (AviatorConfig.has("chunking")) {
+			ChunkingConfig chunkingConfig = (ChunkingConfig) AviatorConfig.get("chunking");
+			initChunking(chunkingConfig.maxTransactionBytes, chunkingConfig.maxPendingBytes, chunkingConfig.timeoutSeconds);
+		}
+		
+		//Set up parallel execution of handlers, if it's in the config..
+		if (AviatorConfig.has("execution")) {
+			ExecutionConfig executionConfig = (ExecutionConfig) AviatorConfig.get("execution");
+			if (executionConfig.preConsensusThreads > 0) {
+				initParallelPreConsensus(executionConfig.preConsensusThreads);
+			}
+			if (executionConfig.consensusThreads > 0) {
+				initOptimisticConsensus(executionConfig.consensusThreads, executionConfig.speculationTimeoutMillis);
+			}
+			if (executionConfig.queryThreads > 0) {
+				initQueryExecution(executionConfig.queryThreads);
+			}
+		}
+		
+		//Set up admission control, if it's in the config..
+		if (AviatorConfig.has("admission")) {
+			AdmissionConfig admissionConfig = (AdmissionConfig) AviatorConfig.get("admission");
+			initAdmissionControl(	admissionConfig.minInFlight, 
+									admissionConfig.maxInFlight, 
+									admissionConfig.targetLagMillis, 
+									admissionConfig.maxWaitMillis, 
+									admissionConfig.timeoutMillis);
+		}
+		
+		//Set up caching of query results, if it's in the config..
+		if (AviatorConfig.has("queryCache")) {
+			QueryCacheConfig queryCacheConfig = (QueryCacheConfig) AviatorConfig.get("queryCache");
+			initQueryCache(queryCacheConfig.maxEntries, queryCacheConfig.maxBytes);
+		}
+		
+		//Turn handler metrics off, if the config says to..
+		if (AviatorConfig.has("metrics")) {
+			MetricsConfig metricsConfig = (MetricsConfig) AviatorConfig.get("metrics");
+			HandlerMetrics.setEnabled(metricsConfig.handlerMetrics);
+		}
+		
+		//Set up transaction tracing, if it's in the config..
+		if (AviatorConfig.has("tracing")) {
+			TracingConfig tracingConfig = (TracingConfig) AviatorConfig.get("tracing");
+			try {
+				initTracing(tracingConfig.sampleRate, 
+							tracingConfig.file, 
+							tracingConfig.queueSize, 
+							tracingConfig.maxActive, 
+							tracingConfig.timeoutMillis);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Error configuring tracing:  " + e.getMessage());
+			}
+		}
+		
 		//Set up socket messaging, if it's in the config..
 		MessagingConfig messagingConfig = null; 
 		if (AviatorConfig.has("socketMessaging")) {
 			try {
 				messagingConfig = parseMessagingConfig((MessagingConfig) AviatorConfig.get("socketMessaging"));
+				TransactionServerConnection.setMaxFrameBytes(messagingConfig.maxFrameBytes);
 				if (messagingConfig.secured == true) {
 					initSecuredSocketMessaging(	messagingConfig.port, 
 												messagingConfig.handlers, 
@@ -227,6 +425,7 @@ public class PlatformLocator {
 			);
 		}
 		
+		result.maxFrameBytes = config.maxFrameBytes;
 		result.secured = config.secured;
 		result.clientKeystore = config.clientKeystore;
 		result.clientTruststore = config.clientTruststore;
@@ -241,14 +440,14 @@ public class PlatformLocator {
 	 * account for multiple nodes running in the same JVM.
 	 */
 	private static synchronized void initPipelineRouter(List<String> packages) {
-		AviatorPipelineRouter pipelineRouter = new AviatorPipelineRouter();
-		pipelineRouter.init(packages);
 		String nodeName = null;
 		try {
 			nodeName = ((AviatorState) platform.getState()).getMyName();
 		} finally {
 			platform.releaseState();
 		}
+		AviatorPipelineRouter pipelineRouter = new AviatorPipelineRouter();
+		pipelineRouter.init(packages, nodeName);
 		pipelineRouters.put(nodeName, pipelineRouter);
 	}
 	
@@ -293,7 +492,12 @@ public class PlatformLocator {
 	 */
 	public static synchronized void init(Platform platform) throws ReflectiveOperationException {
 		PlatformLocator.platform = platform;
-		AviatorTransactionType.initialize();			
+		AviatorTransactionType.initialize();
+		
+		//Now that we know which node we are, base message identifiers on it
+		if (platform != null && platform.getAddress() != null) {
+			MessageIds.setNodeName(platform.getAddress().getSelfName());
+		}
 	}
 	
 	public static synchronized void init(	Platform platform, 
@@ -352,7 +556,7 @@ public class PlatformLocator {
 			config.packages(pkg);
 		}
 		
-		System.out.println("Attempting to start Grizzly on " + baseUri);
+		logger.info("Attempting to start Grizzly on {}", baseUri);
 		HttpServer grizzly = null;
 		if (restConfig.secured == true) {
 			SSLContextConfigurator sslContext = new SSLContextConfigurator();
@@ -371,7 +575,7 @@ public class PlatformLocator {
 			grizzly = GrizzlyHttpServerFactory.createHttpServer(baseUri, config);
 		}
 		
-		System.out.println("Starting Grizzly");
+		logger.info("Starting Grizzly");
 		try {
 			grizzly.start();
 		} catch (IOException e) {
@@ -412,7 +616,7 @@ public class PlatformLocator {
 				}
 				externalUrl += ":" + restConfig.port;
 				
-				System.out.println("Reporting available REST API at " + externalUrl);
+				logger.info("Reporting available REST API at {}", externalUrl);
 			} else {
 				
 			}
@@ -425,6 +629,316 @@ public class PlatformLocator {
 		}
 	}
 	
+	/**
+	 * Enables batching of submitted transactions.  Messages passed to createTransaction() 
+	 * are packed together into platform transactions of up to maxBatchBytes, and a 
+	 * partially-filled batch is submitted once its first message has waited lingerMillis.
+	 * 
+	 * Batching is bypassed in test mode.
+	 * 
+	 * @see TransactionBatcher
+	 */
+	public static void initBatching(int maxBatchBytes, long lingerMillis) {
+		if (batcher != null) {
+			batcher.shutdown();
+		}
+		batcher = new TransactionBatcher(platform, maxBatchBytes, lingerMillis);
+	}
+	
+	/**
+	 * Delivers notifications to subscribers on worker threads instead of the threads 
+	 * handling transactions.  Each thread has a queue of queueSize notifications.
+	 * 
+	 * Notifications are delivered on the raising thread in test mode.
+	 * 
+	 * @see NotificationDispatcher
+	 */
+	public static synchronized void initNotificationDispatcher(int threads, int queueSize, NotificationDispatcher.OverflowPolicy overflowPolicy) {
+		NotificationDispatcher existing = AviatorPipelineRouter.getNotificationDispatcher();
+		if (existing != null) {
+			AviatorPipelineRouter.setNotificationDispatcher(null);
+			existing.shutdown(30000);
+		}
+		
+		if (testState == null) {
+			AviatorPipelineRouter.setNotificationDispatcher(new NotificationDispatcher(threads, queueSize, overflowPolicy));
+		}
+	}
+	
+	/**
+	 * Caches the results of cacheable messageReceived handlers, holding up to maxEntries 
+	 * results and an estimated maxBytes of memory.
+	 * 
+	 * @see QueryCache
+	 */
+	public static void initQueryCache(int maxEntries, long maxBytes) {
+		AviatorPipelineRouter.setQueryCache(new QueryCache(maxEntries, maxBytes));
+	}
+	
+	/**
+	 * Traces transactions through the pipeline and aggregates the time spent between 
+	 * stages.  A sampleRate fraction of finished traces are appended to file, which 
+	 * may be null to only aggregate them.  At most maxActive traces are kept in 
+	 * progress, and traces are abandoned after timeoutMillis.
+	 * 
+	 * @see TransactionTracer
+	 */
+	public static void initTracing(double sampleRate, String file, int queueSize, int maxActive, long timeoutMillis) throws IOException {
+		TraceExporter exporter = (file != null) ? new TraceExporter(file, queueSize) : null;
+		TransactionTracer.init(sampleRate, maxActive, timeoutMillis, exporter);
+	}
+	
+	/**
+	 * Runs executePreConsensus handlers of transaction types that declare a partition 
+	 * key on a pool of the given number of threads, so that messages for different 
+	 * partitions of the state are handled in parallel.
+	 * 
+	 * Pre-consensus handlers run on the platform's thread in test mode.
+	 * 
+	 * @see com.txmq.aviator.pipeline.PartitionKeyExtractor
+	 */
+	public static synchronized void initParallelPreConsensus(int threads) {
+		if (testState != null) {
+			return;
+		}
+		
+		for (PartitionedExecutor executor : preConsensusExecutors.values()) {
+			executor.awaitQuiescence();
+		}
+		preConsensusExecutors.clear();
+		
+		if (preConsensusPool != null) {
+			preConsensusPool.shutdown();
+		}
+		preConsensusPool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	}
+	
+	/**
+	 * Returns the executor that runs a node's partitioned pre-consensus handlers, 
+	 * or null if they run on the platform's thread.
+	 */
+	public static synchronized PartitionedExecutor getPreConsensusExecutor(String nodeName) {
+		if (preConsensusPool == null) {
+			return null;
+		}
+		
+		PartitionedExecutor result = preConsensusExecutors.get(nodeName);
+		if (result == null) {
+			result = new PartitionedExecutor(preConsensusPool);
+			preConsensusExecutors.put(nodeName, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Executes consensus handlers that are declared speculative in parallel, on a pool of 
+	 * the given number of threads, whenever several of them arrive in the same batch.  
+	 * Transactions are still committed in consensus order, with the same results as 
+	 * executing them one at a time.  Speculative executions that haven't finished 
+	 * after timeoutMillis are abandoned, and their transactions executed in order.
+	 * 
+	 * Consensus handlers run one at a time in test mode.
+	 * 
+	 * @see OptimisticExecutor
+	 */
+	public static synchronized void initOptimisticConsensus(int threads, long timeoutMillis) {
+		if (testState != null) {
+			return;
+		}
+		
+		//Executions on the old pool finish before the thread that started them moves on, so it can just go
+		if (consensusPool != null) {
+			consensusPool.shutdown();
+		}
+		consensusPool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		consensusExecutor = new OptimisticExecutor(consensusPool, timeoutMillis);
+	}
+	
+	/**
+	 * Returns the executor for speculative consensus handlers, 
+	 * or null if consensus handlers run one at a time.
+	 */
+	public static synchronized OptimisticExecutor getConsensusExecutor() {
+		return consensusExecutor;
+	}
+	
+	/**
+	 * Answers queries, i.e. messages whose messageReceived handlers are all declared 
+	 * read-only, on a pool of the given number of threads.  Queries are answered from 
+	 * the copy of the node's state the platform makes after each round of consensus 
+	 * transactions, so they never wait for the platform's state.  Until the first copy 
+	 * has been published, queries are handled like any other message.
+	 * 
+	 * Queries are handled like any other message in test mode.
+	 */
+	public static synchronized void initQueryExecution(int threads) {
+		if (testState != null) {
+			return;
+		}
+		
+		if (queryPool != null) {
+			queryPool.shutdown();
+		}
+		queryPool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	}
+	
+	/**
+	 * Publishes a copy of the consensus state for queries to be answered from.  The 
+	 * copy must be one the platform won't modify again, so that any number of queries 
+	 * can read it at once, and read-only handlers must not modify it either.
+	 */
+	public static void publishSnapshot(AviatorState snapshot) {
+		if (queryPool == null) {
+			return;
+		}
+		
+		snapshots.put(snapshot.getMyName(), snapshot);
+	}
+	
+	/**
+	 * Limits the number of transactions this node has waiting for consensus, turning 
+	 * away new transactions with an AviatorBusyException while consensus is lagging.
+	 * 
+	 * Transactions are always admitted in test mode.
+	 * 
+	 * @see AdmissionController
+	 */
+	public static synchronized void initAdmissionControl(int minInFlight, int maxInFlight, long targetLagMillis, long maxWaitMillis, long timeoutMillis) {
+		if (testState != null) {
+			return;
+		}
+		
+		admissionController = new AdmissionController(minInFlight, maxInFlight, targetLagMillis, maxWaitMillis, timeoutMillis);
+	}
+	
+	/**
+	 * Returns the admission controller, or null if transactions are always admitted
+	 */
+	public static AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+	
+	/**
+	 * Admits a transaction, returning the controller it was admitted by, or null if there's 
+	 * no controller or the transaction doesn't need admitting.  Queries don't wait for 
+	 * consensus, so they're always admitted.
+	 */
+	private static AdmissionController admit(AviatorMessage<? extends Serializable> message) throws AviatorBusyException {
+		AdmissionController admission = admissionController;
+		if (admission == null) {
+			return null;
+		}
+		
+		String nodeName = platform.getAddress().getSelfName();
+		AviatorPipelineRouter router = getPipelineRouter(nodeName);
+		if (router != null && router.isReadOnly(message.transactionType)) {
+			return null;
+		}
+		
+		try {
+			admission.admit();
+		} catch (AviatorBusyException e) {
+			rejectBusy(message, nodeName, e.getMessage(), e.getRetryAfterMillis());
+		}
+		return admission;
+	}
+	
+	/**
+	 * Turns a transaction away, discarding the responders registered for its 
+	 * notifications since it won't produce any.  Callers report the exception 
+	 * to the client as a busy status.
+	 */
+	private static void rejectBusy(AviatorMessage<?> message, String nodeName, String reason, long retryAfterMillis) throws AviatorBusyException {
+		logger.debug("Rejected {}: {}", message.getUuid(), reason);
+		new AviatorSubscriberManager().removeResponders(nodeName, message.getUuid());
+		TransactionTracer.rejected(message, PipelineStatus.BUSY);
+		throw new AviatorBusyException(reason, retryAfterMillis);
+	}
+	
+	/**
+	 * Cleans up after a message that couldn't be encoded for the platform
+	 */
+	private static void dropUnencodable(AviatorMessage<?> message, String nodeName) {
+		logger.debug("Unable to encode {}", message.getUuid());
+		new AviatorSubscriberManager().removeResponders(nodeName, message.getUuid());
+		TransactionTracer.rejected(message, PipelineStatus.ERROR);
+	}
+	
+	/**
+	 * Hands a query to the query pool, returning false if it 
+	 * has to be handled against the platform's state instead.
+	 */
+	private static boolean submitQuery(final AviatorMessage<? extends Serializable> message) {
+		ForkJoinPool pool = queryPool;
+		if (pool == null) {
+			return false;
+		}
+		
+		String nodeName = platform.getAddress().getSelfName();
+		final AviatorState snapshot = snapshots.get(nodeName);
+		final AviatorPipelineRouter router = getPipelineRouter(nodeName);
+		if (snapshot == null || router == null || !router.isReadOnly(message.transactionType)) {
+			return false;
+		}
+		
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				router.routeQuery(message, snapshot);
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Enables splitting of oversized transactions.  Messages (or batches) that encode to
+	 * more than maxTransactionBytes are submitted as a series of chunks, and reassembled 
+	 * by AviatorState before being routed.  Partially-received messages may hold up to
+	 * maxPendingBytes of memory per node, and are discarded if they are still incomplete 
+	 * timeoutSeconds after their first chunk reached consensus.
+	 * 
+	 * @see ChunkAssembler
+	 */
+	public static synchronized void initChunking(int maxTransactionBytes, long maxPendingBytes, long timeoutSeconds) {
+		if (maxTransactionBytes <= ChunkEnvelope.HEADER_LENGTH) {
+			throw new IllegalArgumentException("maxTransactionBytes is too small to hold a chunk: " + maxTransactionBytes);
+		}
+		
+		PlatformLocator.maxTransactionBytes = maxTransactionBytes;
+		chunkingConfig = new ChunkingConfig();
+		chunkingConfig.maxTransactionBytes = maxTransactionBytes;
+		chunkingConfig.maxPendingBytes = maxPendingBytes;
+		chunkingConfig.timeoutSeconds = timeoutSeconds;
+	}
+	
+	/**
+	 * Creates a chunk assembler with the configured limits, for a state that 
+	 * doesn't have one yet.  States copy their assembler along with their data.
+	 */
+	public static synchronized ChunkAssembler createChunkAssembler() {
+		return new ChunkAssembler(chunkingConfig.maxPendingBytes, Duration.ofSeconds(chunkingConfig.timeoutSeconds));
+	}
+	
+	/**
+	 * Hands encoded transaction contents to the platform, splitting them into chunks
+	 * if they're larger than the configured maximum.  Returns true if the platform
+	 * accepted every transaction.  If the platform turns down a chunk, the rest aren't 
+	 * submitted and the partial message expires on the other nodes.
+	 */
+	static boolean submitTransaction(byte[] contents) {
+		if (maxTransactionBytes == 0 || contents.length <= maxTransactionBytes) {
+			return platform.createTransaction(new Transaction(contents));
+		}
+		
+		UUID group = MessageIds.next();
+		for (byte[] chunk : ChunkEnvelope.split(contents, group, maxTransactionBytes)) {
+			if (!platform.createTransaction(new Transaction(chunk))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	/**
 	 * Sets up a socket-based API for communicating with this Swirld on the supplied 
 	 * port.  Scans the supplied list of packages for methods annotated with 
@@ -476,10 +990,16 @@ public class PlatformLocator {
 	 * This signature matches the createTransaction signature of the Swirlds Platform.
 	 */
 	public static void createTransaction(AviatorMessage<? extends Serializable> transaction) throws IOException {
+		//Queries are answered from the latest consensus snapshot, without the platform's state
+		if (submitQuery(transaction)) {
+			return;
+		}
+		
+		//Make room for the transaction among those waiting for consensus, before taking the state
+		AdmissionController admission = admit(transaction);
+		boolean submitted = false;
 		try {
 			//Check if we're running in test mode.
-			long transactionID = new Random().nextLong();
-			Instant timeCreated = Instant.now();
 			AviatorState preConsensusState = null;
 			
 			if (testState != null) {
@@ -499,22 +1019,63 @@ public class PlatformLocator {
 			}
 			
 			String nodeName = preConsensusState.getMyName();
+			TransactionTracer.begin(transaction, nodeName);
 			
 			//Process message received handlers
 			getPipelineRouter(nodeName).routeMessageReceived(transaction, preConsensusState);
+			TransactionTracer.mark(transaction, nodeName, TraceStage.MESSAGE_RECEIVED);
 			
 			//If the transaction was not interrupted, submit it to the platform
 			if (transaction.isInterrupted() == false) {
-				Transaction serializedTransaction = new Transaction(transaction.serialize());
 				if (testState != null) {
+					//Simulate the platform's handling of the transaction
+					long transactionID = ThreadLocalRandom.current().nextLong();
+					Instant timeCreated = Instant.now();
+					Transaction serializedTransaction = new Transaction(AviatorMessageCodec.encode(transaction));
 					preConsensusState.handleTransaction(transactionID, false, timeCreated, timeCreated, serializedTransaction, null);
 					testState.handleTransaction(transactionID, true, timeCreated, timeCreated, serializedTransaction, null);
+				} else if (batcher != null) {
+					//The batcher encodes the message and sends the submitted notification when its batch goes out
+					if (admission != null) {
+						admission.submitted(transaction.getUuid());
+					}
+					submitted = true;
+					try {
+						batcher.submit(transaction, nodeName);
+					} catch (IOException e) {
+						//The message couldn't be encoded, so it will never reach consensus
+						if (admission != null) {
+							admission.cancel(transaction.getUuid());
+						}
+						dropUnencodable(transaction, nodeName);
+						throw e;
+					}
 				} else {
-					platform.createTransaction(serializedTransaction);
+					byte[] contents;
+					try {
+						contents = AviatorMessageCodec.encode(transaction);
+					} catch (IOException e) {
+						dropUnencodable(transaction, nodeName);
+						throw e;
+					}
+					
+					if (admission != null) {
+						admission.submitted(transaction.getUuid());
+					}
+					submitted = true;
+					if (!submitTransaction(contents)) {
+						if (admission != null) {
+							admission.cancel(transaction.getUuid());
+						}
+						rejectBusy(transaction, nodeName, "The platform did not accept the transaction", BUSY_RETRY_MILLIS);
+					}
 					getPipelineRouter(preConsensusState.getMyName()).notifySubmitted(transaction, nodeName);
 				}
 			}
 		} finally {
+			if (admission != null && !submitted) {
+				admission.release();
+			}
 			platform.releaseState();
 		}
 	}
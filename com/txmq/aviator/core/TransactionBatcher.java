@@ -0,0 +1,243 @@
+package com.txmq.aviator.core;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.swirlds.platform.Platform;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
+import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+import com.txmq.aviator.messaging.codec.BatchEnvelope;
+import com.txmq.aviator.metrics.TransactionTracer;
+import com.txmq.aviator.pipeline.PipelineStatus;
+import com.txmq.aviator.pipeline.subscribers.AviatorSubscriberManager;
+
+/**
+ * TransactionBatcher packs messages submitted through PlatformLocator.createTransaction()
+ * into batch envelopes, so that many small messages share one platform transaction.
+ * A batch is submitted when the next message wouldn't fit, or when the first message
+ * in the batch has waited lingerMillis for company, whichever comes first.
+ *
+ * Messages are encoded straight into the batch, in the order they were submitted.
+ * AviatorState unpacks envelopes and routes each message in that order, so handlers
+ * and subscribers see the same per-message behavior as they do without batching.
+ * Submitted notifications are sent just before the batch containing the message
+ * is handed to the platform, so that they're raised before anything the platform
+ * does with the batch.  If the platform refuses the batch, its messages are dropped
+ * the way PlatformLocator.createTransaction() drops a refused message:  their
+ * responders are removed, and their room is given back to admission control.
+ *
+ * Messages too large to share a batch are submitted on their own (split into
+ * chunks if chunking is enabled), and a batch holding a single message is 
+ * submitted as that message without an envelope.
+ *
+ * @see com.txmq.aviator.messaging.codec.BatchEnvelope
+ * @see com.txmq.aviator.config.model.BatchingConfig
+ */
+public class TransactionBatcher {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("core");
+
+	private final Platform platform;
+
+	private final long lingerMillis;
+
+	/**
+	 * The batch being built.  Its capacity is the maximum batch size.
+	 */
+	private final ByteBuffer batch;
+
+	/**
+	 * Messages in the current batch and the nodes that submitted them, used for submitted notifications
+	 */
+	private List<AviatorMessage<?>> messages = new ArrayList<AviatorMessage<?>>();
+	private List<String> nodeNames = new ArrayList<String>();
+
+	/**
+	 * Length of the first message in the batch, used to submit single-message batches without an envelope
+	 */
+	private int firstMessageLength;
+
+	private ScheduledFuture<?> pendingFlush;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread result = new Thread(runnable, "aviator-transaction-batcher");
+			result.setDaemon(true);
+			return result;
+		}
+	});
+
+	public TransactionBatcher(Platform platform, int maxBatchBytes, long lingerMillis) {
+		if (maxBatchBytes <= BatchEnvelope.HEADER_LENGTH + BatchEnvelope.ENTRY_OVERHEAD) {
+			throw new IllegalArgumentException("maxBatchBytes is too small to hold a message: " + maxBatchBytes);
+		}
+
+		this.platform = platform;
+		this.lingerMillis = lingerMillis;
+		this.batch = ByteBuffer.allocate(maxBatchBytes);
+		BatchEnvelope.writeHeader(this.batch);
+	}
+
+	/**
+	 * Adds a message to the current batch, submitting the batch
+	 * first if the message doesn't fit alongside its contents.
+	 */
+	public synchronized void submit(AviatorMessage<?> message, String nodeName) throws IOException {
+		if (!this.append(message, nodeName)) {
+			//Didn't fit.  Submit what we have and try again with an empty batch.
+			this.takeBatch().send();
+			if (!this.append(message, nodeName)) {
+				//Too big to batch, submit it on its own
+				List<AviatorMessage<?>> single = new ArrayList<AviatorMessage<?>>(1);
+				single.add(message);
+				List<String> singleNodeName = new ArrayList<String>(1);
+				singleNodeName.add(nodeName);
+				new Submission(AviatorMessageCodec.encode(message), single, singleNodeName).send();
+			}
+		}
+
+		if (this.messages.size() == 1) {
+			this.pendingFlush = this.scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, this.lingerMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Submits the current batch, if it contains any messages.  Batches are submitted 
+	 * under the batcher's lock, so they reach the platform in the order they were built.
+	 */
+	public synchronized void flush() {
+		this.takeBatch().send();
+	}
+
+	/**
+	 * Submits any pending messages and stops the linger timer.
+	 */
+	public void shutdown() {
+		this.flush();
+		this.scheduler.shutdown();
+	}
+
+	/**
+	 * Encodes a message onto the end of the batch.  Returns false, leaving
+	 * the batch as it was, if the message doesn't fit.
+	 */
+	private boolean append(AviatorMessage<?> message, String nodeName) throws IOException {
+		int entryStart = this.batch.position();
+		try {
+			this.batch.putInt(0);
+			AviatorMessageCodec.encode(message, this.batch);
+		} catch (BufferOverflowException e) {
+			this.batch.position(entryStart);
+			return false;
+		} catch (IOException e) {
+			this.batch.position(entryStart);
+			throw e;
+		}
+
+		int length = this.batch.position() - entryStart - BatchEnvelope.ENTRY_OVERHEAD;
+		this.batch.putInt(entryStart, length);
+		if (this.messages.isEmpty()) {
+			this.firstMessageLength = length;
+		}
+		this.messages.add(message);
+		this.nodeNames.add(nodeName);
+		return true;
+	}
+
+	/**
+	 * Removes the contents of the current batch, leaving an empty batch in its place.
+	 * Must be called while holding the batcher's lock.
+	 */
+	private Submission takeBatch() {
+		if (this.pendingFlush != null) {
+			this.pendingFlush.cancel(false);
+			this.pendingFlush = null;
+		}
+
+		byte[] contents = null;
+		if (this.messages.size() == 1) {
+			int offset = BatchEnvelope.HEADER_LENGTH + BatchEnvelope.ENTRY_OVERHEAD;
+			contents = Arrays.copyOfRange(this.batch.array(), offset, offset + this.firstMessageLength);
+		} else if (this.messages.size() > 1) {
+			BatchEnvelope.writeCount(this.batch, this.messages.size());
+			contents = Arrays.copyOf(this.batch.array(), this.batch.position());
+		}
+
+		Submission result = new Submission(contents, this.messages, this.nodeNames);
+		this.messages = new ArrayList<AviatorMessage<?>>();
+		this.nodeNames = new ArrayList<String>();
+		this.batch.clear();
+		BatchEnvelope.writeHeader(this.batch);
+		return result;
+	}
+
+	/**
+	 * A platform transaction ready to be submitted, and the messages it contains
+	 */
+	private class Submission {
+		private final byte[] contents;
+		private final List<AviatorMessage<?>> messages;
+		private final List<String> nodeNames;
+
+		private Submission(byte[] contents, List<AviatorMessage<?>> messages, List<String> nodeNames) {
+			this.contents = contents;
+			this.messages = messages;
+			this.nodeNames = nodeNames;
+		}
+
+		/**
+		 * Hands the transaction to the platform, sending submitted notifications for its messages first.  
+		 * Once the platform has the transaction, pre-consensus handling can raise notifications for 
+		 * its messages on another thread, and those mustn't overtake submitted.
+		 */
+		private void send() {
+			if (this.contents == null) {
+				return;
+			}
+
+			for (int i = 0; i < this.messages.size(); i++) {
+				PlatformLocator.getPipelineRouter(this.nodeNames.get(i)).notifySubmitted(this.messages.get(i), this.nodeNames.get(i));
+			}
+
+			if (!PlatformLocator.submitTransaction(this.contents)) {
+				this.reject();
+			}
+		}
+
+		/**
+		 * Drops the messages in a transaction the platform refused.  Their callers have already 
+		 * been told they were accepted, so this cleans up after them instead:  responders waiting 
+		 * for their notifications are removed, and their room is given back to admission control.
+		 */
+		private void reject() {
+			logger.warn("The platform did not accept a batch of {} transactions", this.messages.size());
+			AdmissionController admission = PlatformLocator.getAdmissionController();
+			AviatorSubscriberManager subscriberManager = new AviatorSubscriberManager();
+			for (int i = 0; i < this.messages.size(); i++) {
+				AviatorMessage<?> message = this.messages.get(i);
+				subscriberManager.removeResponders(this.nodeNames.get(i), message.getUuid());
+				if (admission != null) {
+					admission.cancel(message.getUuid());
+				}
+				TransactionTracer.rejected(message, PipelineStatus.BUSY);
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.txmq.aviator.logging;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.txmq.aviator.config.model.LoggingConfig;
+import com.txmq.aviator.util.collections.BoundedMpmcQueue;
+
+/**
+ * AviatorLogManager hands out loggers for the framework's subsystems and writes
+ * their output.  Each subsystem has its own level, which can be set in
+ * aviator-config.json, through setLevel(), or through the logging REST endpoint
+ * while the node is running.  Subsystems without a level of their own use the
+ * default level.
+ *
+ * Logging threads don't write anything themselves.  Enabled messages are put in
+ * a fixed-size ring buffer, and a background thread formats and writes them to
+ * standard output.  If the buffer is full, the message is dropped rather than
+ * making the logging thread wait, and the writer reports how many were dropped.
+ * Handlers running at consensus never block on the console as a result.
+ *
+ * @see AviatorLogger
+ * @see com.txmq.aviator.config.model.LoggingConfig
+ */
+public class AviatorLogManager {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * How long flush() waits between checks of the buffer
+	 */
+	private static final long IDLE_NANOS = 1000000;
+
+	private static LogLevel defaultLevel = LogLevel.INFO;
+
+	/**
+	 * Levels set explicitly for individual subsystems
+	 */
+	private static Map<String, LogLevel> levels = new HashMap<String, LogLevel>();
+
+	private static Map<String, AviatorLogger> loggers = new HashMap<String, AviatorLogger>();
+
+	private static volatile BoundedMpmcQueue<LogEvent> buffer = new BoundedMpmcQueue<LogEvent>(DEFAULT_BUFFER_SIZE);
+
+	private static final AtomicLong droppedMessages = new AtomicLong();
+
+	private static PrintStream output = System.out;
+
+	private static volatile Thread writer;
+
+	/**
+	 * Set while the writer is about to park, so publishers know to wake it
+	 */
+	private static volatile boolean writerIdle = false;
+
+	/**
+	 * Returns the logger for a subsystem, creating it if needed
+	 */
+	public static synchronized AviatorLogger getLogger(String subsystem) {
+		AviatorLogger logger = loggers.get(subsystem);
+		if (logger == null) {
+			logger = new AviatorLogger(subsystem, getLevel(subsystem));
+			loggers.put(subsystem, logger);
+		}
+		return logger;
+	}
+
+	/**
+	 * Applies levels and the buffer size from the "logging" section of aviator-config.json
+	 */
+	public static synchronized void configure(LoggingConfig config) {
+		if (config.bufferSize != buffer.capacity()) {
+			flush();
+			buffer = new BoundedMpmcQueue<LogEvent>(config.bufferSize);
+		}
+
+		if (config.level != null) {
+			setDefaultLevel(LogLevel.parse(config.level));
+		}
+
+		if (config.levels != null) {
+			for (Map.Entry<String, String> entry : config.levels.entrySet()) {
+				setLevel(entry.getKey(), LogLevel.parse(entry.getValue()));
+			}
+		}
+	}
+
+	public static synchronized LogLevel getDefaultLevel() {
+		return defaultLevel;
+	}
+
+	/**
+	 * Sets the level used by subsystems that don't have a level of their own
+	 */
+	public static synchronized void setDefaultLevel(LogLevel level) {
+		defaultLevel = level;
+		updateLoggers();
+	}
+
+	/**
+	 * Returns the level a subsystem logs at
+	 */
+	public static synchronized LogLevel getLevel(String subsystem) {
+		LogLevel level = levels.get(subsystem);
+		return (level != null) ? level : defaultLevel;
+	}
+
+	/**
+	 * Sets a subsystem's level.  Passing null reverts the subsystem to the default level.
+	 */
+	public static synchronized void setLevel(String subsystem, LogLevel level) {
+		if (level != null) {
+			levels.put(subsystem, level);
+		} else {
+			levels.remove(subsystem);
+		}
+		updateLoggers();
+	}
+
+	/**
+	 * Returns the level of every subsystem that has a logger or a level of its own
+	 */
+	public static synchronized Map<String, LogLevel> getLevels() {
+		Map<String, LogLevel> result = new HashMap<String, LogLevel>(levels);
+		for (String subsystem : loggers.keySet()) {
+			if (!result.containsKey(subsystem)) {
+				result.put(subsystem, defaultLevel);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of messages dropped because the buffer was full
+	 */
+	public static long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+
+	/**
+	 * Waits up to a second for buffered messages to be written.  Called when the node shuts down.
+	 */
+	public static void flush() {
+		long deadline = System.nanoTime() + 1000000000L;
+		while (!buffer.isEmpty() && writer != null && writer.isAlive() && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(IDLE_NANOS);
+		}
+		output.flush();
+	}
+
+	private static void updateLoggers() {
+		for (AviatorLogger logger : loggers.values()) {
+			logger.level = getLevel(logger.getSubsystem());
+		}
+	}
+
+	static void publish(LogEvent event) {
+		if (writer == null) {
+			startWriter();
+		}
+
+		if (!buffer.offer(event)) {
+			droppedMessages.incrementAndGet();
+		}
+
+		if (writerIdle) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	private static synchronized void startWriter() {
+		if (writer == null) {
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeMessages();
+				}
+			}, "aviator-log-writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	private static void writeMessages() {
+		StringBuilder text = new StringBuilder(1024);
+		long reportedDrops = 0;
+		for (;;) {
+			LogEvent event = buffer.poll();
+			if (event == null) {
+				long dropped = droppedMessages.get();
+				if (dropped != reportedDrops) {
+					text.append(Instant.now()).append(" WARN  [aviator-log-writer] logging - ")
+						.append(dropped - reportedDrops).append(" messages were dropped because the log buffer was full")
+						.append(System.lineSeparator());
+					reportedDrops = dropped;
+				}
+
+				if (text.length() > 0) {
+					output.print(text);
+					output.flush();
+					text.setLength(0);
+				}
+
+				//Sleep until a message is published.  The buffer is checked again after 
+				//going idle, so a message published in between isn't left waiting.
+				writerIdle = true;
+				if (buffer.isEmpty()) {
+					LockSupport.park();
+				}
+				writerIdle = false;
+				continue;
+			}
+
+			try {
+				format(event, text);
+			} catch (RuntimeException e) {
+				//A broken toString() shouldn't take the writer down with it
+				text.append(" <failed to format message: ").append(e).append('>').append(System.lineSeparator());
+			}
+
+			//Don't let a burst of messages build up an enormous string
+			if (text.length() > 65536) {
+				output.print(text);
+				text.setLength(0);
+			}
+		}
+	}
+
+	/**
+	 * Appends a message to the output, replacing each {} with the next argument
+	 */
+	private static void format(LogEvent event, StringBuilder text) {
+		text.append(Instant.ofEpochMilli(event.timestamp)).append(' ');
+		text.append(event.level);
+		for (int i = event.level.name().length(); i < 5; i++) {
+			text.append(' ');
+		}
+		text.append(" [").append(event.threadName).append("] ");
+		text.append(event.subsystem).append(" - ");
+
+		Object[] arguments = event.arguments;
+		int argument = 0;
+		String format = event.format;
+		int start = 0;
+		for (int placeholder = format.indexOf("{}"); placeholder >= 0; placeholder = format.indexOf("{}", start)) {
+			if (argument >= arguments.length) {
+				break;
+			}
+			text.append(format, start, placeholder);
+			text.append(arguments[argument++]);
+			start = placeholder + 2;
+		}
+		text.append(format, start, format.length());
+		text.append(System.lineSeparator());
+
+		if (argument < arguments.length && arguments[arguments.length - 1] instanceof Throwable) {
+			StringWriter stackTrace = new StringWriter();
+			((Throwable) arguments[arguments.length - 1]).printStackTrace(new PrintWriter(stackTrace));
+			text.append(stackTrace.getBuffer());
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.txmq.aviator.logging;
+
+/**
+ * Logs messages for one of the framework's subsystems, e.g. "pipeline" or "socket".
+ * Obtain loggers from AviatorLogManager.getLogger().
+ *
+ * Messages use {} as placeholders for arguments:
+ *
+ * logger.debug("Routing {} to executeConsensus on {}", message.getUuid(), nodeName);
+ *
+ * Nothing is formatted or allocated when the logger's level disables the message,
+ * so callers don't need to check the level first unless computing an argument is
+ * expensive.  Enabled messages are handed to a background thread which formats and
+ * writes them, so arguments shouldn't be modified after they're logged.  If the last
+ * argument is a Throwable that doesn't fill a placeholder, its stack trace is written
+ * after the message.
+ *
+ * @see AviatorLogManager
+ */
+public class AviatorLogger {
+
+	private final String subsystem;
+
+	/**
+	 * Managed by AviatorLogManager, which updates it when levels are changed
+	 */
+	volatile LogLevel level;
+
+	AviatorLogger(String subsystem, LogLevel level) {
+		this.subsystem = subsystem;
+		this.level = level;
+	}
+
+	public String getSubsystem() {
+		return this.subsystem;
+	}
+
+	public LogLevel getLevel() {
+		return this.level;
+	}
+
+	public boolean isEnabled(LogLevel level) {
+		return level.compareTo(this.level) >= 0 && level != LogLevel.OFF;
+	}
+
+	public boolean isTraceEnabled() {
+		return this.isEnabled(LogLevel.TRACE);
+	}
+
+	public boolean isDebugEnabled() {
+		return this.isEnabled(LogLevel.DEBUG);
+	}
+
+	public void log(LogLevel level, String format, Object... arguments) {
+		if (this.isEnabled(level)) {
+			AviatorLogManager.publish(new LogEvent(level, this.subsystem, format, arguments));
+		}
+	}
+
+	/*
+	 * Fixed-arity overloads, so that disabled messages don't allocate a varargs array
+	 */
+
+	public void trace(String message) {
+		if (this.isEnabled(LogLevel.TRACE)) {
+			this.log(LogLevel.TRACE, message);
+		}
+	}
+
+	public void trace(String format, Object argument) {
+		if (this.isEnabled(LogLevel.TRACE)) {
+			this.log(LogLevel.TRACE, format, argument);
+		}
+	}
+
+	public void trace(String format, Object argument1, Object argument2) {
+		if (this.isEnabled(LogLevel.TRACE)) {
+			this.log(LogLevel.TRACE, format, argument1, argument2);
+		}
+	}
+
+	public void trace(String format, Object... arguments) {
+		this.log(LogLevel.TRACE, format, arguments);
+	}
+
+	public void debug(String message) {
+		if (this.isEnabled(LogLevel.DEBUG)) {
+			this.log(LogLevel.DEBUG, message);
+		}
+	}
+
+	public void debug(String format, Object argument) {
+		if (this.isEnabled(LogLevel.DEBUG)) {
+			this.log(LogLevel.DEBUG, format, argument);
+		}
+	}
+
+	public void debug(String format, Object argument1, Object argument2) {
+		if (this.isEnabled(LogLevel.DEBUG)) {
+			this.log(LogLevel.DEBUG, format, argument1, argument2);
+		}
+	}
+
+	public void debug(String format, Object... arguments) {
+		this.log(LogLevel.DEBUG, format, arguments);
+	}
+
+	public void info(String message) {
+		if (this.isEnabled(LogLevel.INFO)) {
+			this.log(LogLevel.INFO, message);
+		}
+	}
+
+	public void info(String format, Object argument) {
+		if (this.isEnabled(LogLevel.INFO)) {
+			this.log(LogLevel.INFO, format, argument);
+		}
+	}
+
+	public void info(String format, Object argument1, Object argument2) {
+		if (this.isEnabled(LogLevel.INFO)) {
+			this.log(LogLevel.INFO, format, argument1, argument2);
+		}
+	}
+
+	public void info(String format, Object... arguments) {
+		this.log(LogLevel.INFO, format, arguments);
+	}
+
+	public void warn(String message) {
+		if (this.isEnabled(LogLevel.WARN)) {
+			this.log(LogLevel.WARN, message);
+		}
+	}
+
+	public void warn(String format, Object argument) {
+		if (this.isEnabled(LogLevel.WARN)) {
+			this.log(LogLevel.WARN, format, argument);
+		}
+	}
+
+	public void warn(String format, Object argument1, Object argument2) {
+		if (this.isEnabled(LogLevel.WARN)) {
+			this.log(LogLevel.WARN, format, argument1, argument2);
+		}
+	}
+
+	public void warn(String format, Object... arguments) {
+		this.log(LogLevel.WARN, format, arguments);
+	}
+
+	public void error(String message) {
+		if (this.isEnabled(LogLevel.ERROR)) {
+			this.log(LogLevel.ERROR, message);
+		}
+	}
+
+	public void error(String format, Object argument) {
+		if (this.isEnabled(LogLevel.ERROR)) {
+			this.log(LogLevel.ERROR, format, argument);
+		}
+	}
+
+	public void error(String format, Object argument1, Object argument2) {
+		if (this.isEnabled(LogLevel.ERROR)) {
+			this.log(LogLevel.ERROR, format, argument1, argument2);
+		}
+	}
+
+	public void error(String format, Object... arguments) {
+		this.log(LogLevel.ERROR, format, arguments);
+	}
+}
@@ -0,0 +1,23 @@
+package com.txmq.aviator.logging;
+
+/**
+ * A message waiting in the ring buffer to be written.  The message isn't 
+ * formatted until the writer thread gets to it.
+ */
+class LogEvent {
+	final long timestamp;
+	final LogLevel level;
+	final String subsystem;
+	final String threadName;
+	final String format;
+	final Object[] arguments;
+	
+	LogEvent(LogLevel level, String subsystem, String format, Object[] arguments) {
+		this.timestamp = System.currentTimeMillis();
+		this.level = level;
+		this.subsystem = subsystem;
+		this.threadName = Thread.currentThread().getName();
+		this.format = format;
+		this.arguments = arguments;
+	}
+}
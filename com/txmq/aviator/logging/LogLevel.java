@@ -0,0 +1,21 @@
+package com.txmq.aviator.logging;
+
+/**
+ * Logging levels, from most to least verbose.  A logger set to a level 
+ * writes messages at that level and every level after it.  OFF writes nothing.
+ */
+public enum LogLevel {
+	TRACE,
+	DEBUG,
+	INFO,
+	WARN,
+	ERROR,
+	OFF;
+	
+	/**
+	 * Parses a level name, ignoring case
+	 */
+	public static LogLevel parse(String name) {
+		return LogLevel.valueOf(name.trim().toUpperCase());
+	}
+}
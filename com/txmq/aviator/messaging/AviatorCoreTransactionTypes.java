@@ -23,4 +23,19 @@ public class AviatorCoreTransactionTypes {
 	
 	@TransactionType
 	public static final String GET_TRANSACTION_TYPES = "GET_TRANSACTION_TYPES"; 
+	
+	/**
+	 * Sent to socket clients in place of ACKNOWLEDGE when their transaction was 
+	 * turned away.  The payload is how long to wait before retrying, in milliseconds.
+	 */
+	@TransactionType
+	public static final String BUSY = "BUSY";
+	
+	/**
+	 * Sent to socket clients in place of ACKNOWLEDGE when their message couldn't be 
+	 * read, e.g. because its payload is of a class this node doesn't have.  The payload 
+	 * describes the problem.
+	 */
+	@TransactionType
+	public static final String ERROR = "ERROR";
 }
@@ -1,14 +1,18 @@
 package com.txmq.aviator.messaging;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.txmq.aviator.core.PlatformLocator;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+import com.txmq.aviator.messaging.codec.EncodedPayload;
+import com.txmq.aviator.messaging.id.MessageIds;
+import com.txmq.aviator.metrics.TraceContext;
 
 /**
  * ExoMessage is the base wrapper for transactions that come in through Exo. 
@@ -45,9 +49,31 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 	public T payload;
 	
 	/**
-	 * Unique identifier.
+	 * Unique identifier, assigned by the configured MessageIdGenerator.  Code that 
+	 * may receive notifications should prefer getUuid() to reading this field directly, 
+	 * since notifications are only assigned an identifier when one is asked for.
+	 * 
+	 * @see com.txmq.aviator.messaging.id.MessageIds
 	 */
 	public UUID uuid;
+	
+	/**
+	 * Set when the identifier should be assigned the first time it's read
+	 */
+	private transient volatile boolean uuidPending = false;
+	
+	/**
+	 * Payload bytes that have not been decoded yet.  Messages read from platform 
+	 * transactions defer decoding their payload until a handler needs it.
+	 */
+	private transient volatile EncodedPayload encodedPayload;
+	
+	/**
+	 * Timestamps collected on the way through the pipeline, if this message is being traced.
+	 * 
+	 * @see com.txmq.aviator.metrics.TransactionTracer
+	 */
+	private transient volatile TraceContext trace;
 
 	/**
 	 * Indicates that this transaction has been interrupted.  This transaction will 
@@ -69,6 +95,118 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 	public void interrupt() {
 		this.interrupted = true;
 	}
+
+	/**
+	 * Clears an interruption.  Used by the framework when a speculative
+	 * execution of a handler is discarded and the handler is executed again.
+	 */
+	public void clearInterrupt() {
+		this.interrupted = false;
+	}
+	
+	/**
+	 * Accessor for the payload.  Decodes the payload first if it hasn't been decoded yet.
+	 * Code that may receive messages read from platform transactions should prefer this 
+	 * method to reading the payload field directly.
+	 */
+	@JsonProperty("payload")
+	public T getPayload() {
+		try {
+			this.decodePayload();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this.payload;
+	}
+	
+	/**
+	 * Decodes the payload if it was left encoded when the message was read.  The 
+	 * framework calls this before invoking handlers, so handlers can use the payload
+	 * field as usual.
+	 */
+	@SuppressWarnings("unchecked")
+	public void decodePayload() throws IOException {
+		EncodedPayload encoded = this.encodedPayload;
+		if (encoded != null) {
+			this.payload = (T) encoded.decode(this.transactionType);
+			this.encodedPayload = null;
+		}
+	}
+	
+	/**
+	 * Tests if the payload has been decoded.
+	 */
+	@JsonIgnore
+	public boolean isPayloadDecoded() {
+		return this.encodedPayload == null;
+	}
+	
+	/**
+	 * Returns the payload's encoded bytes if it has not been decoded, otherwise null.
+	 */
+	@JsonIgnore
+	public EncodedPayload getEncodedPayload() {
+		return this.encodedPayload;
+	}
+	
+	/**
+	 * Used by the codec to attach an encoded payload to a message whose header has been read.
+	 */
+	@JsonIgnore
+	public void setEncodedPayload(EncodedPayload encodedPayload) {
+		this.encodedPayload = encodedPayload;
+	}
+	
+	@JsonIgnore
+	public TraceContext getTrace() {
+		return this.trace;
+	}
+	
+	@JsonIgnore
+	public void setTrace(TraceContext trace) {
+		this.trace = trace;
+	}
+	
+	/**
+	 * Accessor for the identifier.  Assigns one first if it was deferred.
+	 */
+	@JsonProperty("uuid")
+	public UUID getUuid() {
+		if (this.uuidPending) {
+			synchronized (this) {
+				if (this.uuidPending) {
+					this.uuid = MessageIds.next();
+					this.uuidPending = false;
+				}
+			}
+		}
+		return this.uuid;
+	}
+	
+	@JsonProperty("uuid")
+	public void setUuid(UUID uuid) {
+		this.uuid = uuid;
+		this.uuidPending = false;
+	}
+	
+	/**
+	 * Defers assigning an identifier until getUuid() is called.  Used for messages 
+	 * like notifications, which are created often but rarely need an identifier.
+	 */
+	protected void deferUuid() {
+		this.uuid = null;
+		this.uuidPending = true;
+	}
+	
+	/**
+	 * Make sure the payload is decoded and the identifier 
+	 * assigned before writing this message with Java serialization.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		this.getUuid();
+		this.decodePayload();
+		out.defaultWriteObject();
+	}
 	
 	/**
 	 * Inserts the transaction into the pipeline, beginning processing
@@ -79,7 +217,17 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 	
 	public AviatorMessage() {
 		super();
-		this.uuid = UUID.randomUUID();
+		this.uuid = MessageIds.next();
+	}
+	
+	/**
+	 * Initialize this message with an identifier that's already known, e.g. one read 
+	 * from the wire, without generating one.  The identifier may be null.
+	 * @param uuid
+	 */
+	public AviatorMessage(UUID uuid) {
+		super();
+		this.uuid = uuid;
 	}
 	
 	/**
@@ -89,7 +237,7 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 	public AviatorMessage(AviatorTransactionType transactionType) {
 		super();
 		this.transactionType = transactionType;	
-		this.uuid = UUID.randomUUID();
+		this.uuid = MessageIds.next();
 	}
 	
 	/**
@@ -100,7 +248,7 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 		super();
 		this.transactionType = transactionType;				
 		this.payload = payload;
-		this.uuid = UUID.randomUUID();
+		this.uuid = MessageIds.next();
 	}
 	
 	/**
@@ -116,26 +264,26 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 	 * @param transactionType
 	 */
 	public AviatorMessage(String namespace, String transactionType, T payload) {
-		this(new AviatorTransactionType(namespace, transactionType), payload);
+		this(AviatorTransactionType.of(namespace, transactionType), payload);
 	}	
 	
 	/**
-	 * Serialize this transaction to a sequence of bytes
+	 * Serialize this transaction to a sequence of bytes using the 
+	 * configured wire format.
+	 * 
+	 * @see com.txmq.aviator.messaging.codec.AviatorMessageCodec
 	 * 
 	 * @return the sequence as a byte array
 	 * @throws IOException
 	 *             if anything goes wrong
 	 */
 	public byte[] serialize() throws IOException {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-		ObjectOutputStream o = new ObjectOutputStream(b);
-		o.writeObject(this);
-		o.close();
-		return b.toByteArray();
+		return AviatorMessageCodec.encode(this);
 	}
 
 	/**
-	 * Deserialize this file transaction from a sequence of bytes
+	 * Deserialize this file transaction from a sequence of bytes.  Both 
+	 * the binary wire format and legacy Java serialization are accepted.
 	 *
 	 * @param b
 	 *            the sequence of bytes
@@ -145,10 +293,6 @@ public class AviatorMessage<T extends Serializable> implements Serializable {
 	 * @throws ClassNotFoundException 
 	 */
 	public static AviatorMessage<?> deserialize(byte[] b) throws IOException, ClassNotFoundException {
-		ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(b));
-		AviatorMessage<?> result = (AviatorMessage<?>) o.readObject();
-		o.close();
-		
-		return result;
+		return AviatorMessageCodec.decode(b);
 	}	
 }
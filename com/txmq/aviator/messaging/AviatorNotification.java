@@ -1,26 +1,77 @@
 package com.txmq.aviator.messaging;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.txmq.aviator.pipeline.PipelineStatus;
 import com.txmq.aviator.pipeline.ReportingEvents;
 
 public class AviatorNotification<T extends Serializable> extends AviatorMessage<T> {
+	/**
+	 * The message this notification reports on.  Compact notifications leave this 
+	 * out, and identify the triggering message by triggeringMessageId and transactionType.
+	 * 
+	 * @see #compact()
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	public AviatorMessage<?> triggeringMessage;
+	
+	/**
+	 * Identifier of the message this notification reports on
+	 */
+	public UUID triggeringMessageId;
+	
 	public ReportingEvents event;
 	public PipelineStatus status;
 	public String nodeName;
 	
+	/**
+	 * Notifications are only assigned an identifier if something asks for one.
+	 */
 	public AviatorNotification() {
-		
+		super((UUID) null);
+		this.deferUuid();
 	}
 	
 	public AviatorNotification(ReportingEvents event, T payload, PipelineStatus status, AviatorMessage<?> triggeringMessage, String nodeName) {
+		this();
 		this.event = event;
 		this.payload = payload;
 		this.status = status;
 		this.transactionType = triggeringMessage.transactionType;
 		this.triggeringMessage = triggeringMessage;
+		this.triggeringMessageId = triggeringMessage.getUuid();
 		this.nodeName = nodeName;
 	}
+	
+	/**
+	 * Returns a copy of this notification without the triggering message, so that 
+	 * sending it to a subscriber doesn't send the original payload back as well.
+	 */
+	public AviatorNotification<T> compact() {
+		AviatorNotification<T> result = new AviatorNotification<T>();
+		result.event = this.event;
+		result.payload = this.getPayload();
+		result.status = this.status;
+		result.transactionType = this.transactionType;
+		result.triggeringMessageId = this.triggeringMessageId;
+		result.nodeName = this.nodeName;
+		if (this.isInterrupted()) {
+			result.interrupt();
+		}
+		return result;
+	}
+	
+	/**
+	 * Subscribers may read the triggering message's payload, so decode it along with our own.
+	 */
+	@Override
+	public void decodePayload() throws IOException {
+		super.decodePayload();
+		if (this.triggeringMessage != null) {
+			this.triggeringMessage.decodePayload();
+		}
+	}
 }
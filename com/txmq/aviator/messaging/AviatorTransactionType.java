@@ -3,24 +3,31 @@ package com.txmq.aviator.messaging;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 
-import org.apache.commons.collections4.BidiMap;
-import org.apache.commons.collections4.bidimap.DualHashBidiMap;
-import org.reflections.Reflections;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
-
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.txmq.aviator.messaging.annotations.TransactionType;
 import com.txmq.aviator.messaging.annotations.TransactionTypes;
+import com.txmq.aviator.util.collections.LongObjectHashMap;
 import com.txmq.aviator.util.hash.MurmurHash3;
+import com.txmq.aviator.util.index.AnnotationIndex;
 
+/**
+ * Identifies a transaction type by hashes of its namespace and value.  
+ * 
+ * Registered types have one canonical instance each, obtained through 
+ * AviatorTransactionType.of(), which also carries the type's names and ordinal.  
+ * Code that creates transaction types per message should prefer of() over the 
+ * constructors, since it doesn't allocate or hash anything for registered types 
+ * when given hashes.  Canonical instances can't be modified.
+ */
 public class AviatorTransactionType implements Serializable {
 
 	/**
@@ -38,11 +45,42 @@ public class AviatorTransactionType implements Serializable {
 		return MurmurHash3.murmurhash3_x86_32(message, 0, message.length(), hashSeed);
 	}
 	
-	private static BidiMap<String, Integer> namespaceHashes = new DualHashBidiMap<String, Integer>();
+	/**
+	 * Returns the hash that identifies a namespace or transaction type value on the wire
+	 */
+	public static int hashOf(String name) {
+		return hash(name);
+	}
 	
-	private static BidiMap<String, Integer> transactionTypeHashes = new DualHashBidiMap<String, Integer>();
+	/**
+	 * Names of registered namespaces and transaction type values, keyed by their hashes.
+	 * 
+	 * These tables, and canonicalTypes below, are read on every routing hop from any 
+	 * thread, so they're replaced with updated copies when a type is registered 
+	 * rather than modified.
+	 */
+	private static volatile LongObjectHashMap<String> namespaceNames = new LongObjectHashMap<String>(16);
+	private static volatile LongObjectHashMap<String> valueNames = new LongObjectHashMap<String>(64);
 	
-	private static HashSet<AviatorTransactionType> transactionTypes= new HashSet<AviatorTransactionType>();
+	/**
+	 * The canonical instance of each registered type, keyed by its namespace and value hashes packed into a long
+	 */
+	private static volatile LongObjectHashMap<AviatorTransactionType> canonicalTypes = 
+			new LongObjectHashMap<AviatorTransactionType>(64);
+	
+	/**
+	 * Registered transaction types in the order they were registered.  A type's 
+	 * position in this list is its ordinal.  Ordinals are dense, so routers can 
+	 * keep their handlers in arrays indexed by ordinal instead of in hash maps.
+	 */
+	private static List<AviatorTransactionType> registeredTypes = new ArrayList<AviatorTransactionType>();
+	
+	/**
+	 * Types declared with @TransactionTypes, as opposed to types that were only 
+	 * registered because a handler declared them.  Only these are listed by 
+	 * getTransactionTypesMap().
+	 */
+	private static Set<AviatorTransactionType> declaredTypes = new LinkedHashSet<AviatorTransactionType>();
 	
 	
 	/**
@@ -56,8 +94,7 @@ public class AviatorTransactionType implements Serializable {
 	 */
 	//TODO:  Offer optimization through a whitelist of transaction type packages in exo-config.json
 	public static void initialize() throws ReflectiveOperationException {
-		Reflections reflections = new Reflections(new ConfigurationBuilder().addUrls(ClasspathHelper.forPackage("com.txmq")));		
-		Set<Class<?>> transactionTypeClasses = reflections.getTypesAnnotatedWith(TransactionTypes.class);
+		Set<Class<?>> transactionTypeClasses = AnnotationIndex.getTypesAnnotatedWith(TransactionTypes.class);
 		for (Class<?> ttc : transactionTypeClasses) {
 			TransactionTypes tta = ttc.getAnnotation(TransactionTypes.class);
 			String namespace;
@@ -66,34 +103,116 @@ public class AviatorTransactionType implements Serializable {
 			} else {
 				namespace = ttc.getName();
 			}
-			int classHash = hash(namespace);
-			namespaceHashes.putIfAbsent(namespace, classHash);
-				
 			for (Field field : ttc.getFields()) {
 				if (	field.getType().equals(String.class) && 
 						Modifier.isStatic(field.getModifiers()) && 
 						(!tta.onlyAnnotatedValues() || field.isAnnotationPresent(TransactionType.class))
 					) 
 				{
-					String typeValue = (String) field.get(null);
-					int typeHash = hash(typeValue);
-					transactionTypeHashes.putIfAbsent(typeValue, typeHash);
-					transactionTypes.add(new AviatorTransactionType(namespace, typeValue));
+					AviatorTransactionType declared = register(namespace, (String) field.get(null));
+					synchronized (AviatorTransactionType.class) {
+						declaredTypes.add(declared);
+					}
 				}
 			}
 		}
 	}
 	
-	public static Map<Integer, NamespaceEntry> getTransactionTypesMap() {
+	/**
+	 * Registers a transaction type, assigning it the next ordinal.  Registering a type 
+	 * that's already registered has no effect.  Types are identified on the wire by 
+	 * hashes of their namespace and value, so a namespace or value whose hash matches 
+	 * a different, already registered one is rejected.
+	 * 
+	 * initialize() registers types declared with @TransactionTypes, and routers register 
+	 * the types their handlers declare.  Applications shouldn't need to call this.
+	 */
+	public static synchronized AviatorTransactionType register(String namespace, String value) {
+		int namespaceHash = hash(namespace);
+		int valueHash = hash(value);
+		checkForCollision(namespaceNames, namespace, namespaceHash, "Namespace");
+		checkForCollision(valueNames, value, valueHash, "Transaction type");
 		
-		HashMap<Integer, NamespaceEntry> result = new HashMap<Integer, NamespaceEntry>();
-		for (Integer nsHash : namespaceHashes.values()) {
-			NamespaceEntry nsEntry = new AviatorTransactionType().new NamespaceEntry(nsHash, namespaceHashes.getKey(nsHash));
-			result.put(nsHash, nsEntry);
+		long key = key(namespaceHash, valueHash);
+		AviatorTransactionType result = canonicalTypes.get(key);
+		if (result != null) {
+			return result;
+		}
+		
+		if (namespaceNames.get(namespaceHash) == null) {
+			LongObjectHashMap<String> updatedNamespaceNames = namespaceNames.copy();
+			updatedNamespaceNames.put(namespaceHash, namespace);
+			namespaceNames = updatedNamespaceNames;
 		}
 		
-		for (AviatorTransactionType transactionType : transactionTypes) {
+		if (valueNames.get(valueHash) == null) {
+			LongObjectHashMap<String> updatedValueNames = valueNames.copy();
+			updatedValueNames.put(valueHash, value);
+			valueNames = updatedValueNames;
+		}
+		
+		result = new AviatorTransactionType(namespace, value);
+		result.ordinal = registeredTypes.size();
+		LongObjectHashMap<AviatorTransactionType> updatedCanonicalTypes = canonicalTypes.copy();
+		updatedCanonicalTypes.put(key, result);
+		registeredTypes.add(result);
+		canonicalTypes = updatedCanonicalTypes;
+		return result;
+	}
+	
+	/**
+	 * Returns the canonical instance of a transaction type, given the hashes of its namespace 
+	 * and value.  Types that haven't been registered get a new, unregistered instance.
+	 */
+	@JsonCreator
+	public static AviatorTransactionType of(@JsonProperty("ns") int namespace, @JsonProperty("value") int value) {
+		AviatorTransactionType result = canonicalTypes.get(key(namespace, value));
+		return (result != null) ? result : new AviatorTransactionType(namespace, value);
+	}
+	
+	/**
+	 * Returns the canonical instance of a transaction type.  Types that 
+	 * haven't been registered get a new, unregistered instance.
+	 */
+	public static AviatorTransactionType of(String namespace, String value) {
+		AviatorTransactionType result = canonicalTypes.get(key(hash(namespace), hash(value)));
+		return (result != null) ? result : new AviatorTransactionType(namespace, value);
+	}
+	
+	private static void checkForCollision(LongObjectHashMap<String> names, String name, int hash, String description) {
+		String existing = names.get(hash);
+		if (existing != null && !existing.equals(name)) {
+			throw new IllegalArgumentException(
+				description + " \"" + name + "\" has the same hash as \"" + existing + 
+				"\" and can't be told apart from it.  Please rename one of them."
+			);
+		}
+	}
+	
+	private static long key(int namespaceHash, int valueHash) {
+		return ((long) namespaceHash << 32) | (valueHash & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns the number of registered transaction types.  Ordinals run from 0 to one less than this.
+	 */
+	public static synchronized int getTransactionTypeCount() {
+		return canonicalTypes.size();
+	}
+	
+	/**
+	 * Returns the types declared with @TransactionTypes, by namespace.  Types that are 
+	 * only known because a handler declared them are routed, but not listed here.
+	 */
+	public static synchronized Map<Integer, NamespaceEntry> getTransactionTypesMap() {
+		
+		HashMap<Integer, NamespaceEntry> result = new HashMap<Integer, NamespaceEntry>();
+		for (AviatorTransactionType transactionType : declaredTypes) {
 			NamespaceEntry nsEntry = result.get(transactionType.getNamespaceHash());
+			if (nsEntry == null) {
+				nsEntry = new AviatorTransactionType().new NamespaceEntry(transactionType.getNamespaceHash(), transactionType.getNamespace());
+				result.put(transactionType.getNamespaceHash(), nsEntry);
+			}
 			nsEntry.transactionTypes.put(transactionType.getValueHash(), transactionType.getValue());
 			//result.get(transactionType.getNamespaceHash()).transactionTypes.put(transactionType.getValueHash(), transactionType.getValue());
 		}
@@ -136,14 +255,33 @@ public class AviatorTransactionType implements Serializable {
 	@JsonIgnore() 
 	private String _value;
 	
+	/**
+	 * This type's ordinal if this is the canonical instance of a registered type, otherwise -1
+	 */
+	private transient int ordinal = -1;
+	
+	/**
+	 * @deprecated Registered types, which is what messages read from the wire or from JSON 
+	 * carry, are shared and throw UnsupportedOperationException.  Assign the message a 
+	 * different type with {@link #of(String, String)} instead.
+	 */
+	@Deprecated
 	//TODO:  Test for validity
 	@JsonProperty("ns")
 	public void setNamespace(int namespace) {
+		this.checkModifiable();
 		this.ns = namespace;
 	}
 	
+	/**
+	 * @deprecated Registered types, which is what messages read from the wire or from JSON 
+	 * carry, are shared and throw UnsupportedOperationException.  Assign the message a 
+	 * different type with {@link #of(String, String)} instead.
+	 */
+	@Deprecated
 	//TODO: test for validity
 	public void setNamespace(String namespace) {
+		this.checkModifiable();
 		this.ns = hash(namespace);
 		this._ns = namespace;
 	}
@@ -155,14 +293,28 @@ public class AviatorTransactionType implements Serializable {
 	
 	@JsonIgnore
 	public String getNamespace() {
-		return namespaceHashes.getKey(this.ns);		
+		return (this._ns != null) ? this._ns : namespaceNames.get(this.ns);
 	}
 	
+	/**
+	 * @deprecated Registered types, which is what messages read from the wire or from JSON 
+	 * carry, are shared and throw UnsupportedOperationException.  Assign the message a 
+	 * different type with {@link #of(String, String)} instead.
+	 */
+	@Deprecated
 	public void setValue(int value) {
+		this.checkModifiable();
 		this.value = value;
 	}
 	
+	/**
+	 * @deprecated Registered types, which is what messages read from the wire or from JSON 
+	 * carry, are shared and throw UnsupportedOperationException.  Assign the message a 
+	 * different type with {@link #of(String, String)} instead.
+	 */
+	@Deprecated
 	public void setValue(String value) {
+		this.checkModifiable();
 		this.value = hash(value);
 		this._value = value;
 	}
@@ -173,7 +325,13 @@ public class AviatorTransactionType implements Serializable {
 	}
 	
 	public String getValue() {
-		return transactionTypeHashes.getKey(this.value);
+		return (this._value != null) ? this._value : valueNames.get(this.value);
+	}
+	
+	private void checkModifiable() {
+		if (this.ordinal >= 0) {
+			throw new UnsupportedOperationException("Registered transaction types can't be modified");
+		}
 	}
 	
 	public AviatorTransactionType() {
@@ -190,19 +348,61 @@ public class AviatorTransactionType implements Serializable {
 		this.setValue(value);
 	}
 	
+	/**
+	 * Returns this type's ordinal, or -1 if it hasn't been registered.
+	 */
+	@JsonIgnore
+	public int getOrdinal() {
+		if (this.ordinal >= 0) {
+			return this.ordinal;
+		}
+		
+		AviatorTransactionType canonical = canonicalTypes.get(key(this.ns, this.value));
+		return (canonical != null) ? canonical.ordinal : -1;
+	}
+	
+	/**
+	 * Returns a type's ordinal, or -1 if it hasn't been registered or is null, 
+	 * e.g. for a message that was encoded without a transaction type.
+	 */
+	public static int ordinalOf(AviatorTransactionType transactionType) {
+		return (transactionType != null) ? transactionType.getOrdinal() : -1;
+	}
+	
+	/**
+	 * Replaces deserialized copies of registered types with the canonical instance
+	 */
+	protected Object readResolve() {
+		AviatorTransactionType canonical = canonicalTypes.get(key(this.ns, this.value));
+		if (canonical != null) {
+			return canonical;
+		}
+		
+		this.ordinal = -1;
+		return this;
+	}
+	
 	@JsonIgnore
 	public boolean isValid() {
-		return transactionTypes.contains(this);
+		return this.getOrdinal() >= 0;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		
+		if (!(obj instanceof AviatorTransactionType)) {
+			return false;
+		}
+		
 		AviatorTransactionType that = (AviatorTransactionType) obj;
 		return this.ns == that.ns && this.value == that.value;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(this.ns, this.value);
+		return 31 * this.ns + this.value;
 	}
 }
@@ -0,0 +1,470 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.txmq.aviator.config.model.WireFormatConfig;
+import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.AviatorTransactionType;
+
+/**
+ * AviatorMessageCodec implements the binary wire format used to move AviatorMessages
+ * through the Hashgraph.  Java object serialization writes class descriptors and the
+ * full AviatorTransactionType and UUID object graphs into every transaction.  The
+ * binary format replaces that with a fixed-size header followed by the payload.
+ *
+ * Version 1 of the format is laid out as follows (big-endian):
+ *
+ * 	magic			1 byte		always 0xA7
+ * 	version			1 byte		format version, currently 1
+ * 	flags			1 byte		see the FLAG_ constants
+ * 	namespace		4 bytes		namespace hash of the transaction type
+ * 	value			4 bytes		value hash of the transaction type
+ * 	uuid			16 bytes	most significant bits followed by least significant bits
+ * 	payload tag		1 byte		identifies how the payload was encoded
+ * 	payload length	4 bytes		length of the encoded payload
+ * 	payload			n bytes		the encoded payload
+ *
+ * When FLAG_COMPRESSED is set, the payload has been deflated by PayloadCompressor 
+ * after being encoded, and the payload length is the length of the compressed bytes.
+ *
+ * Transactions written by earlier versions of the framework are Java serialization
+ * streams.  Those always begin with 0xACED, so the decoder can tell the two apart and
+ * continue to read legacy transactions during a rolling upgrade.  The codec can also
+ * be configured to keep writing the legacy format until every node has been upgraded.
+ *
+ * @see com.txmq.aviator.config.model.WireFormatConfig
+ */
+public class AviatorMessageCodec {
+
+	/**
+	 * First byte of every message written in the binary format
+	 */
+	public static final byte MAGIC = (byte) 0xA7;
+
+	/**
+	 * Current version of the binary format
+	 */
+	public static final byte VERSION = 1;
+
+	/**
+	 * Set when the message has been interrupted
+	 */
+	public static final int FLAG_INTERRUPTED = 0x01;
+
+	/**
+	 * Set when the message has no transaction type
+	 */
+	public static final int FLAG_NO_TRANSACTION_TYPE = 0x02;
+
+	/**
+	 * Set when the message has no uuid
+	 */
+	public static final int FLAG_NO_UUID = 0x04;
+
+	/**
+	 * Set when the payload has been compressed
+	 * 
+	 * @see PayloadCompressor
+	 */
+	public static final int FLAG_COMPRESSED = 0x08;
+
+	/**
+	 * Payload tags.  Payloads of transaction types with a registered codec are written
+	 * by that codec.  Otherwise strings are written as UTF-8 and byte arrays are written 
+	 * as-is.  Everything else falls back to Java serialization of the payload object alone.
+	 */
+	public static final byte PAYLOAD_NULL = 0;
+	public static final byte PAYLOAD_STRING = 1;
+	public static final byte PAYLOAD_BYTES = 2;
+	public static final byte PAYLOAD_SERIALIZED = 3;
+	public static final byte PAYLOAD_CODEC = 4;
+
+	/**
+	 * Length of the fixed header, up to and including the payload length.
+	 */
+	public static final int HEADER_LENGTH = 1 + 1 + 1 + 4 + 4 + 8 + 8 + 1 + 4;
+
+	/**
+	 * First two bytes of a Java serialization stream
+	 */
+	private static final byte LEGACY_MAGIC_0 = (byte) 0xAC;
+	private static final byte LEGACY_MAGIC_1 = (byte) 0xED;
+
+	/**
+	 * When true, messages are written using Java serialization so
+	 * that nodes that have not been upgraded can still read them.
+	 */
+	private static boolean writeLegacy = false;
+
+	/**
+	 * When true, Java-serialized transactions are accepted by the decoder.
+	 */
+	private static boolean readLegacy = true;
+
+	/**
+	 * Applies the "wireFormat" section of aviator-config.json
+	 */
+	public static void configure(WireFormatConfig config) {
+		writeLegacy = config.writeLegacy;
+		readLegacy = config.readLegacy;
+		PayloadCodecRegistry.setGenerateCodecs(config.generatePayloadCodecs);
+	}
+
+	/**
+	 * Encodes a message using the configured wire format.  The message is encoded into 
+	 * this thread's pooled buffer, so the only allocation is the returned array.
+	 */
+	public static byte[] encode(AviatorMessage<?> message) throws IOException {
+		ByteBuffer buffer = ByteBufferPool.acquire();
+		while (true) {
+			try {
+				encode(message, buffer);
+				return Arrays.copyOf(buffer.array(), buffer.position());
+			} catch (BufferOverflowException e) {
+				buffer = ByteBufferPool.grow(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a message into a caller-supplied buffer, which may be a direct buffer.  
+	 * The message is written starting at the buffer's position, and the position is 
+	 * advanced past the end of the message.
+	 *
+	 * Subclasses of AviatorMessage carry fields the binary header knows nothing
+	 * about, so they are always written using Java serialization.
+	 * 
+	 * @throws BufferOverflowException if the message does not fit.  The contents of 
+	 * 			the buffer are undefined afterwards, and the caller should retry with 
+	 * 			a larger buffer.
+	 */
+	public static void encode(AviatorMessage<?> message, ByteBuffer buffer) throws IOException {
+		if (writeLegacy || message.getClass() != AviatorMessage.class) {
+			encodeLegacy(message, buffer);
+			return;
+		}
+
+		int flags = 0;
+		if (message.isInterrupted()) {
+			flags |= FLAG_INTERRUPTED;
+		}
+		if (message.transactionType == null) {
+			flags |= FLAG_NO_TRANSACTION_TYPE;
+		}
+		UUID uuid = message.getUuid();
+		if (uuid == null) {
+			flags |= FLAG_NO_UUID;
+		}
+
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		int flagsPosition = buffer.position();
+		buffer.put((byte) flags);
+		buffer.putInt((message.transactionType != null) ? message.transactionType.getNamespaceHash() : 0);
+		buffer.putInt((message.transactionType != null) ? message.transactionType.getValueHash() : 0);
+		buffer.putLong((uuid != null) ? uuid.getMostSignificantBits() : 0);
+		buffer.putLong((uuid != null) ? uuid.getLeastSignificantBits() : 0);
+
+		//The payload tag and length aren't known until the payload has been 
+		//written, so reserve space for them and fill them in afterwards.
+		int tagPosition = buffer.position();
+		buffer.put(PAYLOAD_NULL);
+		buffer.putInt(0);
+		int payloadStart = buffer.position();
+		
+		byte payloadTag = encodePayload(message, buffer);
+		EncodedPayload encodedPayload = message.getEncodedPayload();
+		if (encodedPayload != null) {
+			//Undecoded payloads are copied as they were received, compressed or not
+			if (encodedPayload.compressed) {
+				flags |= FLAG_COMPRESSED;
+			}
+		} else if (payloadTag != PAYLOAD_NULL && PayloadCompressor.compress(message.transactionType, buffer, payloadStart)) {
+			flags |= FLAG_COMPRESSED;
+		}
+		
+		buffer.put(flagsPosition, (byte) flags);
+		buffer.put(tagPosition, payloadTag);
+		buffer.putInt(tagPosition + 1, buffer.position() - payloadStart);
+	}
+	
+	/**
+	 * Writes a message's payload into the buffer and returns the tag that describes how it was written.
+	 */
+	private static byte encodePayload(AviatorMessage<?> message, ByteBuffer buffer) throws IOException {
+		EncodedPayload encodedPayload = message.getEncodedPayload();
+		if (encodedPayload != null) {
+			//The payload was never decoded, so its original encoding can be reused as-is
+			buffer.put(encodedPayload.bytes, encodedPayload.offset, encodedPayload.length);
+			return encodedPayload.tag;
+		}
+		
+		if (message.payload == null) {
+			return PAYLOAD_NULL;
+		}
+		
+		PayloadCodec<Serializable> codec = PayloadCodecRegistry.getCodec(message.transactionType);
+		if (codec != null) {
+			codec.encode(message.payload, buffer);
+			return PAYLOAD_CODEC;
+		} else if (message.payload instanceof String) {
+			encodeUtf8((String) message.payload, buffer);
+			return PAYLOAD_STRING;
+		} else if (message.payload instanceof byte[]) {
+			buffer.put((byte[]) message.payload);
+			return PAYLOAD_BYTES;
+		} else {
+			serializeObject(message.payload, buffer);
+			return PAYLOAD_SERIALIZED;
+		}
+	}
+
+	/**
+	 * Decodes a message written in either the binary or the legacy format.
+	 */
+	public static AviatorMessage<?> decode(byte[] bytes) throws IOException, ClassNotFoundException {
+		AviatorMessage<?> result = decodeLazy(bytes, 0, bytes.length);
+		result.decodePayload();
+		return result;
+	}
+
+	/**
+	 * Decodes a message from the remaining bytes of a buffer, which may be a direct 
+	 * or pooled buffer.  The payload is fully decoded, so the message does not 
+	 * reference the buffer and the buffer can be reused as soon as this returns.
+	 * The buffer's position is advanced to its limit.
+	 */
+	public static AviatorMessage<?> decode(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+		AviatorMessage<?> result = decodeLazy(buffer);
+		result.decodePayload();
+		return result;
+	}
+
+	/**
+	 * Decodes only the header of a message - its transaction type, uuid and flags.  
+	 * The payload is left encoded and is decoded when AviatorMessage.decodePayload() 
+	 * or AviatorMessage.getPayload() is first called, which lets the pipeline skip 
+	 * payload decoding entirely for transactions nobody handles.
+	 * 
+	 * The undecoded payload references the supplied array rather than copying it, 
+	 * so the array must not be modified until the payload has been decoded.
+	 * 
+	 * Legacy Java-serialized messages can't be partially decoded, so they are 
+	 * always fully decoded.
+	 */
+	public static AviatorMessage<?> decodeLazy(byte[] bytes) throws IOException, ClassNotFoundException {
+		return decodeLazy(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Decodes only the header of a message read from the remaining bytes of a buffer.  
+	 * Heap buffers are read in place, and the undecoded payload references the buffer's 
+	 * backing array.  Direct buffers are copied once, since their contents can't be 
+	 * referenced safely.  The buffer's position is advanced to its limit.
+	 * 
+	 * @see #decodeLazy(byte[])
+	 */
+	public static AviatorMessage<?> decodeLazy(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+		AviatorMessage<?> result;
+		if (buffer.hasArray()) {
+			result = decodeLazy(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			result = decodeLazy(bytes, 0, bytes.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the header of a message occupying a range of an array.  The header is 
+	 * read straight out of the array, without wrapping it in a buffer.
+	 */
+	public static AviatorMessage<?> decodeLazy(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+		if (isLegacy(bytes, offset, length)) {
+			if (!readLegacy) {
+				throw new IOException("Received a Java-serialized transaction but legacy decoding is disabled");
+			}
+			return (AviatorMessage<?>) deserializeObject(bytes, offset, length);
+		}
+
+		if (length < HEADER_LENGTH || bytes[offset] != MAGIC) {
+			throw new IOException("Transaction is not an Aviator message");
+		}
+
+		byte version = bytes[offset + 1];
+		if (version != VERSION) {
+			throw new IOException("Unsupported wire format version " + version);
+		}
+
+		int flags = bytes[offset + 2];
+		int namespace = readInt(bytes, offset + 3);
+		int value = readInt(bytes, offset + 7);
+		long mostSignificantBits = readLong(bytes, offset + 11);
+		long leastSignificantBits = readLong(bytes, offset + 19);
+		byte payloadTag = bytes[offset + 27];
+		int payloadLength = readInt(bytes, offset + 28);
+		if (payloadLength < 0 || payloadLength > length - HEADER_LENGTH) {
+			throw new IOException("Payload length " + payloadLength + " exceeds the transaction size");
+		}
+
+		//The identifier comes from the header, so don't generate one
+		UUID uuid = ((flags & FLAG_NO_UUID) == 0) ? new UUID(mostSignificantBits, leastSignificantBits) : null;
+		AviatorMessage<Serializable> result = new AviatorMessage<Serializable>(uuid);
+		if ((flags & FLAG_NO_TRANSACTION_TYPE) == 0) {
+			result.transactionType = AviatorTransactionType.of(namespace, value);
+		}
+
+		if (payloadTag != PAYLOAD_NULL) {
+			result.setEncodedPayload(new EncodedPayload(	payloadTag, 
+															bytes, 
+															offset + HEADER_LENGTH, 
+															payloadLength, 
+															(flags & FLAG_COMPRESSED) != 0));
+		}
+
+		if ((flags & FLAG_INTERRUPTED) != 0) {
+			result.interrupt();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Decodes a payload that was encoded using the supplied payload tag.
+	 */
+	public static Serializable decodePayload(	byte payloadTag, 
+												AviatorTransactionType transactionType, 
+												byte[] bytes, 
+												int offset, 
+												int length) throws IOException {
+		switch (payloadTag) {
+			case PAYLOAD_NULL:
+				return null;
+			case PAYLOAD_STRING:
+				return new String(bytes, offset, length, StandardCharsets.UTF_8);
+			case PAYLOAD_BYTES:
+				return Arrays.copyOfRange(bytes, offset, offset + length);
+			case PAYLOAD_SERIALIZED:
+				try {
+					return (Serializable) deserializeObject(bytes, offset, length);
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Could not deserialize payload", e);
+				}
+			case PAYLOAD_CODEC:
+				PayloadCodec<Serializable> codec = PayloadCodecRegistry.getCodec(transactionType);
+				if (codec == null) {
+					throw new IOException("No payload codec is registered for transaction type " + transactionType);
+				}
+				return codec.decode(bytes, offset, length);
+			default:
+				throw new IOException("Unknown payload tag " + payloadTag);
+		}
+	}
+
+	/**
+	 * Tests if a transaction was written using Java serialization.
+	 */
+	public static boolean isLegacy(byte[] bytes) {
+		return isLegacy(bytes, 0, bytes.length);
+	}
+
+	private static boolean isLegacy(byte[] bytes, int offset, int length) {
+		return length >= 2 && bytes[offset] == LEGACY_MAGIC_0 && bytes[offset + 1] == LEGACY_MAGIC_1;
+	}
+
+	/**
+	 * Writes a message using Java serialization, the format used by earlier versions of the framework.
+	 */
+	public static byte[] encodeLegacy(AviatorMessage<?> message) throws IOException {
+		ByteBuffer buffer = ByteBufferPool.acquire();
+		while (true) {
+			try {
+				encodeLegacy(message, buffer);
+				return Arrays.copyOf(buffer.array(), buffer.position());
+			} catch (BufferOverflowException e) {
+				buffer = ByteBufferPool.grow(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Writes a message into a buffer using Java serialization.
+	 */
+	public static void encodeLegacy(AviatorMessage<?> message, ByteBuffer buffer) throws IOException {
+		serializeObject(message, buffer);
+	}
+
+	/**
+	 * Reads a message written using Java serialization.
+	 */
+	public static AviatorMessage<?> decodeLegacy(byte[] bytes) throws IOException, ClassNotFoundException {
+		return (AviatorMessage<?>) deserializeObject(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * UTF-8 encoders are stateful, so each thread gets its own.
+	 */
+	private static final ThreadLocal<CharsetEncoder> utf8Encoders = new ThreadLocal<CharsetEncoder>() {
+		@Override
+		protected CharsetEncoder initialValue() {
+			return StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+
+	/**
+	 * Writes a string into the buffer as UTF-8 without an intermediate byte array.
+	 */
+	private static void encodeUtf8(String value, ByteBuffer buffer) {
+		CharsetEncoder encoder = utf8Encoders.get();
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(value), buffer, true);
+		if (!result.isUnderflow()) {
+			throw new BufferOverflowException();
+		}
+		result = encoder.flush(buffer);
+		if (!result.isUnderflow()) {
+			throw new BufferOverflowException();
+		}
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return	((bytes[offset] & 0xFF) << 24) | 
+				((bytes[offset + 1] & 0xFF) << 16) | 
+				((bytes[offset + 2] & 0xFF) << 8) | 
+				(bytes[offset + 3] & 0xFF);
+	}
+
+	private static long readLong(byte[] bytes, int offset) {
+		return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+	}
+
+	private static void serializeObject(Object object, ByteBuffer buffer) throws IOException {
+		ObjectOutputStream o = new ObjectOutputStream(new ByteBufferOutputStream(buffer));
+		o.writeObject(object);
+		o.close();
+	}
+
+	private static Object deserializeObject(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+		ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length));
+		Object result = o.readObject();
+		o.close();
+		return result;
+	}
+}
@@ -0,0 +1,139 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.txmq.aviator.messaging.AviatorMessage;
+
+/**
+ * BatchEnvelope packs several encoded AviatorMessages into a single platform 
+ * transaction.  The envelope is laid out as follows (big-endian):
+ * 
+ * 	magic			1 byte		always 0xA8
+ * 	version			1 byte		envelope version, currently 1
+ * 	count			4 bytes		number of messages in the envelope
+ * 
+ * followed by count entries of:
+ * 
+ * 	length			4 bytes		length of the encoded message
+ * 	message			n bytes		the message, as written by AviatorMessageCodec
+ * 
+ * The magic byte differs from both AviatorMessageCodec.MAGIC and the first byte of 
+ * a Java serialization stream, so a node can tell an envelope from a single message.
+ * 
+ * @see com.txmq.aviator.core.TransactionBatcher
+ */
+public class BatchEnvelope {
+	
+	/**
+	 * First byte of every batch envelope
+	 */
+	public static final byte MAGIC = (byte) 0xA8;
+	
+	/**
+	 * Current version of the envelope format
+	 */
+	public static final byte VERSION = 1;
+	
+	/**
+	 * Length of the envelope header
+	 */
+	public static final int HEADER_LENGTH = 1 + 1 + 4;
+	
+	/**
+	 * Length of the prefix written before each message
+	 */
+	public static final int ENTRY_OVERHEAD = 4;
+	
+	/**
+	 * A message read from an envelope, along with where it was found in the envelope
+	 */
+	public static class Entry {
+		public final AviatorMessage<?> message;
+		
+		private final byte[] bytes;
+		private final int offset;
+		private final int length;
+		
+		private Entry(AviatorMessage<?> message, byte[] bytes, int offset, int length) {
+			this.message = message;
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		/**
+		 * Returns a copy of the bytes the message was encoded as
+		 */
+		public byte[] getBytes() {
+			return Arrays.copyOfRange(this.bytes, this.offset, this.offset + this.length);
+		}
+	}
+	
+	/**
+	 * Tests if a transaction is a batch envelope.
+	 */
+	public static boolean isBatch(byte[] bytes) {
+		return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+	}
+	
+	/**
+	 * Writes an envelope header with a count of zero, leaving the buffer positioned for the first entry.
+	 */
+	public static void writeHeader(ByteBuffer buffer) {
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.putInt(0);
+	}
+	
+	/**
+	 * Fills in the message count of an envelope that starts at the beginning of the buffer.
+	 */
+	public static void writeCount(ByteBuffer buffer, int count) {
+		buffer.putInt(2, count);
+	}
+	
+	/**
+	 * Decodes the headers of every message in an envelope, in the order they were added.  
+	 * Payloads are left encoded and reference the supplied array.
+	 * 
+	 * @see AviatorMessageCodec#decodeLazy(byte[])
+	 */
+	public static List<Entry> decodeLazy(byte[] bytes) throws IOException, ClassNotFoundException {
+		if (!isBatch(bytes)) {
+			throw new IOException("Transaction is not a batch envelope");
+		}
+		
+		if (bytes[1] != VERSION) {
+			throw new IOException("Unsupported batch envelope version " + bytes[1]);
+		}
+		
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.position(2);
+		int count = buffer.getInt();
+		if (count < 0 || count > (bytes.length - HEADER_LENGTH) / ENTRY_OVERHEAD) {
+			throw new IOException("Invalid batch envelope message count " + count);
+		}
+		
+		List<Entry> result = new ArrayList<Entry>(count);
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < ENTRY_OVERHEAD) {
+				throw new IOException("Batch envelope is truncated");
+			}
+			
+			int length = buffer.getInt();
+			int offset = buffer.position();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("Batch envelope is truncated");
+			}
+			
+			result.add(new Entry(AviatorMessageCodec.decodeLazy(bytes, offset, length), bytes, offset, length));
+			buffer.position(offset + length);
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,36 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream that reads from a ByteBuffer without copying it.
+ */
+public class ByteBufferInputStream extends InputStream {
+	
+	private final ByteBuffer buffer;
+	
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		return this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) {
+		if (!this.buffer.hasRemaining()) {
+			return -1;
+		}
+		int count = Math.min(length, this.buffer.remaining());
+		this.buffer.get(bytes, offset, count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.buffer.remaining();
+	}
+}
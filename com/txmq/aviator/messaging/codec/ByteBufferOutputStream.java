@@ -0,0 +1,28 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputStream that writes into a ByteBuffer, so stream-based encoders (Java 
+ * serialization, Jackson) can write directly into a caller-supplied buffer.  
+ * Writing past the buffer's limit throws a BufferOverflowException.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+	
+	private final ByteBuffer buffer;
+	
+	public ByteBufferOutputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public void write(int b) {
+		this.buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) {
+		this.buffer.put(bytes, offset, length);
+	}
+}
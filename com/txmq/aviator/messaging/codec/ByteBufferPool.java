@@ -0,0 +1,53 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-thread pool of encoding buffers.  Each thread that encodes messages (REST and 
+ * WebSocket worker threads, socket connections, the consensus thread) reuses a single 
+ * buffer, so encoding a message allocates nothing beyond its final, exact-size copy.
+ * 
+ * Buffers grow on demand when a message doesn't fit.  Buffers larger than 
+ * MAX_RETAINED_CAPACITY are used once and then released, so one unusually large 
+ * message doesn't pin memory on a thread forever.
+ */
+public class ByteBufferPool {
+	
+	public static final int INITIAL_CAPACITY = 16 * 1024;
+	
+	public static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+	
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(INITIAL_CAPACITY);
+		}
+	};
+	
+	/**
+	 * Returns this thread's buffer, cleared and ready for writing.  The buffer must not 
+	 * be retained after the caller is done with it, since the next call will reuse it.
+	 */
+	public static ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Returns a cleared buffer with at least twice the capacity of the one 
+	 * supplied, and keeps it as this thread's buffer if it isn't too large.
+	 */
+	public static ByteBuffer grow(ByteBuffer buffer) {
+		int capacity = buffer.capacity() * 2;
+		if (capacity < 0) {
+			throw new IllegalStateException("Message exceeds the maximum encodable size");
+		}
+		
+		ByteBuffer result = ByteBuffer.allocate(capacity);
+		if (capacity <= MAX_RETAINED_CAPACITY) {
+			buffers.set(result);
+		}
+		return result;
+	}
+}
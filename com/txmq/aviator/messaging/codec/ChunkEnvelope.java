@@ -0,0 +1,139 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * ChunkEnvelope splits an encoded message that is too large for a single platform 
+ * transaction into numbered chunks, each of which is submitted as its own transaction.  
+ * Each chunk is laid out as follows (big-endian):
+ * 
+ * 	magic			1 byte		always 0xA9
+ * 	version			1 byte		envelope version, currently 1
+ * 	group			16 bytes	identifies the chunks that make up one message
+ * 	index			4 bytes		position of this chunk, starting at 0
+ * 	count			4 bytes		number of chunks in the message
+ * 	total length	4 bytes		length of the reassembled message
+ * 	offset			4 bytes		where this chunk's data goes in the reassembled message
+ * 	data			n bytes		the rest of the transaction
+ * 
+ * @see com.txmq.aviator.core.ChunkAssembler
+ */
+public class ChunkEnvelope {
+	
+	/**
+	 * First byte of every chunk
+	 */
+	public static final byte MAGIC = (byte) 0xA9;
+	
+	/**
+	 * Current version of the chunk format
+	 */
+	public static final byte VERSION = 1;
+	
+	/**
+	 * Length of the header preceding each chunk's data
+	 */
+	public static final int HEADER_LENGTH = 1 + 1 + 16 + 4 + 4 + 4 + 4;
+	
+	/**
+	 * A chunk read from a platform transaction.  The data references the transaction's bytes.
+	 */
+	public static class Chunk {
+		public final UUID group;
+		public final int index;
+		public final int count;
+		public final int totalLength;
+		public final int offset;
+		public final byte[] bytes;
+		public final int dataOffset;
+		public final int dataLength;
+		
+		private Chunk(UUID group, int index, int count, int totalLength, int offset, byte[] bytes, int dataOffset, int dataLength) {
+			this.group = group;
+			this.index = index;
+			this.count = count;
+			this.totalLength = totalLength;
+			this.offset = offset;
+			this.bytes = bytes;
+			this.dataOffset = dataOffset;
+			this.dataLength = dataLength;
+		}
+	}
+	
+	/**
+	 * Tests if a transaction is a chunk of a larger message.
+	 */
+	public static boolean isChunk(byte[] bytes) {
+		return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+	}
+	
+	/**
+	 * Splits an encoded message into chunks of at most maxTransactionBytes each, including the header.
+	 */
+	public static List<byte[]> split(byte[] message, UUID group, int maxTransactionBytes) {
+		int chunkData = maxTransactionBytes - HEADER_LENGTH;
+		if (chunkData <= 0) {
+			throw new IllegalArgumentException("maxTransactionBytes is too small to hold a chunk: " + maxTransactionBytes);
+		}
+		
+		int count = (message.length + chunkData - 1) / chunkData;
+		List<byte[]> result = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			int offset = i * chunkData;
+			int length = Math.min(chunkData, message.length - offset);
+			ByteBuffer chunk = ByteBuffer.allocate(HEADER_LENGTH + length);
+			chunk.put(MAGIC);
+			chunk.put(VERSION);
+			chunk.putLong(group.getMostSignificantBits());
+			chunk.putLong(group.getLeastSignificantBits());
+			chunk.putInt(i);
+			chunk.putInt(count);
+			chunk.putInt(message.length);
+			chunk.putInt(offset);
+			chunk.put(message, offset, length);
+			result.add(chunk.array());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads a chunk's header, checking that it's consistent with itself.
+	 */
+	public static Chunk read(byte[] bytes) throws IOException {
+		if (!isChunk(bytes)) {
+			throw new IOException("Transaction is not a chunk");
+		}
+		
+		if (bytes[1] != VERSION) {
+			throw new IOException("Unsupported chunk version " + bytes[1]);
+		}
+		
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.position(2);
+		UUID group = new UUID(buffer.getLong(), buffer.getLong());
+		int index = buffer.getInt();
+		int count = buffer.getInt();
+		int totalLength = buffer.getInt();
+		int offset = buffer.getInt();
+		int dataLength = bytes.length - HEADER_LENGTH;
+		
+		if (	count <= 0 || index < 0 || index >= count || totalLength < 0 || 
+				offset < 0 || offset > totalLength - dataLength) {
+			throw new IOException("Chunk header is inconsistent");
+		}
+		
+		//Every chunk but the last is full, so a message can't have more chunks than 
+		//this one's data divides it into.  This bounds what's reserved for the rest.
+		long maxCount = (dataLength > 0) ? Math.max(1, ((long) totalLength + dataLength - 1) / dataLength) : 1;
+		if (count > maxCount) {
+			throw new IOException("Chunk header claims " + count + " chunks for a message of " + totalLength + " bytes");
+		}
+		
+		return new Chunk(group, index, count, totalLength, offset, bytes, HEADER_LENGTH, dataLength);
+	}
+}
@@ -0,0 +1,63 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of how well one transaction type's payloads compress.
+ * 
+ * @see PayloadCompressor
+ */
+public class CompressionStatistics {
+	
+	private final LongAdder compressedMessages = new LongAdder();
+	
+	private final LongAdder uncompressedMessages = new LongAdder();
+	
+	private final LongAdder originalBytes = new LongAdder();
+	
+	private final LongAdder compressedBytes = new LongAdder();
+	
+	/**
+	 * Records a payload that was compressed.
+	 */
+	void recordCompressed(int originalLength, int compressedLength) {
+		this.compressedMessages.increment();
+		this.originalBytes.add(originalLength);
+		this.compressedBytes.add(compressedLength);
+	}
+	
+	/**
+	 * Records a payload that was eligible for compression, but was 
+	 * sent uncompressed because compressing it didn't make it smaller.
+	 */
+	void recordUncompressed(int originalLength) {
+		this.uncompressedMessages.increment();
+		this.originalBytes.add(originalLength);
+		this.compressedBytes.add(originalLength);
+	}
+	
+	public long getCompressedMessages() {
+		return this.compressedMessages.sum();
+	}
+	
+	public long getUncompressedMessages() {
+		return this.uncompressedMessages.sum();
+	}
+	
+	public long getOriginalBytes() {
+		return this.originalBytes.sum();
+	}
+	
+	public long getCompressedBytes() {
+		return this.compressedBytes.sum();
+	}
+	
+	/**
+	 * Ratio of original bytes to bytes sent, e.g. 4.0 means payloads were 
+	 * a quarter of their original size.  Returns 1.0 until payloads are recorded.
+	 */
+	public double getCompressionRatio() {
+		long compressed = this.getCompressedBytes();
+		return (compressed > 0) ? (double) this.getOriginalBytes() / compressed : 1.0;
+	}
+}
@@ -0,0 +1,57 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.txmq.aviator.messaging.AviatorTransactionType;
+
+/**
+ * A payload that has been read off the wire but not decoded yet.  It references
+ * a range of the transaction's bytes rather than copying them.
+ *
+ * @see AviatorMessageCodec#decodeLazy(byte[])
+ */
+public final class EncodedPayload {
+
+	/**
+	 * Payload tag from the message header, one of the AviatorMessageCodec.PAYLOAD_ constants
+	 */
+	public final byte tag;
+
+	public final byte[] bytes;
+
+	public final int offset;
+
+	public final int length;
+
+	/**
+	 * True if the payload was compressed after it was encoded
+	 * 
+	 * @see PayloadCompressor
+	 */
+	public final boolean compressed;
+
+	public EncodedPayload(byte tag, byte[] bytes, int offset, int length) {
+		this(tag, bytes, offset, length, false);
+	}
+
+	public EncodedPayload(byte tag, byte[] bytes, int offset, int length, boolean compressed) {
+		this.tag = tag;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Decodes the payload, decompressing it first if necessary.  The 
+	 * transaction type is needed to look up the payload codec.
+	 */
+	public Serializable decode(AviatorTransactionType transactionType) throws IOException {
+		if (this.compressed) {
+			byte[] uncompressed = PayloadCompressor.decompress(this.bytes, this.offset, this.length);
+			return AviatorMessageCodec.decodePayload(this.tag, transactionType, uncompressed, 0, uncompressed.length);
+		}
+		return AviatorMessageCodec.decodePayload(this.tag, transactionType, this.bytes, this.offset, this.length);
+	}
+}
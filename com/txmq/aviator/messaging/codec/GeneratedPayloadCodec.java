@@ -0,0 +1,709 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.txmq.aviator.util.hash.MurmurHash3;
+
+/**
+ * A payload codec generated at startup for a simple payload class.  Instead of going
+ * through Java serialization or Jackson databind for every payload, the generator
+ * inspects the class once and builds a MethodHandle-based reader and writer for each
+ * of its fields.  Encoding and decoding a payload is then a straight walk over those
+ * handles, with no reflection, class descriptors or boxing of primitive fields.
+ *
+ * Classes are supported when they are concrete, have a no-argument constructor, don't
+ * customize Java serialization, and only declare (non-static, non-transient) fields of
+ * these types:  primitives and their wrappers, String, byte[], UUID and enums.
+ * forClass() returns null for anything else, and those payloads keep using the
+ * built-in encoding of AviatorMessageCodec.
+ *
+ * Payloads are written as a 4-byte schema fingerprint, followed by each field in
+ * a fixed order (superclass fields first, then by name).  Primitives are written
+ * big-endian; references are preceded by a presence byte; strings and byte arrays
+ * are length-prefixed.  The fingerprint is a hash of the field names and types, so
+ * a node with a different version of the payload class rejects the payload rather
+ * than misreading it.
+ *
+ * The same field handles also back a JSON reader and writer used by
+ * AviatorMessageJsonParser, for classes whose JSON form is simply their public fields.
+ *
+ * @see PayloadCodecRegistry#registerGeneratedCodec(com.txmq.aviator.messaging.AviatorTransactionType, Class)
+ *
+ * @param <T> the payload class
+ */
+public class GeneratedPayloadCodec<T extends Serializable> implements PayloadCodec<T> {
+
+	/**
+	 * Generated codecs, keyed by payload class.  Classes that can't
+	 * be supported are remembered as UNSUPPORTED so they're only inspected once.
+	 */
+	private static final Map<Class<?>, Object> generated = new ConcurrentHashMap<Class<?>, Object>();
+
+	private static final Object UNSUPPORTED = new Object();
+
+	/**
+	 * Returns the generated codec for a payload class, generating it the first
+	 * time it's asked for.  Returns null if the class isn't supported.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Serializable> GeneratedPayloadCodec<T> forClass(Class<T> payloadClass) {
+		Object result = generated.get(payloadClass);
+		if (result == null) {
+			try {
+				result = new GeneratedPayloadCodec<T>(payloadClass);
+			} catch (IllegalArgumentException e) {
+				result = UNSUPPORTED;
+			}
+
+			Object existing = generated.putIfAbsent(payloadClass, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+
+		return (result != UNSUPPORTED) ? (GeneratedPayloadCodec<T>) result : null;
+	}
+
+	/**
+	 * Returns the codecs that have been generated so far
+	 */
+	public static List<GeneratedPayloadCodec<?>> getGeneratedCodecs() {
+		List<GeneratedPayloadCodec<?>> result = new ArrayList<GeneratedPayloadCodec<?>>();
+		for (Object codec : generated.values()) {
+			if (codec != UNSUPPORTED) {
+				result.add((GeneratedPayloadCodec<?>) codec);
+			}
+		}
+		return result;
+	}
+
+	private final Class<T> payloadClass;
+
+	/**
+	 * Creates an instance of the payload class, typed ()Object
+	 */
+	private final MethodHandle constructor;
+
+	private final FieldCodec[] fields;
+
+	private final int fingerprint;
+
+	/**
+	 * True when the class's JSON form is exactly its fields, so the generated JSON reader and writer can be used
+	 */
+	private final boolean jsonCompatible;
+
+	/**
+	 * Generates a codec for the payload class.  This constructor lets the codec
+	 * be declared explicitly, using @AviatorHandler(payloadCodec=GeneratedPayloadCodec.class).
+	 *
+	 * @throws IllegalArgumentException if the class isn't supported
+	 */
+	public GeneratedPayloadCodec(Class<T> payloadClass) {
+		if (	payloadClass.isInterface() ||
+				payloadClass.isArray() ||
+				payloadClass.isEnum() ||
+				payloadClass.isPrimitive() ||
+				Modifier.isAbstract(payloadClass.getModifiers())) {
+			throw new IllegalArgumentException(payloadClass.getName() + " is not a concrete class");
+		}
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		this.payloadClass = payloadClass;
+
+		try {
+			Constructor<T> noArgs = payloadClass.getDeclaredConstructor();
+			noArgs.setAccessible(true);
+			this.constructor = lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+			throw new IllegalArgumentException(payloadClass.getName() + " does not have an accessible no-argument constructor", e);
+		}
+
+		//Collect fields from the top of the hierarchy down, ordered by name within each class
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> c = payloadClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			if (declaresCustomSerialization(c)) {
+				throw new IllegalArgumentException(c.getName() + " customizes Java serialization");
+			}
+			hierarchy.add(0, c);
+		}
+
+		boolean allPublic = true;
+		List<FieldCodec> fieldCodecs = new ArrayList<FieldCodec>();
+		StringBuilder schema = new StringBuilder(payloadClass.getName());
+		for (Class<?> c : hierarchy) {
+			List<Field> declared = new ArrayList<Field>();
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+					declared.add(field);
+				}
+			}
+
+			Collections.sort(declared, new Comparator<Field>() {
+				@Override
+				public int compare(Field a, Field b) {
+					return a.getName().compareTo(b.getName());
+				}
+			});
+
+			for (Field field : declared) {
+				fieldCodecs.add(createFieldCodec(lookup, field));
+				schema.append(';').append(field.getName()).append(':').append(field.getType().getName());
+				allPublic &= Modifier.isPublic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers());
+			}
+		}
+
+		this.fields = fieldCodecs.toArray(new FieldCodec[fieldCodecs.size()]);
+		this.fingerprint = MurmurHash3.murmurhash3_x86_32(schema, 0, schema.length(), 0);
+		this.jsonCompatible = allPublic && Modifier.isPublic(payloadClass.getModifiers()) && !hasJacksonCustomization(hierarchy);
+	}
+
+	public Class<T> getPayloadClass() {
+		return this.payloadClass;
+	}
+
+	/**
+	 * Tests if the generated JSON reader and writer can stand in for Jackson
+	 * databind.  That's only the case when Jackson would see the class as a
+	 * plain bag of public fields.
+	 */
+	public boolean isJsonCompatible() {
+		return this.jsonCompatible;
+	}
+
+	@Override
+	public byte[] encode(T payload) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		while (true) {
+			try {
+				this.encode(payload, buffer);
+				byte[] result = new byte[buffer.position()];
+				System.arraycopy(buffer.array(), 0, result, 0, result.length);
+				return result;
+			} catch (BufferOverflowException e) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+
+	@Override
+	public void encode(T payload, ByteBuffer buffer) throws IOException {
+		buffer.putInt(this.fingerprint);
+		try {
+			for (FieldCodec field : this.fields) {
+				field.write(payload, buffer);
+			}
+		} catch (BufferOverflowException | IOException e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IOException("Could not encode " + this.payloadClass.getName(), t);
+		}
+	}
+
+	@Override
+	public T decode(byte[] bytes, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+		if (length < 4 || buffer.getInt() != this.fingerprint) {
+			throw new IOException("Payload was not written by this version of " + this.payloadClass.getName());
+		}
+
+		try {
+			Object result = this.constructor.invokeExact();
+			for (FieldCodec field : this.fields) {
+				field.read(result, buffer);
+			}
+			return this.payloadClass.cast(result);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Payload of " + this.payloadClass.getName() + " is truncated", e);
+		} catch (IOException e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IOException("Could not decode " + this.payloadClass.getName(), t);
+		}
+	}
+
+	/**
+	 * Writes a payload as a JSON object, the way Jackson would for a class of public fields.
+	 */
+	public void writeJson(Object payload, JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		try {
+			for (FieldCodec field : this.fields) {
+				generator.writeFieldName(field.name);
+				field.writeJson(payload, generator);
+			}
+		} catch (IOException e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IOException("Could not write " + this.payloadClass.getName() + " as JSON", t);
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Reads a payload from a JSON object.  Fields missing from the JSON keep the
+	 * values assigned by the payload class's constructor.
+	 */
+	public T readJson(JsonNode node) throws IOException {
+		try {
+			Object result = this.constructor.invokeExact();
+			for (FieldCodec field : this.fields) {
+				JsonNode value = node.get(field.name);
+				if (value != null) {
+					field.readJson(result, value);
+				}
+			}
+			return this.payloadClass.cast(result);
+		} catch (IOException e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IOException("Could not read " + this.payloadClass.getName() + " from JSON", t);
+		}
+	}
+
+	private static boolean declaresCustomSerialization(Class<?> c) {
+		for (Method method : c.getDeclaredMethods()) {
+			String name = method.getName();
+			if (	name.equals("writeObject") || name.equals("readObject") || name.equals("readObjectNoData") ||
+					name.equals("writeReplace") || name.equals("readResolve")) {
+				return true;
+			}
+		}
+		return java.io.Externalizable.class.isAssignableFrom(c);
+	}
+
+	/**
+	 * Looks for anything that would make Jackson's view of a class differ from its
+	 * public fields:  Jackson annotations, or getters and setters that may hide them.
+	 */
+	private static boolean hasJacksonCustomization(List<Class<?>> hierarchy) {
+		for (Class<?> c : hierarchy) {
+			if (hasJacksonAnnotation(c.getAnnotations())) {
+				return true;
+			}
+
+			for (Field field : c.getDeclaredFields()) {
+				if (hasJacksonAnnotation(field.getAnnotations())) {
+					return true;
+				}
+			}
+
+			for (Method method : c.getDeclaredMethods()) {
+				String name = method.getName();
+				if (	!Modifier.isStatic(method.getModifiers()) &&
+						(name.startsWith("get") || name.startsWith("is") || name.startsWith("set"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasJacksonAnnotation(Annotation[] annotations) {
+		for (Annotation annotation : annotations) {
+			if (annotation.annotationType().getName().startsWith("com.fasterxml.jackson")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static FieldCodec createFieldCodec(MethodHandles.Lookup lookup, Field field) {
+		Class<?> type = field.getType();
+		MethodHandle getter;
+		MethodHandle setter;
+		try {
+			field.setAccessible(true);
+			getter = lookup.unreflectGetter(field);
+			setter = lookup.unreflectSetter(field);
+		} catch (IllegalAccessException | SecurityException e) {
+			throw new IllegalArgumentException("Field " + field.getName() + " is not accessible", e);
+		}
+
+		if (type == int.class || type == short.class || type == byte.class || type == char.class) {
+			return new IntFieldCodec(field.getName(), type, getter, setter);
+		} else if (type == long.class) {
+			return new LongFieldCodec(field.getName(), getter, setter);
+		} else if (type == double.class || type == float.class) {
+			return new DoubleFieldCodec(field.getName(), type, getter, setter);
+		} else if (type == boolean.class) {
+			return new BooleanFieldCodec(field.getName(), getter, setter);
+		}
+
+		ReferenceKind kind = ReferenceKind.forType(type);
+		if (kind == null) {
+			throw new IllegalArgumentException("Field " + field.getName() + " has unsupported type " + type.getName());
+		}
+		return new ReferenceFieldCodec(field.getName(), type, kind, getter, setter);
+	}
+
+	/**
+	 * Reads and writes one field of a payload.  Getters are typed (Object)X and
+	 * setters (Object,X)void, so they can be invoked exactly without boxing.
+	 */
+	private static abstract class FieldCodec {
+		final String name;
+
+		FieldCodec(String name) {
+			this.name = name;
+		}
+
+		abstract void write(Object target, ByteBuffer buffer) throws Throwable;
+
+		abstract void read(Object target, ByteBuffer buffer) throws Throwable;
+
+		abstract void writeJson(Object target, JsonGenerator generator) throws Throwable;
+
+		abstract void readJson(Object target, JsonNode node) throws Throwable;
+	}
+
+	/**
+	 * int, short, byte and char fields, widened to int
+	 */
+	private static final class IntFieldCodec extends FieldCodec {
+		private final Class<?> type;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		IntFieldCodec(String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+			super(name);
+			this.type = type;
+			this.getter = MethodHandles.explicitCastArguments(getter, MethodType.methodType(int.class, Object.class));
+			this.setter = MethodHandles.explicitCastArguments(setter, MethodType.methodType(void.class, Object.class, int.class));
+		}
+
+		@Override
+		void write(Object target, ByteBuffer buffer) throws Throwable {
+			int value = (int) this.getter.invokeExact(target);
+			if (this.type == int.class) {
+				buffer.putInt(value);
+			} else if (this.type == byte.class) {
+				buffer.put((byte) value);
+			} else {
+				buffer.putShort((short) value);
+			}
+		}
+
+		@Override
+		void read(Object target, ByteBuffer buffer) throws Throwable {
+			int value;
+			if (this.type == int.class) {
+				value = buffer.getInt();
+			} else if (this.type == byte.class) {
+				value = buffer.get();
+			} else if (this.type == char.class) {
+				value = buffer.getChar();
+			} else {
+				value = buffer.getShort();
+			}
+			this.setter.invokeExact(target, value);
+		}
+
+		@Override
+		void writeJson(Object target, JsonGenerator generator) throws Throwable {
+			int value = (int) this.getter.invokeExact(target);
+			if (this.type == char.class) {
+				generator.writeString(String.valueOf((char) value));
+			} else {
+				generator.writeNumber(value);
+			}
+		}
+
+		@Override
+		void readJson(Object target, JsonNode node) throws Throwable {
+			int value = (this.type == char.class) ? node.asText().charAt(0) : node.asInt();
+			this.setter.invokeExact(target, value);
+		}
+	}
+
+	private static final class LongFieldCodec extends FieldCodec {
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		LongFieldCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name);
+			this.getter = getter.asType(MethodType.methodType(long.class, Object.class));
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+		}
+
+		@Override
+		void write(Object target, ByteBuffer buffer) throws Throwable {
+			buffer.putLong((long) this.getter.invokeExact(target));
+		}
+
+		@Override
+		void read(Object target, ByteBuffer buffer) throws Throwable {
+			this.setter.invokeExact(target, buffer.getLong());
+		}
+
+		@Override
+		void writeJson(Object target, JsonGenerator generator) throws Throwable {
+			generator.writeNumber((long) this.getter.invokeExact(target));
+		}
+
+		@Override
+		void readJson(Object target, JsonNode node) throws Throwable {
+			this.setter.invokeExact(target, node.asLong());
+		}
+	}
+
+	/**
+	 * double and float fields.  Floats are written as 4 bytes, widened to double in between.
+	 */
+	private static final class DoubleFieldCodec extends FieldCodec {
+		private final boolean isFloat;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		DoubleFieldCodec(String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+			super(name);
+			this.isFloat = (type == float.class);
+			this.getter = MethodHandles.explicitCastArguments(getter, MethodType.methodType(double.class, Object.class));
+			this.setter = MethodHandles.explicitCastArguments(setter, MethodType.methodType(void.class, Object.class, double.class));
+		}
+
+		@Override
+		void write(Object target, ByteBuffer buffer) throws Throwable {
+			double value = (double) this.getter.invokeExact(target);
+			if (this.isFloat) {
+				buffer.putFloat((float) value);
+			} else {
+				buffer.putDouble(value);
+			}
+		}
+
+		@Override
+		void read(Object target, ByteBuffer buffer) throws Throwable {
+			double value = (this.isFloat) ? buffer.getFloat() : buffer.getDouble();
+			this.setter.invokeExact(target, value);
+		}
+
+		@Override
+		void writeJson(Object target, JsonGenerator generator) throws Throwable {
+			double value = (double) this.getter.invokeExact(target);
+			if (this.isFloat) {
+				generator.writeNumber((float) value);
+			} else {
+				generator.writeNumber(value);
+			}
+		}
+
+		@Override
+		void readJson(Object target, JsonNode node) throws Throwable {
+			this.setter.invokeExact(target, node.asDouble());
+		}
+	}
+
+	private static final class BooleanFieldCodec extends FieldCodec {
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		BooleanFieldCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name);
+			this.getter = getter.asType(MethodType.methodType(boolean.class, Object.class));
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, boolean.class));
+		}
+
+		@Override
+		void write(Object target, ByteBuffer buffer) throws Throwable {
+			buffer.put((boolean) this.getter.invokeExact(target) ? (byte) 1 : (byte) 0);
+		}
+
+		@Override
+		void read(Object target, ByteBuffer buffer) throws Throwable {
+			this.setter.invokeExact(target, buffer.get() != 0);
+		}
+
+		@Override
+		void writeJson(Object target, JsonGenerator generator) throws Throwable {
+			generator.writeBoolean((boolean) this.getter.invokeExact(target));
+		}
+
+		@Override
+		void readJson(Object target, JsonNode node) throws Throwable {
+			this.setter.invokeExact(target, node.asBoolean());
+		}
+	}
+
+	/**
+	 * The reference types a generated codec can handle
+	 */
+	private enum ReferenceKind {
+		INTEGER, LONG, SHORT, BYTE, CHARACTER, DOUBLE, FLOAT, BOOLEAN, STRING, BYTES, UUID, ENUM;
+
+		static ReferenceKind forType(Class<?> type) {
+			if (type == Integer.class) return INTEGER;
+			if (type == Long.class) return LONG;
+			if (type == Short.class) return SHORT;
+			if (type == Byte.class) return BYTE;
+			if (type == Character.class) return CHARACTER;
+			if (type == Double.class) return DOUBLE;
+			if (type == Float.class) return FLOAT;
+			if (type == Boolean.class) return BOOLEAN;
+			if (type == String.class) return STRING;
+			if (type == byte[].class) return BYTES;
+			if (type == java.util.UUID.class) return UUID;
+			if (type.isEnum()) return ENUM;
+			return null;
+		}
+	}
+
+	/**
+	 * Fields holding references, which may be null.  Each value is preceded by a presence byte.
+	 */
+	private static final class ReferenceFieldCodec extends FieldCodec {
+		private final ReferenceKind kind;
+		private final Object[] enumConstants;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		ReferenceFieldCodec(String name, Class<?> type, ReferenceKind kind, MethodHandle getter, MethodHandle setter) {
+			super(name);
+			this.kind = kind;
+			this.enumConstants = (kind == ReferenceKind.ENUM) ? type.getEnumConstants() : null;
+			this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		}
+
+		@Override
+		void write(Object target, ByteBuffer buffer) throws Throwable {
+			Object value = (Object) this.getter.invokeExact(target);
+			if (value == null) {
+				buffer.put((byte) 0);
+				return;
+			}
+
+			buffer.put((byte) 1);
+			switch (this.kind) {
+				case INTEGER:	buffer.putInt((Integer) value); break;
+				case LONG:		buffer.putLong((Long) value); break;
+				case SHORT:		buffer.putShort((Short) value); break;
+				case BYTE:		buffer.put((Byte) value); break;
+				case CHARACTER:	buffer.putChar((Character) value); break;
+				case DOUBLE:	buffer.putDouble((Double) value); break;
+				case FLOAT:		buffer.putFloat((Float) value); break;
+				case BOOLEAN:	buffer.put(((Boolean) value) ? (byte) 1 : (byte) 0); break;
+				case STRING:	writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), buffer); break;
+				case BYTES:		writeBytes((byte[]) value, buffer); break;
+				case UUID:
+					buffer.putLong(((UUID) value).getMostSignificantBits());
+					buffer.putLong(((UUID) value).getLeastSignificantBits());
+					break;
+				case ENUM:		writeBytes(((Enum<?>) value).name().getBytes(StandardCharsets.UTF_8), buffer); break;
+			}
+		}
+
+		@Override
+		void read(Object target, ByteBuffer buffer) throws Throwable {
+			Object value = null;
+			if (buffer.get() != 0) {
+				switch (this.kind) {
+					case INTEGER:	value = buffer.getInt(); break;
+					case LONG:		value = buffer.getLong(); break;
+					case SHORT:		value = buffer.getShort(); break;
+					case BYTE:		value = buffer.get(); break;
+					case CHARACTER:	value = buffer.getChar(); break;
+					case DOUBLE:	value = buffer.getDouble(); break;
+					case FLOAT:		value = buffer.getFloat(); break;
+					case BOOLEAN:	value = (buffer.get() != 0); break;
+					case STRING:	value = new String(readBytes(buffer), StandardCharsets.UTF_8); break;
+					case BYTES:		value = readBytes(buffer); break;
+					case UUID:		value = new UUID(buffer.getLong(), buffer.getLong()); break;
+					case ENUM:		value = this.enumConstant(new String(readBytes(buffer), StandardCharsets.UTF_8)); break;
+				}
+			}
+			this.setter.invokeExact(target, value);
+		}
+
+		@Override
+		void writeJson(Object target, JsonGenerator generator) throws Throwable {
+			Object value = (Object) this.getter.invokeExact(target);
+			if (value == null) {
+				generator.writeNull();
+				return;
+			}
+
+			switch (this.kind) {
+				case INTEGER:	generator.writeNumber((Integer) value); break;
+				case LONG:		generator.writeNumber((Long) value); break;
+				case SHORT:		generator.writeNumber((Short) value); break;
+				case BYTE:		generator.writeNumber((Byte) value); break;
+				case DOUBLE:	generator.writeNumber((Double) value); break;
+				case FLOAT:		generator.writeNumber((Float) value); break;
+				case BOOLEAN:	generator.writeBoolean((Boolean) value); break;
+				case BYTES:		generator.writeBinary((byte[]) value); break;
+				case ENUM:		generator.writeString(((Enum<?>) value).name()); break;
+				default:		generator.writeString(value.toString()); break;
+			}
+		}
+
+		@Override
+		void readJson(Object target, JsonNode node) throws Throwable {
+			Object value = null;
+			if (!node.isNull()) {
+				switch (this.kind) {
+					case INTEGER:	value = node.asInt(); break;
+					case LONG:		value = node.asLong(); break;
+					case SHORT:		value = (short) node.asInt(); break;
+					case BYTE:		value = (byte) node.asInt(); break;
+					case CHARACTER:	value = node.asText().charAt(0); break;
+					case DOUBLE:	value = node.asDouble(); break;
+					case FLOAT:		value = (float) node.asDouble(); break;
+					case BOOLEAN:	value = node.asBoolean(); break;
+					case STRING:	value = node.asText(); break;
+					case BYTES:		value = node.binaryValue(); break;
+					case UUID:		value = UUID.fromString(node.asText()); break;
+					case ENUM:		value = this.enumConstant(node.asText()); break;
+				}
+			}
+			this.setter.invokeExact(target, value);
+		}
+
+		private Object enumConstant(String name) throws IOException {
+			for (Object constant : this.enumConstants) {
+				if (((Enum<?>) constant).name().equals(name)) {
+					return constant;
+				}
+			}
+			throw new IOException("Unknown enum constant " + name);
+		}
+
+		private static void writeBytes(byte[] bytes, ByteBuffer buffer) {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+
+		private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("Payload field length " + length + " exceeds the payload size");
+			}
+			byte[] result = new byte[length];
+			buffer.get(result);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes payloads using Java serialization.  This is the most convenient codec, 
+ * since it works with any Serializable payload, but also the slowest and most verbose.
+ */
+public class JavaSerializationPayloadCodec implements PayloadCodec<Serializable> {
+
+	@Override
+	public byte[] encode(Serializable payload) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ObjectOutputStream o = new ObjectOutputStream(b);
+		o.writeObject(payload);
+		o.close();
+		return b.toByteArray();
+	}
+
+	@Override
+	public void encode(Serializable payload, ByteBuffer buffer) throws IOException {
+		ObjectOutputStream o = new ObjectOutputStream(new ByteBufferOutputStream(buffer));
+		o.writeObject(payload);
+		o.close();
+	}
+
+	@Override
+	public Serializable decode(byte[] bytes, int offset, int length) throws IOException {
+		ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length));
+		try {
+			return (Serializable) o.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Could not deserialize payload", e);
+		} finally {
+			o.close();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Encodes payloads using Jackson.  By default payloads are written as JSON text.  
+ * Binary Jackson formats such as Smile or CBOR can be used by subclassing this codec 
+ * and passing an ObjectMapper constructed with the matching JsonFactory, e.g.
+ * 
+ * public class SmileAnimalCodec extends JsonPayloadCodec<Animal> {
+ *     public SmileAnimalCodec() {
+ *         super(Animal.class, new ObjectMapper(new SmileFactory()));
+ *     }
+ * }
+ *
+ * @param <T> the payload class
+ */
+public class JsonPayloadCodec<T extends Serializable> implements PayloadCodec<T> {
+	
+	/**
+	 * ObjectMapper instances are thread-safe once configured, so one can be shared by all JSON codecs.
+	 */
+	private static final ObjectMapper defaultMapper = new ObjectMapper();
+	
+	private final ObjectMapper mapper;
+	
+	private final Class<T> payloadClass;
+	
+	public JsonPayloadCodec(Class<T> payloadClass) {
+		this(payloadClass, defaultMapper);
+	}
+	
+	public JsonPayloadCodec(Class<T> payloadClass, ObjectMapper mapper) {
+		this.payloadClass = payloadClass;
+		this.mapper = mapper;
+	}
+	
+	public Class<T> getPayloadClass() {
+		return this.payloadClass;
+	}
+	
+	@Override
+	public byte[] encode(T payload) throws IOException {
+		return this.mapper.writeValueAsBytes(payload);
+	}
+
+	@Override
+	public void encode(T payload, ByteBuffer buffer) throws IOException {
+		this.mapper.writeValue(new ByteBufferOutputStream(buffer), payload);
+	}
+
+	@Override
+	public T decode(byte[] bytes, int offset, int length) throws IOException {
+		return this.mapper.readValue(bytes, offset, length, this.payloadClass);
+	}
+}
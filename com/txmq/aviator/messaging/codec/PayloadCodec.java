@@ -0,0 +1,65 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A PayloadCodec converts the payload of an AviatorMessage to and from bytes.  Codecs 
+ * are registered per transaction type, which lets applications use a tight hand-written 
+ * format for hot, high-volume transaction types while keeping the convenience of JSON 
+ * or Java serialization for the rest.
+ * 
+ * Codecs can be declared on a handler using @AviatorHandler(payloadCodec=...), or 
+ * registered directly with PayloadCodecRegistry.  Codec classes declared through 
+ * metadata must expose either a public constructor that accepts the payload class, 
+ * or a public no-argument constructor.
+ * 
+ * Implementations must be thread-safe and deterministic - every node must decode 
+ * the same bytes to an equivalent payload.
+ * 
+ * @see PayloadCodecRegistry
+ * 
+ * @param <T> the type of payload this codec handles
+ */
+public interface PayloadCodec<T extends Serializable> {
+	
+	/**
+	 * Encodes a (non-null) payload to bytes.
+	 */
+	public byte[] encode(T payload) throws IOException;
+	
+	/**
+	 * Decodes a payload from a range of a byte array.  The decoded payload 
+	 * must not reference the array, since the array may be a pooled buffer.
+	 */
+	public T decode(byte[] bytes, int offset, int length) throws IOException;
+	
+	/**
+	 * Encodes a payload into a caller-supplied buffer, starting at its position.  Codecs 
+	 * that can write directly into the buffer should override this method to avoid the 
+	 * intermediate array the default implementation allocates.
+	 * 
+	 * @throws java.nio.BufferOverflowException if the payload doesn't fit
+	 */
+	public default void encode(T payload, ByteBuffer buffer) throws IOException {
+		buffer.put(this.encode(payload));
+	}
+	
+	/**
+	 * Decodes a payload from the remaining bytes of a buffer, advancing its position 
+	 * to the limit.  Heap buffers are decoded in place; direct buffers are copied.
+	 */
+	public default T decode(ByteBuffer buffer) throws IOException {
+		T result;
+		if (buffer.hasArray()) {
+			result = this.decode(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			result = this.decode(bytes, 0, bytes.length);
+		}
+		return result;
+	}
+}
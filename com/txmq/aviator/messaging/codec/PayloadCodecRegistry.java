@@ -0,0 +1,150 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.txmq.aviator.messaging.AviatorTransactionType;
+
+/**
+ * Registry of payload classes and payload codecs, keyed by transaction type.
+ * 
+ * Every transport consults the registry:  the binary wire codec used for platform 
+ * transactions, Java sockets and binary WebSocket frames encodes payloads with the 
+ * registered codec, and the JSON parser used for WebSocket text frames uses the 
+ * registered payload class.  Transaction types without a registered codec fall 
+ * back to the built-in payload encoding of AviatorMessageCodec.
+ * 
+ * The router populates the registry from @AviatorHandler metadata during startup.
+ * Applications can also register codecs directly, before the platform starts 
+ * handling transactions.  When a handler declares a payload class but no codec, 
+ * a GeneratedPayloadCodec is registered for it if the class is simple enough.
+ * 
+ * @see AviatorMessageCodec
+ * @see com.txmq.aviator.pipeline.metadata.AviatorHandler
+ */
+public class PayloadCodecRegistry {
+	
+	private static Map<AviatorTransactionType, PayloadCodec<?>> codecs = 
+			new ConcurrentHashMap<AviatorTransactionType, PayloadCodec<?>>();
+	
+	private static Map<AviatorTransactionType, Class<?>> payloadTypes = 
+			new ConcurrentHashMap<AviatorTransactionType, Class<?>>();
+	
+	/**
+	 * When true, codecs are generated for declared payload classes that don't declare one
+	 */
+	private static volatile boolean generateCodecs = true;
+	
+	public static void setGenerateCodecs(boolean generateCodecs) {
+		PayloadCodecRegistry.generateCodecs = generateCodecs;
+	}
+	
+	/**
+	 * Registers a codec instance for a transaction type.  Registering a second, 
+	 * different codec for the same transaction type is an error, since nodes 
+	 * would not be able to agree on how that transaction type is encoded.
+	 */
+	public static void registerCodec(AviatorTransactionType transactionType, PayloadCodec<?> codec) {
+		PayloadCodec<?> existing = codecs.putIfAbsent(transactionType, codec);
+		if (	existing instanceof GeneratedPayloadCodec && 
+				!(codec instanceof GeneratedPayloadCodec) && 
+				codecs.replace(transactionType, existing, codec)) {
+			//A codec declared explicitly takes precedence over a generated one
+			return;
+		}
+		
+		if (existing != null && !existing.getClass().equals(codec.getClass())) {
+			throw new IllegalArgumentException(
+				"Transaction type " + transactionType.getNamespace() + "." + transactionType.getValue() + 
+				" is already encoded using " + existing.getClass().getName()
+			);
+		}
+	}
+	
+	/**
+	 * Instantiates and registers a codec class for a transaction type.  If the codec 
+	 * class has a constructor accepting a Class, it is passed the payload class.
+	 */
+	public static void registerCodec(AviatorTransactionType transactionType, 
+									Class<?> codecClass, 
+									Class<?> payloadClass) throws ReflectiveOperationException {
+		
+		PayloadCodec<?> existing = codecs.get(transactionType);
+		if (existing != null && existing.getClass().equals(codecClass)) {
+			return;
+		}
+		
+		if (!PayloadCodec.class.isAssignableFrom(codecClass)) {
+			throw new IllegalArgumentException(codecClass.getName() + " does not implement PayloadCodec");
+		}
+		
+		PayloadCodec<?> codec;
+		Constructor<?> constructor;
+		try {
+			constructor = codecClass.getConstructor(Class.class);
+			if (payloadClass == null) {
+				throw new IllegalArgumentException(
+					codecClass.getName() + " requires a payload class, but none was declared"
+				);
+			}
+			codec = (PayloadCodec<?>) constructor.newInstance(payloadClass);
+		} catch (NoSuchMethodException e) {
+			constructor = codecClass.getConstructor();
+			codec = (PayloadCodec<?>) constructor.newInstance();
+		}
+		
+		registerCodec(transactionType, codec);
+	}
+	
+	/**
+	 * Registers a generated codec for a transaction type's payload class, unless the 
+	 * transaction type already has a codec or the class can't be supported.
+	 * 
+	 * @return true if a generated codec is registered for the transaction type
+	 */
+	public static <T extends Serializable> boolean registerGeneratedCodec(	AviatorTransactionType transactionType, 
+																			Class<T> payloadClass) {
+		if (!generateCodecs || codecs.containsKey(transactionType)) {
+			return codecs.get(transactionType) instanceof GeneratedPayloadCodec;
+		}
+		
+		GeneratedPayloadCodec<T> codec = GeneratedPayloadCodec.forClass(payloadClass);
+		if (codec == null) {
+			return false;
+		}
+		
+		codecs.putIfAbsent(transactionType, codec);
+		return true;
+	}
+	
+	/**
+	 * Registers the payload class used for a transaction type.
+	 */
+	public static void registerPayloadType(AviatorTransactionType transactionType, Class<?> payloadClass) {
+		payloadTypes.put(transactionType, payloadClass);
+	}
+	
+	/**
+	 * Returns the codec registered for a transaction type, or null if the 
+	 * transaction type uses the built-in payload encoding.
+	 */
+	@SuppressWarnings("unchecked")
+	public static PayloadCodec<Serializable> getCodec(AviatorTransactionType transactionType) {
+		if (transactionType == null) {
+			return null;
+		}
+		return (PayloadCodec<Serializable>) codecs.get(transactionType);
+	}
+	
+	/**
+	 * Returns the payload class registered for a transaction type, or null if none was registered.
+	 */
+	public static Class<?> getPayloadType(AviatorTransactionType transactionType) {
+		if (transactionType == null) {
+			return null;
+		}
+		return payloadTypes.get(transactionType);
+	}
+}
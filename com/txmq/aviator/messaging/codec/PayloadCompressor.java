@@ -0,0 +1,245 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.txmq.aviator.config.model.CompressionConfig;
+import com.txmq.aviator.config.model.CompressionRuleConfig;
+import com.txmq.aviator.messaging.AviatorTransactionType;
+
+/**
+ * PayloadCompressor deflates large payloads before they are submitted to the Hashgraph.
+ * Compression is opt-in, either for every transaction type whose encoded payload is
+ * at least a threshold size, or for individual transaction types.  A payload is only
+ * sent compressed if that makes it smaller.
+ *
+ * Compressed payloads are marked with AviatorMessageCodec.FLAG_COMPRESSED and are
+ * written as the uncompressed length (4 bytes) followed by the deflated bytes.
+ * Only the payload is compressed, so the header can still be read without
+ * inflating anything.  Every node can read compressed payloads whether or not
+ * it has compression enabled itself.
+ *
+ * Deflaters and inflaters hold native memory, so each thread reuses its own.
+ *
+ * @see com.txmq.aviator.config.model.CompressionConfig
+ */
+public class PayloadCompressor {
+
+	/**
+	 * Size of the uncompressed length that precedes the deflated bytes
+	 */
+	private static final int LENGTH_PREFIX = 4;
+
+	/**
+	 * Largest payload we'll agree to inflate.  Guards against a malformed
+	 * length prefix causing an enormous allocation.
+	 */
+	private static final int MAX_UNCOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+	private static volatile boolean enabled = false;
+
+	private static volatile int threshold = 1024;
+
+	private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * Thresholds for transaction types that have been opted in individually
+	 */
+	private static final Map<AviatorTransactionType, Integer> thresholds =
+			new ConcurrentHashMap<AviatorTransactionType, Integer>();
+
+	private static final Map<AviatorTransactionType, CompressionStatistics> statistics =
+			new ConcurrentHashMap<AviatorTransactionType, CompressionStatistics>();
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(level);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	/**
+	 * Scratch space that payloads are deflated into before being copied back into the message buffer
+	 */
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[ByteBufferPool.INITIAL_CAPACITY];
+		}
+	};
+
+	/**
+	 * Applies the "compression" section of aviator-config.json
+	 */
+	public static void configure(CompressionConfig config) {
+		enabled = config.enabled;
+		threshold = config.threshold;
+		level = config.level;
+
+		thresholds.clear();
+		if (config.transactionTypes != null) {
+			for (CompressionRuleConfig rule : config.transactionTypes) {
+				setThreshold(	AviatorTransactionType.of(rule.namespace, rule.transactionType),
+								(rule.threshold != null) ? rule.threshold : config.threshold);
+			}
+		}
+	}
+
+	/**
+	 * Opts a transaction type in to compression for payloads of at least threshold bytes.
+	 */
+	public static void setThreshold(AviatorTransactionType transactionType, int threshold) {
+		thresholds.put(transactionType, threshold);
+	}
+
+	/**
+	 * Returns the minimum payload size at which payloads of the transaction
+	 * type are compressed, or -1 if they are never compressed.
+	 */
+	public static int getThreshold(AviatorTransactionType transactionType) {
+		if (transactionType != null) {
+			Integer result = thresholds.get(transactionType);
+			if (result != null) {
+				return result;
+			}
+		}
+
+		return (enabled) ? threshold : -1;
+	}
+
+	/**
+	 * Returns compression statistics for every transaction type that has had a payload compressed
+	 */
+	public static Map<AviatorTransactionType, CompressionStatistics> getStatistics() {
+		return Collections.unmodifiableMap(new HashMap<AviatorTransactionType, CompressionStatistics>(statistics));
+	}
+
+	/**
+	 * Compresses the payload occupying the buffer from payloadStart to the buffer's
+	 * position, if the transaction type is configured for compression and the payload
+	 * is large enough.  When the payload is compressed, it is replaced in place and the
+	 * buffer's position moved to the end of the compressed payload.
+	 *
+	 * @return true if the payload was compressed
+	 */
+	static boolean compress(AviatorTransactionType transactionType, ByteBuffer buffer, int payloadStart) {
+		int length = buffer.position() - payloadStart;
+		int minimum = getThreshold(transactionType);
+		if (minimum < 0 || length < minimum || length == 0) {
+			return false;
+		}
+
+		byte[] input;
+		int inputOffset;
+		if (buffer.hasArray()) {
+			input = buffer.array();
+			inputOffset = buffer.arrayOffset() + payloadStart;
+		} else {
+			input = new byte[length];
+			ByteBuffer source = buffer.duplicate();
+			source.position(payloadStart);
+			source.get(input);
+			inputOffset = 0;
+		}
+
+		//There's no point compressing if the result isn't smaller,
+		//so the output never needs to be larger than the input.
+		byte[] output = scratch.get();
+		if (output.length < length) {
+			output = new byte[length];
+			if (length <= ByteBufferPool.MAX_RETAINED_CAPACITY) {
+				scratch.set(output);
+			}
+		}
+
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(input, inputOffset, length);
+		deflater.finish();
+		int compressedLength = 0;
+		int limit = length - LENGTH_PREFIX;
+		while (!deflater.finished() && compressedLength < limit) {
+			compressedLength += deflater.deflate(output, compressedLength, limit - compressedLength);
+		}
+
+		CompressionStatistics typeStatistics = getOrCreateStatistics(transactionType);
+		if (!deflater.finished()) {
+			typeStatistics.recordUncompressed(length);
+			return false;
+		}
+
+		buffer.position(payloadStart);
+		buffer.putInt(length);
+		buffer.put(output, 0, compressedLength);
+		typeStatistics.recordCompressed(length, compressedLength + LENGTH_PREFIX);
+		return true;
+	}
+
+	/**
+	 * Inflates a compressed payload, returning the uncompressed bytes.
+	 */
+	static byte[] decompress(byte[] bytes, int offset, int length) throws IOException {
+		if (length < LENGTH_PREFIX) {
+			throw new IOException("Compressed payload is truncated");
+		}
+
+		int uncompressedLength = 	((bytes[offset] & 0xFF) << 24) |
+									((bytes[offset + 1] & 0xFF) << 16) |
+									((bytes[offset + 2] & 0xFF) << 8) |
+									(bytes[offset + 3] & 0xFF);
+		if (uncompressedLength < 0 || uncompressedLength > MAX_UNCOMPRESSED_LENGTH) {
+			throw new IOException("Invalid uncompressed payload length " + uncompressedLength);
+		}
+
+		byte[] result = new byte[uncompressedLength];
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(bytes, offset + LENGTH_PREFIX, length - LENGTH_PREFIX);
+		try {
+			int inflated = 0;
+			while (inflated < uncompressedLength) {
+				int count = inflater.inflate(result, inflated, uncompressedLength - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+
+			if (inflated != uncompressedLength || !inflater.finished()) {
+				throw new IOException("Compressed payload did not match its uncompressed length");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Could not decompress payload", e);
+		}
+
+		return result;
+	}
+
+	private static CompressionStatistics getOrCreateStatistics(AviatorTransactionType transactionType) {
+		if (transactionType == null) {
+			transactionType = AviatorTransactionType.of(0, 0);
+		}
+
+		CompressionStatistics result = statistics.get(transactionType);
+		if (result == null) {
+			statistics.putIfAbsent(transactionType, new CompressionStatistics());
+			result = statistics.get(transactionType);
+		}
+		return result;
+	}
+}
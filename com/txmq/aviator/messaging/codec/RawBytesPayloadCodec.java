@@ -0,0 +1,26 @@
+package com.txmq.aviator.messaging.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Passes byte array payloads through untouched.  Useful for transaction 
+ * types whose payloads are already encoded by the application.
+ */
+public class RawBytesPayloadCodec implements PayloadCodec<byte[]> {
+
+	@Override
+	public byte[] encode(byte[] payload) {
+		return payload;
+	}
+
+	@Override
+	public byte[] decode(byte[] bytes, int offset, int length) {
+		return Arrays.copyOfRange(bytes, offset, offset + length);
+	}
+
+	@Override
+	public void encode(byte[] payload, ByteBuffer buffer) {
+		buffer.put(payload);
+	}
+}
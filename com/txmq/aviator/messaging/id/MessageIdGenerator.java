@@ -0,0 +1,19 @@
+package com.txmq.aviator.messaging.id;
+
+import java.util.UUID;
+
+/**
+ * Generates the unique identifiers assigned to AviatorMessages.  Implementations 
+ * are called concurrently from every thread that creates messages, so they should 
+ * be thread-safe and avoid blocking.
+ * 
+ * @see MessageIds
+ */
+public interface MessageIdGenerator {
+	
+	/**
+	 * Returns an identifier that has not been returned before, by 
+	 * this generator or by the generators of other nodes.
+	 */
+	public UUID nextId();
+}
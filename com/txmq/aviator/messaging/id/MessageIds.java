@@ -0,0 +1,50 @@
+package com.txmq.aviator.messaging.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Static locator for the generator that assigns identifiers to AviatorMessages.  
+ * Until PlatformLocator is initialized, the default generator uses a random node id.  
+ * Once the node's name is known, the default generator is replaced with one based 
+ * on it.  Applications can install their own generator using setGenerator(), or 
+ * by naming a class in the "messageIdGenerator" property of aviator-config.json.
+ * 
+ * @see NodeMessageIdGenerator
+ */
+public class MessageIds {
+	
+	private static volatile MessageIdGenerator generator = 
+			new NodeMessageIdGenerator(ThreadLocalRandom.current().nextInt());
+	
+	private static volatile boolean customGenerator = false;
+	
+	/**
+	 * Returns a new message identifier
+	 */
+	public static UUID next() {
+		return generator.nextId();
+	}
+	
+	/**
+	 * Replaces the generator used to assign message identifiers
+	 */
+	public static void setGenerator(MessageIdGenerator generator) {
+		MessageIds.generator = generator;
+		MessageIds.customGenerator = true;
+	}
+	
+	public static MessageIdGenerator getGenerator() {
+		return generator;
+	}
+	
+	/**
+	 * Called by the framework once the node's name is known.  
+	 * Generators installed by the application are left alone.
+	 */
+	public static void setNodeName(String nodeName) {
+		if (!customGenerator) {
+			generator = new NodeMessageIdGenerator(nodeName);
+		}
+	}
+}
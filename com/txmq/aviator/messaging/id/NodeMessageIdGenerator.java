@@ -0,0 +1,50 @@
+package com.txmq.aviator.messaging.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.txmq.aviator.util.hash.MurmurHash3;
+
+/**
+ * The default message ID generator.  Identifiers are built from two longs:
+ * 
+ * 	most significant bits	16-bit node id, followed by the 48-bit creation time in milliseconds
+ * 	least significant bits	a counter, starting from a random value
+ * 
+ * The node id is a hash of the node's name, so messages created on different nodes 
+ * don't collide.  The counter keeps identifiers created on the same node unique, and 
+ * the time prefix and random starting value keep them unique across restarts.  
+ * Generating an identifier is a single atomic increment, so unlike UUID.randomUUID() 
+ * it doesn't contend on a shared SecureRandom.
+ * 
+ * Identifiers are not RFC 4122 UUIDs.  They are only carried in a UUID for compatibility.
+ */
+public class NodeMessageIdGenerator implements MessageIdGenerator {
+
+	private static final long TIME_MASK = 0x0000FFFFFFFFFFFFL;
+	
+	private final long nodeId;
+	
+	private final AtomicLong counter = new AtomicLong(ThreadLocalRandom.current().nextLong());
+	
+	/**
+	 * Creates a generator for the named node
+	 */
+	public NodeMessageIdGenerator(String nodeName) {
+		this(MurmurHash3.murmurhash3_x86_32(nodeName, 0, nodeName.length(), 0) & 0xFFFF);
+	}
+	
+	/**
+	 * Creates a generator using the low 16 bits of the supplied node id
+	 */
+	public NodeMessageIdGenerator(int nodeId) {
+		this.nodeId = ((long) (nodeId & 0xFFFF)) << 48;
+	}
+	
+	@Override
+	public UUID nextId() {
+		return new UUID(	this.nodeId | (System.currentTimeMillis() & TIME_MASK), 
+							this.counter.getAndIncrement());
+	}
+}
@@ -0,0 +1,34 @@
+package com.txmq.aviator.messaging.rest;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import com.txmq.aviator.pipeline.exception.AviatorBusyException;
+
+/**
+ * Reports transactions that were turned away by admission control as 
+ * 429 Too Many Requests, with a Retry-After header saying when to try again.
+ * 
+ * Resources can throw the exception from createTransaction(), or pass it to 
+ * AsyncResponse.resume(), and this mapper builds the response.  Like the other 
+ * providers in this package, it's registered automatically.
+ * 
+ * @see com.txmq.aviator.core.AdmissionController
+ */
+@Provider
+public class AviatorBusyExceptionMapper implements ExceptionMapper<AviatorBusyException> {
+
+	/**
+	 * 429 Too Many Requests, which JAX-RS 2.0 doesn't define a constant for
+	 */
+	public static final int TOO_MANY_REQUESTS = 429;
+	
+	@Override
+	public Response toResponse(AviatorBusyException exception) {
+		return Response.status(TOO_MANY_REQUESTS)
+				.header("Retry-After", exception.getRetryAfterSeconds())
+				.entity(exception.getMessage())
+				.build();
+	}
+}
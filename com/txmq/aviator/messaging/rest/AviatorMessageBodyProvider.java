@@ -0,0 +1,89 @@
+package com.txmq.aviator.messaging.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+
+/**
+ * JAX-RS provider that lets REST handlers accept and return AviatorMessages in
+ * Aviator's binary wire format, with payloads encoded by the codec registered for
+ * the message's transaction type.  Clients opt in by sending or accepting the
+ * application/x-aviator-message media type.  JSON remains the default.
+ *
+ * This provider lives in com.txmq.aviator.messaging.rest, which is always
+ * scanned by PlatformLocator.initREST(), so it is registered automatically.
+ *
+ * @see com.txmq.aviator.messaging.codec.AviatorMessageCodec
+ * @see com.txmq.aviator.messaging.codec.PayloadCodecRegistry
+ */
+@Provider
+@Consumes(AviatorMessageBodyProvider.APPLICATION_AVIATOR_MESSAGE)
+@Produces(AviatorMessageBodyProvider.APPLICATION_AVIATOR_MESSAGE)
+public class AviatorMessageBodyProvider implements MessageBodyReader<AviatorMessage<?>>, MessageBodyWriter<AviatorMessage<?>> {
+
+	public static final String APPLICATION_AVIATOR_MESSAGE = "application/x-aviator-message";
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return AviatorMessage.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public AviatorMessage<?> readFrom(	Class<AviatorMessage<?>> type,
+										Type genericType,
+										Annotation[] annotations,
+										MediaType mediaType,
+										MultivaluedMap<String, String> httpHeaders,
+										InputStream entityStream) throws IOException, WebApplicationException {
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int read;
+		while ((read = entityStream.read(chunk)) != -1) {
+			buffer.write(chunk, 0, read);
+		}
+
+		try {
+			return AviatorMessageCodec.decode(buffer.toByteArray());
+		} catch (ClassNotFoundException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return AviatorMessage.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(AviatorMessage<?> message, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(AviatorMessage<?> message,
+						Class<?> type,
+						Type genericType,
+						Annotation[] annotations,
+						MediaType mediaType,
+						MultivaluedMap<String, Object> httpHeaders,
+						OutputStream entityStream) throws IOException, WebApplicationException {
+
+		entityStream.write(AviatorMessageCodec.encode(message));
+	}
+}
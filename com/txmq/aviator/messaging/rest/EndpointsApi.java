@@ -15,6 +15,7 @@ import com.txmq.aviator.messaging.AviatorCoreTransactionTypes;
 import com.txmq.aviator.messaging.AviatorTransactionType;
 import com.txmq.aviator.messaging.AviatorMessage;
 import com.txmq.aviator.pipeline.ReportingEvents;
+import com.txmq.aviator.pipeline.exception.AviatorBusyException;
 import com.txmq.aviator.pipeline.subscribers.AviatorSubscriberManager;
 
 /**
@@ -32,7 +33,7 @@ public class EndpointsApi {
 	public void getEndpoints(@Suspended AsyncResponse response) {
 		AviatorMessage<Serializable> transaction = 
 				new AviatorMessage<Serializable>(
-						new AviatorTransactionType(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.LIST_ENDPOINTS)
+						AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.LIST_ENDPOINTS)
 		);
 		this.subscriberManager.registerResponder(transaction, ReportingEvents.transactionComplete, response);
 		try {
@@ -48,10 +49,12 @@ public class EndpointsApi {
 		
 		AviatorMessage<Serializable> transaction = 
 				new AviatorMessage<Serializable>(
-						new AviatorTransactionType(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.SHUTDOWN)
+						AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.SHUTDOWN)
 		);
 		try {
 			PlatformLocator.createTransaction(transaction);
+		} catch (AviatorBusyException e) {
+			return new AviatorBusyExceptionMapper().toResponse(e);
 		} catch (Exception e) {
 			return Response.serverError().entity(e).build();
 		}
@@ -15,7 +15,7 @@ public class EndpointsResponder extends AviatorSubscriberBase<AsyncResponse> {
 	public void listEndpointsCompleted(AviatorNotification<?> notification) {
 		AsyncResponse responder = this.getResponder(notification);
 		if (responder != null) {
-			responder.resume(notification);
+			responder.resume(this.prepareNotification(notification));
 		}
 	}
 }
@@ -21,7 +21,9 @@ public class EndpointsTransactions {
 	
 	@AviatorHandler(namespace=AviatorCoreTransactionTypes.NAMESPACE, 
 				transactionType=AviatorCoreTransactionTypes.LIST_ENDPOINTS, 
-				events= {PlatformEvents.messageReceived})
+				events= {PlatformEvents.messageReceived},
+				readOnly=true,
+				cacheable=true)
 	public List<String> listEndpoints(AviatorMessage<?> message, AviatorState state) {
 		message.interrupt();
 		return state.getEndpoints();
@@ -0,0 +1,79 @@
+package com.txmq.aviator.messaging.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.LogLevel;
+
+/**
+ * This class implements REST endpoints for reading and changing this node's 
+ * logging levels while it runs.  Like metrics, levels are local to the node 
+ * serving the request, so they're changed directly rather than by submitting 
+ * a transaction.
+ * 
+ * PUT /exo/0.2.0/logging/pipeline?level=DEBUG sets the pipeline subsystem's level.  
+ * Use "default" as the subsystem to set the default level, and omit the level to 
+ * revert a subsystem to the default.
+ */
+@Path("/exo/0.2.0")
+public class LoggingApi {
+	
+	private static final String DEFAULT_SUBSYSTEM = "default";
+	
+	@GET
+	@Path("/logging")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getLevels() {
+		return Response.ok().entity(new LoggingLevels()).build();
+	}
+	
+	@PUT
+	@Path("/logging/{subsystem}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response setLevel(@PathParam("subsystem") String subsystem, @QueryParam("level") String level) {
+		LogLevel logLevel = null;
+		if (level != null && !level.isEmpty()) {
+			try {
+				logLevel = LogLevel.parse(level);
+			} catch (IllegalArgumentException e) {
+				return Response.status(Response.Status.BAD_REQUEST).entity("Unknown logging level: " + level).build();
+			}
+		}
+		
+		if (subsystem.equals(DEFAULT_SUBSYSTEM)) {
+			if (logLevel == null) {
+				return Response.status(Response.Status.BAD_REQUEST).entity("A level is required for the default level").build();
+			}
+			AviatorLogManager.setDefaultLevel(logLevel);
+		} else {
+			AviatorLogManager.setLevel(subsystem, logLevel);
+		}
+		
+		return Response.ok().entity(new LoggingLevels()).build();
+	}
+	
+	/**
+	 * Current logging levels
+	 */
+	public static class LoggingLevels {
+		public LogLevel defaultLevel;
+		public Map<String, LogLevel> levels;
+		public long droppedMessages;
+		
+		public LoggingLevels() {
+			this.defaultLevel = AviatorLogManager.getDefaultLevel();
+			this.levels = new TreeMap<String, LogLevel>(AviatorLogManager.getLevels());
+			this.droppedMessages = AviatorLogManager.getDroppedMessages();
+		}
+	}
+}
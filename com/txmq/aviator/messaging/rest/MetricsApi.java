@@ -0,0 +1,305 @@
+package com.txmq.aviator.messaging.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.txmq.aviator.core.AdmissionController;
+import com.txmq.aviator.core.PlatformLocator;
+import com.txmq.aviator.messaging.AviatorTransactionType;
+import com.txmq.aviator.messaging.codec.CompressionStatistics;
+import com.txmq.aviator.messaging.codec.PayloadCompressor;
+import com.txmq.aviator.metrics.HandlerMetrics;
+import com.txmq.aviator.metrics.LatencyHistogram;
+import com.txmq.aviator.metrics.TraceExporter;
+import com.txmq.aviator.metrics.TransactionTracer;
+import com.txmq.aviator.pipeline.routers.AviatorPipelineRouter;
+import com.txmq.aviator.pipeline.routers.NotificationDispatcher;
+import com.txmq.aviator.pipeline.routers.QueryCache;
+
+/**
+ * This class implements REST endpoints that report runtime metrics for this node.  
+ * Metrics are local to the node serving the request, so they're read directly 
+ * rather than by submitting a transaction.
+ */
+@Path("/exo/0.2.0")
+public class MetricsApi {
+	
+	@GET
+	@Path("/metrics/compression")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getCompressionMetrics() {
+		List<CompressionMetric> result = new ArrayList<CompressionMetric>();
+		for (Map.Entry<AviatorTransactionType, CompressionStatistics> entry : PayloadCompressor.getStatistics().entrySet()) {
+			result.add(new CompressionMetric(entry.getKey(), entry.getValue()));
+		}
+		
+		return Response.ok().entity(result).build();
+	}
+	
+	@GET
+	@Path("/metrics/notifications")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getNotificationMetrics() {
+		return Response.ok().entity(new NotificationMetric(AviatorPipelineRouter.getNotificationDispatcher())).build();
+	}
+	
+	@GET
+	@Path("/metrics/querycache")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getQueryCacheMetrics() {
+		return Response.ok().entity(new QueryCacheMetric(AviatorPipelineRouter.getQueryCache())).build();
+	}
+	
+	@GET
+	@Path("/metrics/admission")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getAdmissionMetrics() {
+		return Response.ok().entity(new AdmissionMetric(PlatformLocator.getAdmissionController())).build();
+	}
+	
+	@GET
+	@Path("/metrics/handlers")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getHandlerMetrics() {
+		List<HandlerMetric> result = new ArrayList<HandlerMetric>();
+		for (HandlerMetrics metrics : HandlerMetrics.getAll()) {
+			result.add(new HandlerMetric(metrics));
+		}
+		
+		return Response.ok().entity(result).build();
+	}
+	
+	@GET
+	@Path("/metrics/traces")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getTraceMetrics() {
+		return Response.ok().entity(new TraceMetric()).build();
+	}
+	
+	/**
+	 * Compression statistics for a single transaction type
+	 */
+	public static class CompressionMetric {
+		public String namespace;
+		public String transactionType;
+		public int namespaceHash;
+		public int transactionTypeHash;
+		public long compressedMessages;
+		public long uncompressedMessages;
+		public long originalBytes;
+		public long compressedBytes;
+		public double compressionRatio;
+		
+		public CompressionMetric(AviatorTransactionType transactionType, CompressionStatistics statistics) {
+			this.namespace = transactionType.getNamespace();
+			this.transactionType = transactionType.getValue();
+			this.namespaceHash = transactionType.getNamespaceHash();
+			this.transactionTypeHash = transactionType.getValueHash();
+			this.compressedMessages = statistics.getCompressedMessages();
+			this.uncompressedMessages = statistics.getUncompressedMessages();
+			this.originalBytes = statistics.getOriginalBytes();
+			this.compressedBytes = statistics.getCompressedBytes();
+			this.compressionRatio = statistics.getCompressionRatio();
+		}
+	}
+	
+	/**
+	 * Notification dispatcher statistics.  Everything is zero, and dispatched is 
+	 * false, when notifications are delivered by the threads that raise them.
+	 */
+	public static class NotificationMetric {
+		public boolean dispatched;
+		public String overflowPolicy;
+		public int queueCapacity;
+		public int[] queueDepths = new int[0];
+		public long deliveredNotifications;
+		public long droppedNotifications;
+		public long blockedSubmissions;
+		
+		public NotificationMetric(NotificationDispatcher dispatcher) {
+			if (dispatcher != null) {
+				this.dispatched = true;
+				this.overflowPolicy = dispatcher.getOverflowPolicy().name();
+				this.queueCapacity = dispatcher.getQueueCapacity();
+				this.queueDepths = dispatcher.getQueueDepths();
+				this.deliveredNotifications = dispatcher.getDeliveredNotifications();
+				this.droppedNotifications = dispatcher.getDroppedNotifications();
+				this.blockedSubmissions = dispatcher.getBlockedSubmissions();
+			}
+		}
+	}
+	
+	/**
+	 * Query cache statistics.  Everything is zero, and enabled 
+	 * is false, when query results aren't cached.
+	 */
+	public static class QueryCacheMetric {
+		public boolean enabled;
+		public int entries;
+		public int maxEntries;
+		public long bytes;
+		public long maxBytes;
+		public long hits;
+		public long misses;
+		public long invalidations;
+		public long evictions;
+		public double hitRate;
+		
+		public QueryCacheMetric(QueryCache cache) {
+			if (cache != null) {
+				this.enabled = true;
+				this.entries = cache.getEntries();
+				this.maxEntries = cache.getMaxEntries();
+				this.bytes = cache.getBytes();
+				this.maxBytes = cache.getMaxBytes();
+				this.hits = cache.getHits();
+				this.misses = cache.getMisses();
+				this.invalidations = cache.getInvalidations();
+				this.evictions = cache.getEvictions();
+				this.hitRate = cache.getHitRate();
+			}
+		}
+	}
+	
+	/**
+	 * Invocation statistics for a single node's handler method on an event and transaction 
+	 * type.  Latencies are in microseconds, and accurate to within about 3%.
+	 */
+	public static class HandlerMetric {
+		public String node;
+		public String event;
+		public String namespace;
+		public String transactionType;
+		public String handler;
+		public long invocations;
+		public long errors;
+		public double invocationsPerSecond;
+		public double meanMicros;
+		public double p50Micros;
+		public double p90Micros;
+		public double p99Micros;
+		public double p999Micros;
+		public double maxMicros;
+		
+		public HandlerMetric(HandlerMetrics metrics) {
+			this.node = metrics.getNodeName();
+			this.event = metrics.getEvent();
+			this.namespace = metrics.getTransactionType().getNamespace();
+			this.transactionType = metrics.getTransactionType().getValue();
+			this.handler = metrics.getMethod().getDeclaringClass().getName() + "." + metrics.getMethod().getName();
+			this.invocations = metrics.getInvocations();
+			this.errors = metrics.getErrors();
+			this.invocationsPerSecond = metrics.getInvocationsPerSecond();
+			
+			LatencyHistogram latency = metrics.getLatency();
+			long[] percentiles = latency.getPercentilesNanos(50, 90, 99, 99.9);
+			this.meanMicros = latency.getMeanNanos() / 1000.0;
+			this.p50Micros = percentiles[0] / 1000.0;
+			this.p90Micros = percentiles[1] / 1000.0;
+			this.p99Micros = percentiles[2] / 1000.0;
+			this.p999Micros = percentiles[3] / 1000.0;
+			this.maxMicros = latency.getMaxNanos() / 1000.0;
+		}
+	}
+	
+	/**
+	 * Transaction tracing statistics, and the time traced transactions took between 
+	 * each pair of consecutive stages.  Everything is zero, and enabled is false, 
+	 * when transactions aren't traced.
+	 */
+	public static class TraceMetric {
+		public boolean enabled;
+		public double sampleRate;
+		public int activeTraces;
+		public long startedTraces;
+		public long finishedTraces;
+		public long skippedTraces;
+		public long timedOutTraces;
+		public long exportedTraces;
+		public long droppedTraces;
+		public List<StageLatencyMetric> stages = new ArrayList<StageLatencyMetric>();
+		
+		public TraceMetric() {
+			if (TransactionTracer.isEnabled()) {
+				this.enabled = true;
+				this.sampleRate = TransactionTracer.getSampleRate();
+				this.activeTraces = TransactionTracer.getActive();
+				this.startedTraces = TransactionTracer.getStarted();
+				this.finishedTraces = TransactionTracer.getFinished();
+				this.skippedTraces = TransactionTracer.getSkipped();
+				this.timedOutTraces = TransactionTracer.getTimedOut();
+				
+				TraceExporter exporter = TransactionTracer.getExporter();
+				if (exporter != null) {
+					this.exportedTraces = exporter.getExported();
+					this.droppedTraces = exporter.getDropped();
+				}
+				
+				for (Map.Entry<String, LatencyHistogram> entry : TransactionTracer.getLatencies().entrySet()) {
+					this.stages.add(new StageLatencyMetric(entry.getKey(), entry.getValue()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Latencies between two stages of the pipeline, in microseconds
+	 */
+	public static class StageLatencyMetric {
+		public String stages;
+		public long count;
+		public double meanMicros;
+		public double p50Micros;
+		public double p90Micros;
+		public double p99Micros;
+		public double p999Micros;
+		public double maxMicros;
+		
+		public StageLatencyMetric(String stages, LatencyHistogram latency) {
+			long[] percentiles = latency.getPercentilesNanos(50, 90, 99, 99.9);
+			this.stages = stages;
+			this.count = latency.getCount();
+			this.meanMicros = latency.getMeanNanos() / 1000.0;
+			this.p50Micros = percentiles[0] / 1000.0;
+			this.p90Micros = percentiles[1] / 1000.0;
+			this.p99Micros = percentiles[2] / 1000.0;
+			this.p999Micros = percentiles[3] / 1000.0;
+			this.maxMicros = latency.getMaxNanos() / 1000.0;
+		}
+	}
+	
+	/**
+	 * Admission control statistics.  Everything is zero, and enabled 
+	 * is false, when every transaction is admitted.
+	 */
+	public static class AdmissionMetric {
+		public boolean enabled;
+		public int inFlight;
+		public int limit;
+		public long averageLagMillis;
+		public long admitted;
+		public long delayed;
+		public long rejected;
+		public long timedOut;
+		
+		public AdmissionMetric(AdmissionController controller) {
+			if (controller != null) {
+				this.enabled = true;
+				this.inFlight = controller.getInFlight();
+				this.limit = controller.getLimit();
+				this.averageLagMillis = controller.getAverageLagMillis();
+				this.admitted = controller.getAdmitted();
+				this.delayed = controller.getDelayed();
+				this.rejected = controller.getRejected();
+				this.timedOut = controller.getTimedOut();
+			}
+		}
+	}
+}
@@ -26,7 +26,7 @@ public class TransactionTypesMapApi {
 	@Produces(MediaType.APPLICATION_JSON)
 	public void getTransactionTypesMap(@Suspended AsyncResponse response) {
 		AviatorMessage<Serializable> message = new AviatorMessage<Serializable>(
-				new AviatorTransactionType(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.GET_TRANSACTION_TYPES),
+				AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.GET_TRANSACTION_TYPES),
 				null
 		);
 		
@@ -15,7 +15,7 @@ public class TransactionTypesMapResponder extends AviatorSubscriberBase<AsyncRes
 	public void getTransactionTypesMapCompleted(AviatorNotification<?> notification) {
 		AsyncResponse responder = this.getResponder(notification);
 		if (responder != null) {
-			responder.resume(notification);
+			responder.resume(this.prepareNotification(notification));
 		}
 	}
 }
@@ -13,7 +13,9 @@ public class TransactionTypesMapTransaction {
 
 	@AviatorHandler(namespace=AviatorCoreTransactionTypes.NAMESPACE,
 				transactionType=AviatorCoreTransactionTypes.GET_TRANSACTION_TYPES, 
-				events={PlatformEvents.messageReceived})
+				events={PlatformEvents.messageReceived},
+				readOnly=true,
+				cacheable=true)
 	public Map<Integer, AviatorTransactionType.NamespaceEntry> getTransactionTypesMap(AviatorMessage<?> message, AviatorState state) {
 		message.interrupt();
 		return AviatorTransactionType.getTransactionTypesMap();
@@ -14,6 +14,8 @@ import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
 import com.swirlds.platform.Platform;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 
 /**
  * TransactionServer is the "controller" for the socket-based Hashgraph integration 
@@ -27,6 +29,8 @@ import com.swirlds.platform.Platform;
  */
 public class TransactionServer extends Thread {
 
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("socket");
+
 	/**
 	 * A pointer to the Swirlds platform, which it passes 
 	 * to the spawned TransactionServerConnection threads.
@@ -49,7 +53,7 @@ public class TransactionServer extends Thread {
 		this.initialize(platform, packages);
 		try {
 			this.serverSocket = new ServerSocket(port);
-			System.out.println("WARNING:  Unsecured socket has been opened for transactions");
+			logger.warn("Unsecured socket has been opened for transactions");
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -93,7 +97,7 @@ public class TransactionServer extends Thread {
 			serverSocket.setNeedClientAuth(true);
 			this.serverSocket = serverSocket;
 			
-			System.out.println("Listening on port " + String.valueOf(port));
+			logger.info("Listening on port {}", port);
 					
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
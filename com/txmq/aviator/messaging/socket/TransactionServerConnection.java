@@ -1,83 +1,207 @@
 package com.txmq.aviator.messaging.socket;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.Socket;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import com.swirlds.platform.Platform;
 import com.txmq.aviator.core.PlatformLocator;
 import com.txmq.aviator.core.AviatorState;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorCoreTransactionTypes;
 import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.AviatorTransactionType;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+import com.txmq.aviator.messaging.codec.ByteBufferPool;
+import com.txmq.aviator.metrics.TransactionTracer;
+import com.txmq.aviator.pipeline.exception.AviatorBusyException;
 
 /**
  * TransactionServerConnection represents the server-side of an established connection.
  * It runs on its own thread and accepts ExoMessages from the socket.
+ *
+ * Clients can send messages either as Java-serialized objects, or as length-prefixed
+ * frames in Aviator's binary wire format.  The connection detects which one the client
+ * is using from the first bytes it receives, and responds in the same format.
+ *
+ * @see com.txmq.aviator.messaging.codec.AviatorMessageCodec
  */
 public class TransactionServerConnection extends Thread {
 
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("socket");
+
+	/**
+	 * Largest binary frame accepted from a client
+	 */
+	private static volatile int maxFrameBytes = 16 * 1024 * 1024;
+	
 	private Socket socket;
 	private Platform platform;
 	private ExoMessageRouter messageRouter;
-	
+
 	public TransactionServerConnection(Socket socket, Platform platform, ExoMessageRouter messageRouter) {
 		this.socket = socket;
 		this.platform = platform;
 		this.messageRouter = messageRouter;
 	}
-	
+
 	/**
 	 * Accepts transactions in ExoMessage instances from the socket and process them.
 	 */
-	@SuppressWarnings("unchecked")
 	public void run() {
 		try {
-			//Set up streams for reading from and writing to the socket.
-			ObjectOutputStream writer = new ObjectOutputStream(this.socket.getOutputStream());
-			ObjectInputStream reader = new ObjectInputStream(socket.getInputStream());
-			AviatorMessage<?> message;
-			AviatorMessage<Serializable> response = new AviatorMessage<Serializable>();
+			//Peek at the first two bytes to determine which format the client is using
+			InputStream input = new BufferedInputStream(this.socket.getInputStream());
+			input.mark(2);
+			int first = input.read();
+			int second = (first >= 0) ? input.read() : -1;
+			input.reset();
+
+			if (second < 0) {
+				//The client closed the connection without sending a message
+				logger.debug("Connection from {} closed before a message arrived", this.socket.getRemoteSocketAddress());
+			} else if (AviatorMessageCodec.isLegacy(new byte[] { (byte) first, (byte) second })) {
+				this.processSerializedMessage(input);
+			} else {
+				this.processBinaryMessage(input);
+			}
+
+			logger.debug("Closing socket");
+			this.socket.close();
+		} catch (IOException e) {
+			logger.error("Error handling a connection from {}", this.socket.getRemoteSocketAddress(), e);
+		}
+	}
+
+	/**
+	 * Reads and responds to a message sent using Java serialization.
+	 */
+	private void processSerializedMessage(InputStream input) throws IOException {
+		//Set up streams for reading from and writing to the socket.
+		ObjectOutputStream writer = new ObjectOutputStream(this.socket.getOutputStream());
+		ObjectInputStream reader = new ObjectInputStream(input);
+		try {
+			//Read the message object and try to cast it to ExoMessage
+			Object tmp = reader.readObject();
+			AviatorMessage<Serializable> response = this.processMessage((AviatorMessage<?>) tmp);
+
+			//write the response to the socket
+			writer.writeObject(response);
+			writer.flush();
+		} catch (ClassNotFoundException e) {
+			logger.warn("Unable to read a message from {}", this.socket.getRemoteSocketAddress(), e);
+			writer.writeObject(errorResponse("Unknown class " + e.getMessage()));
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Sets the largest binary frame clients may send.  Connections that announce 
+	 * a longer frame, or a negative length, are closed without a response.
+	 */
+	public static void setMaxFrameBytes(int maxFrameBytes) {
+		TransactionServerConnection.maxFrameBytes = maxFrameBytes;
+	}
+	
+	/**
+	 * Reads and responds to a message sent as a length-prefixed binary frame.
+	 */
+	private void processBinaryMessage(InputStream input) throws IOException {
+		DataInputStream reader = new DataInputStream(input);
+		DataOutputStream writer = new DataOutputStream(this.socket.getOutputStream());
+		try {
+			//Read the frame into this thread's pooled buffer.  The message is 
+			//fully decoded, so it doesn't hold on to the buffer afterwards.
+			int length = reader.readInt();
+			if (length < 0 || length > maxFrameBytes) {
+				//Refuse it before allocating anything, and drop the connection
+				logger.warn("Refusing a frame of {} bytes from {}; the limit is {}", length, this.socket.getRemoteSocketAddress(), maxFrameBytes);
+				return;
+			}
+			
+			ByteBuffer frame = ByteBufferPool.acquire();
+			while (frame.capacity() < length) {
+				frame = ByteBufferPool.grow(frame);
+			}
+			reader.readFully(frame.array(), 0, length);
+			frame.limit(length);
+			this.writeBinaryResponse(writer, this.processMessage(AviatorMessageCodec.decode(frame)));
+		} catch (ClassNotFoundException e) {
+			logger.warn("Unable to decode a message from {}", this.socket.getRemoteSocketAddress(), e);
+			this.writeBinaryResponse(writer, errorResponse("Unknown payload class " + e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Writes a response as a length-prefixed frame, encoding it into this thread's pooled buffer
+	 */
+	private void writeBinaryResponse(DataOutputStream writer, AviatorMessage<Serializable> response) throws IOException {
+		ByteBuffer encodedResponse = ByteBufferPool.acquire();
+		while (true) {
 			try {
-				//Read the message object and try to cast it to ExoMessage
-				Object tmp = reader.readObject();
-				message = (AviatorMessage<?>) tmp; 
-				AviatorState state = (AviatorState) this.platform.getState();
-				
+				AviatorMessageCodec.encode(response, encodedResponse);
+				break;
+			} catch (BufferOverflowException e) {
+				encodedResponse = ByteBufferPool.grow(encodedResponse);
+			}
+		}
+		writer.writeInt(encodedResponse.position());
+		writer.write(encodedResponse.array(), 0, encodedResponse.position());
+		writer.flush();
+	}
+	
+	/**
+	 * Builds the response sent to a client whose message couldn't be read
+	 */
+	private static AviatorMessage<Serializable> errorResponse(String reason) {
+		AviatorMessage<Serializable> response = new AviatorMessage<Serializable>();
+		response.transactionType = AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.ERROR);
+		response.payload = reason;
+		return response;
+	}
+
+	@SuppressWarnings("unchecked")
+	private AviatorMessage<Serializable> processMessage(AviatorMessage<?> message) throws IOException {
+		AviatorMessage<Serializable> response = new AviatorMessage<Serializable>();
+		AviatorState state = (AviatorState) this.platform.getState();
+
+		try {
+			response = (AviatorMessage<Serializable>) this.messageRouter.routeMessage(message, state);
+		} catch (IllegalArgumentException e) {
+			/*
+			 * This exception is thrown by transactionRouter when it can't figure
+			 * out where to route a message.  In the case of socket transactions,
+			 * those transaction types it can't route are messages that we can
+			 * simply pass through to the platform for processing by the Hashgraph,
+			 * unless it's an ACKNOWLEDGE transaction.
+			 */
+			if (message.transactionType.getValue() == AviatorCoreTransactionTypes.ACKNOWLEDGE) {
+				//We shouldn't receive this from the client.  If we do, just send it back
+				response.transactionType = AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.ACKNOWLEDGE);
+			} else {
 				try {
-					response = (AviatorMessage<Serializable>) this.messageRouter.routeMessage(message, state);
-				} catch (IllegalArgumentException e) {
-					/*
-					 * This exception is thrown by transactionRouter when it can't figure 
-					 * out where to route a message.  In the case of socket transactions, 
-					 * those transaction types it can't route are messages that we can 
-					 * simply pass through to the platform for processing by the Hashgraph,
-					 * unless it's an ACKNOWLEDGE transaction.
-					 */
-					if (message.transactionType.getValue() == AviatorCoreTransactionTypes.ACKNOWLEDGE) {
-						//We shouldn't receive this from the client.  If we do, just send it back
-						response.transactionType.setValue(AviatorCoreTransactionTypes.ACKNOWLEDGE);
-					} else {	
-						PlatformLocator.createTransaction(message);
-						response.transactionType.setValue(AviatorCoreTransactionTypes.ACKNOWLEDGE);
-					}
-				} catch (ReflectiveOperationException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					TransactionTracer.received(message);
+					PlatformLocator.createTransaction(message);
+					response.transactionType = AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.ACKNOWLEDGE);
+				} catch (AviatorBusyException busy) {
+					//Tell the client to back off and try again later
+					response.transactionType = AviatorTransactionType.of(AviatorCoreTransactionTypes.NAMESPACE, AviatorCoreTransactionTypes.BUSY);
+					response.payload = busy.getRetryAfterMillis();
 				}
-				
-				//write the response to the socket
-				writer.writeObject(response);					
-				writer.flush();
-			} catch (ClassNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
-			System.out.println("Closing Socket");
-			this.socket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		} catch (ReflectiveOperationException e) {
+			logger.error("Unable to route {} from a socket client", message.getUuid(), e);
 		}
+
+		return response;
 	}
 }
@@ -2,41 +2,48 @@ package com.txmq.aviator.messaging.websocket.grizzly;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Map.Entry;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.txmq.aviator.messaging.AviatorTransactionType;
 import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.codec.GeneratedPayloadCodec;
+import com.txmq.aviator.messaging.codec.PayloadCodec;
+import com.txmq.aviator.messaging.codec.PayloadCodecRegistry;
 
 public class AviatorMessageJsonParser extends ObjectMapper {
+	
+	/**
+	 * ObjectMappers are thread-safe once configured, so one is shared for reading message bodies
+	 */
+	private static final ObjectMapper innerMapper = new ObjectMapper();
+	
 	/**
-	 * A map of transaction type to payload class.  This map is used to deserialize 
-	 * transactions  that have come in through a mechanism where we wouldn't have 
-	 * enough information to deserialize an ExoMessage.  The two obvious uses are 
+	 * Registers the payload class for a transaction type.  Payload classes are used to 
+	 * deserialize transactions that have come in through a mechanism where we wouldn't 
+	 * have enough information to deserialize an ExoMessage.  The two obvious uses are 
 	 * when receiving messages through a websocket, and to read in transactions 
 	 * logged to a text file such as in the file-based, in-progress backup to the 
 	 * block logger.
+	 * 
+	 * Payload classes are held by PayloadCodecRegistry, alongside the payload codecs.
+	 * 
+	 * @see com.txmq.aviator.messaging.codec.PayloadCodecRegistry
 	 */
-	private static Map<AviatorTransactionType, Class<?>> payloadMap;
-	
 	public static void registerPayloadType(AviatorTransactionType transactionType, Class<?> payloadClass) {
-		if (payloadMap == null) {
-			payloadMap = Collections.synchronizedMap(new HashMap<AviatorTransactionType, Class<?>>());
-		}
-		
-		payloadMap.put(transactionType, payloadClass);
+		PayloadCodecRegistry.registerPayloadType(transactionType, payloadClass);
 	}
 	
 	public AviatorMessageJsonParser() {
@@ -45,9 +52,40 @@ public class AviatorMessageJsonParser extends ObjectMapper {
 		//Configure this ObjectMapper derivative to use our custom deserializer
 		SimpleModule module = new SimpleModule("ExoMessageJacksonDeserializer", new Version(1, 0, 0, null, "com.txmq", "exo"));	
 		module.addDeserializer(AviatorMessage.class, new ExoMessageJacksonDeserializer());
+		
+		//Payload classes with generated codecs are written using the codec's field handles
+		for (GeneratedPayloadCodec<?> codec : GeneratedPayloadCodec.getGeneratedCodecs()) {
+			if (codec.isJsonCompatible()) {
+				addSerializer(module, codec);
+			}
+		}
 		this.registerModule(module); 
 	}
 	
+	private static <T extends Serializable> void addSerializer(SimpleModule module, GeneratedPayloadCodec<T> codec) {
+		module.addSerializer(codec.getPayloadClass(), new GeneratedPayloadJacksonSerializer<T>(codec));
+	}
+	
+	/**
+	 * Writes payloads using a generated codec instead of Jackson's bean introspection
+	 */
+	private static class GeneratedPayloadJacksonSerializer<T extends Serializable> extends StdSerializer<T> {
+		
+		private static final long serialVersionUID = -2171458466391127806L;
+		
+		private final GeneratedPayloadCodec<T> codec;
+		
+		protected GeneratedPayloadJacksonSerializer(GeneratedPayloadCodec<T> codec) {
+			super(codec.getPayloadClass());
+			this.codec = codec;
+		}
+
+		@Override
+		public void serialize(T value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			this.codec.writeJson(value, generator);
+		}
+	}
+	
 	private class ExoMessageJacksonDeserializer extends StdDeserializer<AviatorMessage<?>> {
 
 	    
@@ -61,10 +99,10 @@ public class AviatorMessageJsonParser extends ObjectMapper {
 		private static final long serialVersionUID = 2603203710237843037L;
 
 		@Override
+		@SuppressWarnings("unchecked")
 		public AviatorMessage<?> deserialize(JsonParser parser, DeserializationContext context) throws IOException, JsonProcessingException {
 			
 			ObjectMapper mapper = (ObjectMapper) parser.getCodec();  
-			ObjectMapper innerMapper = new ObjectMapper();
 			ObjectNode obj = (ObjectNode) mapper.readTree(parser);  
 		    Iterator<Entry<String, JsonNode>> elementsIterator = obj.fields();
 		    Class<?> clazz = null;
@@ -74,26 +112,18 @@ public class AviatorMessageJsonParser extends ObjectMapper {
 		    	Entry<String, JsonNode> element = elementsIterator.next();  
 		    	String name = element.getKey();
 		    	if (name.equals("transactionType")) {
-		    		AviatorTransactionType transactionType = new AviatorTransactionType();
-		    		if (element.getValue().get("ns").asInt() != 0) {
-		    			transactionType.setNamespace(element.getValue().get("ns").asInt());
-		    		} else {
-		    			//most likely we received a string instead of an integer..  Let's try that.
-		    			//Let things explode if it's neither a string or an integer.
-		    			transactionType.setNamespace(element.getValue().get("ns").textValue());
-		    			((ObjectNode) element.getValue()).put("ns",  transactionType.getNamespaceHash());
-		    		}
+		    		//If we didn't get integers, most likely we received strings instead..  Let's try that.
+		    		//Let things explode if they're neither strings or integers.
+		    		JsonNode ns = element.getValue().get("ns");
+		    		JsonNode value = element.getValue().get("value");
+		    		int nsHash = (ns.asInt() != 0) ? ns.asInt() : AviatorTransactionType.hashOf(ns.textValue());
+		    		int valueHash = (value.asInt() != 0) ? value.asInt() : AviatorTransactionType.hashOf(value.textValue());
+		    		((ObjectNode) element.getValue()).put("ns",  nsHash);
+		    		((ObjectNode) element.getValue()).put("value",  valueHash);
 		    		
-		    		if (element.getValue().get("value").asInt() != 0) {
-		    			transactionType.setValue(element.getValue().get("value").asInt());
-		    		} else {
-		    			//most likely we received a string instead of an integer..  Let's try that.
-		    			//Let things explode if it's neither a string or an integer.
-		    			transactionType.setValue(element.getValue().get("value").textValue());
-		    			((ObjectNode) element.getValue()).put("value",  transactionType.getValueHash());
-		    		}
+		    		AviatorTransactionType transactionType = AviatorTransactionType.of(nsHash, valueHash);
 		    		
-		    		clazz = payloadMap.get(transactionType); 
+		    		clazz = PayloadCodecRegistry.getPayloadType(transactionType); 
 		    	}
 		    	
 		    	if (name.equals("payload")) {
@@ -103,10 +133,14 @@ public class AviatorMessageJsonParser extends ObjectMapper {
 		    }
 		    
 		    //TODO:  THis implementation is incomplete..  The innerMapper needs to account for string/integer values in the namespace
-		    @SuppressWarnings("unchecked")
-			AviatorMessage<Serializable> result = innerMapper.treeToValue(obj, AviatorMessage.class);
-		    if (clazz != null) {
-		    	result.payload = (Serializable) innerMapper.treeToValue(payloadJsonNode, clazz);
+		    AviatorMessage<Serializable> result = innerMapper.treeToValue(obj, AviatorMessage.class);
+		    if (clazz != null && payloadJsonNode != null && !payloadJsonNode.isNull()) {
+		    	PayloadCodec<Serializable> codec = PayloadCodecRegistry.getCodec(result.transactionType);
+		    	if (codec instanceof GeneratedPayloadCodec && ((GeneratedPayloadCodec<?>) codec).isJsonCompatible()) {
+		    		result.payload = ((GeneratedPayloadCodec<Serializable>) codec).readJson(payloadJsonNode);
+		    	} else {
+		    		result.payload = (Serializable) innerMapper.treeToValue(payloadJsonNode, clazz);
+		    	}
 		    }
 		    
 		    return result;
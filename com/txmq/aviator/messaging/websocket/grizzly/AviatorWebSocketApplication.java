@@ -8,10 +8,20 @@ import org.glassfish.grizzly.websockets.WebSocketApplication;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.txmq.aviator.core.PlatformLocator;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.AviatorNotification;
+import com.txmq.aviator.messaging.codec.AviatorMessageCodec;
+import com.txmq.aviator.metrics.TransactionTracer;
+import com.txmq.aviator.pipeline.PipelineStatus;
+import com.txmq.aviator.pipeline.ReportingEvents;
+import com.txmq.aviator.pipeline.exception.AviatorBusyException;
 import com.txmq.aviator.pipeline.subscribers.AviatorSubscriberManager;
 
 public class AviatorWebSocketApplication extends WebSocketApplication {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("websocket");
 	
 	private AviatorSubscriberManager subscriberManager = new AviatorSubscriberManager();
 
@@ -21,13 +31,13 @@ public class AviatorWebSocketApplication extends WebSocketApplication {
 	
 	@Override
 	public void onConnect(WebSocket socket) {
-		System.out.println("Connected");
+		logger.debug("Connected");
 		super.onConnect(socket);
 	}
 	
 	@Override
 	public void onClose(WebSocket socket, DataFrame frame) {
-		System.out.println("Closed");
+		logger.debug("Closed");
 		super.onClose(socket, frame);
 	}
 	
@@ -42,16 +52,14 @@ public class AviatorWebSocketApplication extends WebSocketApplication {
 			message = parser.readValue(frame, AviatorMessage.class);
 		} catch (Exception e) {
 			//Uh-oh..  Try to report the failure back to the caller
-			e.printStackTrace();
+			logger.warn("Could not deserialize websocket message", e);
 			AviatorMessage<String> errorResponse = new AviatorMessage<String>();
 			errorResponse.payload = "Could not deserialize message: " + frame;
 			try {
 				socket.send(parser.writeValueAsString(errorResponse));
 			} catch (JsonProcessingException e1) {
 				// OK, we're screwed..  Bail out.
-				System.out.println("Websocket message deserialization and error reporting failed!");
-				System.out.println(frame);
-				e1.printStackTrace();
+				logger.error("Websocket message deserialization and error reporting failed! {}", frame, e1);
 			} finally {
 				return;
 			}
@@ -61,12 +69,53 @@ public class AviatorWebSocketApplication extends WebSocketApplication {
          * We're still here, so we must have been able to deserialize the message we received.  
          * Register responders, and pass the transaction on to the platform.
          */
+        this.submit(socket, message);
+    }
+	
+	/**
+	 * Binary frames carry messages in the same binary wire format used for platform 
+	 * transactions, with payloads encoded by the codec registered for the transaction type.
+	 * 
+	 * @see com.txmq.aviator.messaging.codec.AviatorMessageCodec
+	 */
+	@Override
+	public void onMessage(WebSocket socket, byte[] frame) {
+		AviatorMessage<?> message = null;
+		try {
+			message = AviatorMessageCodec.decode(frame);
+		} catch (Exception e) {
+			logger.warn("Could not decode binary websocket message", e);
+			AviatorMessage<String> errorResponse = new AviatorMessage<String>();
+			errorResponse.payload = "Could not decode binary message";
+			try {
+				socket.send(new AviatorMessageJsonParser().writeValueAsString(errorResponse));
+			} catch (JsonProcessingException e1) {
+				logger.error("Websocket message decoding and error reporting failed!", e1);
+			}
+			return;
+		}
+		
+		this.submit(socket, message);
+	}
+	
+	private void submit(WebSocket socket, AviatorMessage<?> message) {
+        TransactionTracer.received(message);
         try {
         	subscriberManager.registerAllAvailableResponders(message, socket);
         	PlatformLocator.createTransaction(message);
+        } catch (AviatorBusyException e) {
+        	//Report it the way the transaction's own completion would have been reported
+        	AviatorNotification<Long> busy = new AviatorNotification<Long>(
+        			ReportingEvents.transactionComplete, e.getRetryAfterMillis(), PipelineStatus.BUSY, message, null
+        	).compact();
+        	try {
+        		socket.send(new AviatorMessageJsonParser().writeValueAsString(busy));
+        	} catch (JsonProcessingException e1) {
+        		logger.error("Unable to report that websocket message {} was turned away", message.getUuid(), e1);
+        	}
         } catch (IOException e) {
-        	e.printStackTrace();
+        	logger.error("Unable to submit websocket message {}", message.getUuid(), e);
         }        
-    }
+	}
 }
 
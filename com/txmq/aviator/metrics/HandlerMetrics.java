@@ -0,0 +1,129 @@
+package com.txmq.aviator.metrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.txmq.aviator.messaging.AviatorTransactionType;
+
+/**
+ * Invocation counts and latencies for one handler method on one event and transaction
+ * type, on one node.  Routers record every invocation of a handler here, so the handlers
+ * that take up the most time at each stage of the pipeline can be found while the node
+ * is running.
+ *
+ * Each node's routers have their own instances, so nodes running in the same JVM are
+ * measured separately.  Routers that don't belong to a node, e.g. the routing tables
+ * nodes' routers are copied from, get instances that aren't reported.
+ *
+ * @see com.txmq.aviator.messaging.rest.MetricsApi
+ */
+public class HandlerMetrics {
+
+	private static final ConcurrentHashMap<String, HandlerMetrics> registry = new ConcurrentHashMap<String, HandlerMetrics>();
+
+	private static volatile boolean enabled = true;
+
+	private final String nodeName;
+	private final String event;
+	private final AviatorTransactionType transactionType;
+	private final Method method;
+	private final long createdAt = System.currentTimeMillis();
+
+	private final AtomicLong errors = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private HandlerMetrics(String nodeName, String event, AviatorTransactionType transactionType, Method method) {
+		this.nodeName = nodeName;
+		this.event = event;
+		this.transactionType = transactionType;
+		this.method = method;
+	}
+
+	/**
+	 * Returns a node's metrics for a handler method on an event and transaction type, creating 
+	 * them if needed.  When nodeName is null, returns new metrics that aren't reported.
+	 */
+	public static HandlerMetrics forHandler(String nodeName, Enum<?> event, AviatorTransactionType transactionType, Method method) {
+		if (nodeName == null) {
+			return new HandlerMetrics(null, event.name(), transactionType, method);
+		}
+		
+		String key = nodeName + ":" + event.name() + ":" + transactionType.getOrdinal() + ":" + method.toGenericString();
+		HandlerMetrics result = registry.get(key);
+		if (result == null) {
+			result = new HandlerMetrics(nodeName, event.name(), transactionType, method);
+			HandlerMetrics existing = registry.putIfAbsent(key, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the metrics for every handler of every node's routers
+	 */
+	public static List<HandlerMetrics> getAll() {
+		return new ArrayList<HandlerMetrics>(registry.values());
+	}
+
+	/**
+	 * Turns recording on or off for every handler.  Recording is on by default.
+	 */
+	public static void setEnabled(boolean enabled) {
+		HandlerMetrics.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Records an invocation that took the given time, and whether it threw
+	 */
+	public void record(long nanos, boolean failed) {
+		this.latency.record(nanos);
+		if (failed) {
+			this.errors.incrementAndGet();
+		}
+	}
+
+	public String getNodeName() {
+		return this.nodeName;
+	}
+
+	public String getEvent() {
+		return this.event;
+	}
+
+	public AviatorTransactionType getTransactionType() {
+		return this.transactionType;
+	}
+
+	public Method getMethod() {
+		return this.method;
+	}
+
+	public long getInvocations() {
+		return this.latency.getCount();
+	}
+
+	public long getErrors() {
+		return this.errors.get();
+	}
+
+	public LatencyHistogram getLatency() {
+		return this.latency;
+	}
+
+	/**
+	 * Returns the average number of invocations per second since the handler was first routed to
+	 */
+	public double getInvocationsPerSecond() {
+		long elapsed = System.currentTimeMillis() - this.createdAt;
+		return (elapsed > 0) ? this.latency.getCount() * 1000.0 / elapsed : 0;
+	}
+}
@@ -0,0 +1,137 @@
+package com.txmq.aviator.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, in the style of HdrHistogram.  Values are
+ * counted in buckets whose width grows with the value, so every value from a nanosecond
+ * to centuries is recorded to within about 3% in a fixed number of buckets.
+ *
+ * Recording is lock-free and doesn't allocate, so it's cheap enough to do on every
+ * invocation of a handler.  Readers see a consistent enough picture for monitoring,
+ * but a snapshot taken while values are being recorded may be off by those values.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Values below 2^SUB_BUCKET_BITS get a bucket each.  Above that, each power of two
+	 * is split into 2^(SUB_BUCKET_BITS - 1) buckets.
+	 */
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+	/**
+	 * Enough buckets for any positive long
+	 */
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 2) * HALF_SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a duration.  Negative durations, e.g. from a clock adjustment, are recorded as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		this.counts.incrementAndGet(bucketOf(nanos));
+		this.count.incrementAndGet();
+		this.total.addAndGet(nanos);
+
+		long currentMax = this.max.get();
+		while (nanos > currentMax && !this.max.compareAndSet(currentMax, nanos)) {
+			currentMax = this.max.get();
+		}
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the smallest value counted in a bucket
+	 */
+	static long lowestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = bucket / HALF_SUB_BUCKETS - 1;
+		return (long) (bucket % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+	}
+
+	/**
+	 * Returns the largest value counted in a bucket
+	 */
+	static long highestValueIn(int bucket) {
+		return (bucket + 1 < BUCKETS) ? lowestValueIn(bucket + 1) - 1 : Long.MAX_VALUE;
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	public long getTotalNanos() {
+		return this.total.get();
+	}
+
+	public long getMaxNanos() {
+		return this.max.get();
+	}
+
+	public long getMeanNanos() {
+		long count = this.count.get();
+		return (count > 0) ? this.total.get() / count : 0;
+	}
+
+	/**
+	 * Returns the duration that the given percentage of recorded durations were at or below,
+	 * to the precision of the histogram's buckets, or 0 if nothing has been recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		return this.getPercentilesNanos(percentile)[0];
+	}
+
+	/**
+	 * Returns several percentiles at once, in the order they were asked for,
+	 * which is cheaper than asking for each one separately
+	 */
+	public long[] getPercentilesNanos(double... percentiles) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.counts.get(i);
+			count += snapshot[i];
+		}
+
+		long[] result = new long[percentiles.length];
+		if (count == 0) {
+			return result;
+		}
+
+		for (int p = 0; p < percentiles.length; p++) {
+			long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += snapshot[i];
+				if (seen >= rank) {
+					//Report the top of the bucket, but never more than the largest value seen
+					result[p] = Math.min(highestValueIn(i), this.max.get());
+					break;
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,158 @@
+package com.txmq.aviator.metrics;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.txmq.aviator.messaging.AviatorTransactionType;
+
+/**
+ * The timestamps a transaction collects on its way through the pipeline of the 
+ * node it was submitted to.  Stage timestamps are from System.nanoTime(), and 
+ * each stage keeps the first time it was reached.
+ * 
+ * A context is attached to the message it traces, and looked up by the message's 
+ * identifier for the copies of the message decoded from platform transactions.
+ * 
+ * @see TransactionTracer
+ */
+public class TraceContext {
+	
+	private static final TraceStage[] STAGES = TraceStage.values();
+	
+	private final UUID uuid;
+	private final long startedAt = System.currentTimeMillis();
+	private final AtomicLongArray stages = new AtomicLongArray(STAGES.length);
+	
+	/**
+	 * Ends of the pipeline reached so far.  See TransactionTracer.settle().
+	 */
+	final AtomicInteger settled = new AtomicInteger();
+	
+	private volatile String nodeName;
+	private volatile AviatorTransactionType transactionType;
+	private volatile boolean sampled;
+	private volatile Instant timeCreated;
+	private volatile Instant consensusTimestamp;
+	private volatile String status;
+	
+	TraceContext(UUID uuid) {
+		this.uuid = uuid;
+	}
+	
+	/**
+	 * Records the time a stage was reached, unless it's been reached already
+	 */
+	public void mark(TraceStage stage) {
+		this.stages.compareAndSet(stage.ordinal(), 0, System.nanoTime());
+	}
+	
+	public boolean hasReached(TraceStage stage) {
+		return this.stages.get(stage.ordinal()) != 0;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() at which a stage was reached, or 0 if it hasn't been
+	 */
+	public long getNanos(TraceStage stage) {
+		return this.stages.get(stage.ordinal());
+	}
+	
+	/**
+	 * Returns the stages reached so far, in the order they were reached
+	 */
+	public TraceStage[] getReachedStages() {
+		TraceStage[] result = new TraceStage[STAGES.length];
+		int count = 0;
+		for (TraceStage stage : STAGES) {
+			long nanos = this.getNanos(stage);
+			if (nanos == 0) {
+				continue;
+			}
+			
+			int i = count++;
+			while (i > 0 && this.getNanos(result[i - 1]) > nanos) {
+				result[i] = result[i - 1];
+				i--;
+			}
+			result[i] = stage;
+		}
+		
+		TraceStage[] reached = new TraceStage[count];
+		System.arraycopy(result, 0, reached, 0, count);
+		return reached;
+	}
+	
+	/**
+	 * Records the platform's timestamps for the transaction when it reaches consensus
+	 */
+	void setPlatformTimes(Instant timeCreated, Instant consensusTimestamp) {
+		this.timeCreated = timeCreated;
+		this.consensusTimestamp = consensusTimestamp;
+	}
+	
+	public UUID getUuid() {
+		return this.uuid;
+	}
+	
+	/**
+	 * Returns the wall clock time, in milliseconds, at which the trace was started
+	 */
+	public long getStartedAt() {
+		return this.startedAt;
+	}
+	
+	public String getNodeName() {
+		return this.nodeName;
+	}
+	
+	void setNodeName(String nodeName) {
+		this.nodeName = nodeName;
+	}
+	
+	public AviatorTransactionType getTransactionType() {
+		return this.transactionType;
+	}
+	
+	void setTransactionType(AviatorTransactionType transactionType) {
+		this.transactionType = transactionType;
+	}
+	
+	/**
+	 * Tests if the trace is written out by the exporter when it's finished.  Stage 
+	 * latencies are aggregated for every trace, sampled or not.
+	 */
+	public boolean isSampled() {
+		return this.sampled;
+	}
+	
+	void setSampled(boolean sampled) {
+		this.sampled = sampled;
+	}
+	
+	/**
+	 * Returns the time the platform says the transaction was created, if it has reached consensus
+	 */
+	public Instant getTimeCreated() {
+		return this.timeCreated;
+	}
+	
+	/**
+	 * Returns the transaction's consensus timestamp, if it has reached consensus
+	 */
+	public Instant getConsensusTimestamp() {
+		return this.consensusTimestamp;
+	}
+	
+	/**
+	 * Returns how the transaction left the pipeline, once the trace is finished
+	 */
+	public String getStatus() {
+		return this.status;
+	}
+	
+	void setStatus(String status) {
+		this.status = status;
+	}
+}
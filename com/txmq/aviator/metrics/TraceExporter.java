@@ -0,0 +1,131 @@
+package com.txmq.aviator.metrics;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
+
+/**
+ * Writes finished traces to a local file, one JSON object per line.  Traces are 
+ * written by a background thread, so exporting never holds up the pipeline.  When 
+ * the writer falls behind and its queue fills up, traces are dropped and counted.
+ * 
+ * Each line holds the transaction's identifier, node, transaction type and status, 
+ * the wall clock time the trace started, the platform's creation and consensus 
+ * timestamps if it reached consensus, and the time each stage was reached, in 
+ * microseconds after the first.
+ */
+public class TraceExporter implements Runnable {
+	
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("pipeline");
+	
+	/**
+	 * ObjectMappers are thread-safe once configured, and expensive to create
+	 */
+	private static final ObjectMapper mapper = new ObjectMapper();
+	
+	private final String path;
+	private final Writer writer;
+	private final ArrayBlockingQueue<TraceContext> queue;
+	private final Thread worker;
+	
+	private final AtomicLong exported = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * Opens the file for appending and starts the thread that writes to it
+	 */
+	public TraceExporter(String path, int queueSize) throws IOException {
+		this.path = path;
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8));
+		this.queue = new ArrayBlockingQueue<TraceContext>(queueSize);
+		this.worker = new Thread(this, "aviator-trace-exporter");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+	
+	/**
+	 * Queues a finished trace to be written
+	 */
+	public void export(TraceContext trace) {
+		if (!this.queue.offer(trace)) {
+			this.dropped.incrementAndGet();
+		}
+	}
+	
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				TraceContext trace = this.queue.take();
+				do {
+					this.write(trace);
+					trace = this.queue.poll();
+				} while (trace != null);
+				
+				//Flush whenever the queue empties, so the file is never far behind
+				this.writer.flush();
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				logger.error("Unable to write traces to {}", this.path, e);
+			}
+		}
+	}
+	
+	private void write(TraceContext trace) throws IOException {
+		this.writer.write(mapper.writeValueAsString(toRecord(trace)));
+		this.writer.write('\n');
+		this.exported.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the fields written out for a trace
+	 */
+	static Map<String, Object> toRecord(TraceContext trace) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("uuid", trace.getUuid().toString());
+		result.put("node", trace.getNodeName());
+		result.put("namespace", trace.getTransactionType().getNamespace());
+		result.put("transactionType", trace.getTransactionType().getValue());
+		result.put("status", trace.getStatus());
+		result.put("startedAt", trace.getStartedAt());
+		if (trace.getTimeCreated() != null) {
+			result.put("timeCreated", trace.getTimeCreated().toString());
+			result.put("consensusTimestamp", trace.getConsensusTimestamp().toString());
+		}
+		
+		Map<String, Double> stages = new LinkedHashMap<String, Double>();
+		TraceStage[] reached = trace.getReachedStages();
+		for (TraceStage stage : reached) {
+			stages.put(stage.name(), (trace.getNanos(stage) - trace.getNanos(reached[0])) / 1000.0);
+		}
+		result.put("stageMicros", stages);
+		return result;
+	}
+	
+	public String getPath() {
+		return this.path;
+	}
+	
+	public long getExported() {
+		return this.exported.get();
+	}
+	
+	/**
+	 * Returns the number of traces dropped because the writer fell behind
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+}
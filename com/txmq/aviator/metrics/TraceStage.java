@@ -0,0 +1,49 @@
+package com.txmq.aviator.metrics;
+
+/**
+ * The points in the pipeline at which a traced transaction is timestamped, 
+ * in the order a transaction usually reaches them.
+ * 
+ * @see TransactionTracer
+ */
+public enum TraceStage {
+	/**
+	 * Arrived at a socket or WebSocket, or was passed to PlatformLocator.createTransaction()
+	 */
+	RECEIVED,
+	
+	/**
+	 * messageReceived handlers have run
+	 */
+	MESSAGE_RECEIVED,
+	
+	/**
+	 * Handed to the platform, alone or in a batch
+	 */
+	SUBMITTED,
+	
+	/**
+	 * executePreConsensus handlers have run
+	 */
+	PRE_CONSENSUS,
+	
+	/**
+	 * This node has seen the transaction reach consensus
+	 */
+	CONSENSUS,
+	
+	/**
+	 * executeConsensus handlers have run
+	 */
+	EXECUTED,
+	
+	/**
+	 * Handed to the block logger
+	 */
+	LOGGED,
+	
+	/**
+	 * The transactionComplete notification has been delivered to subscribers
+	 */
+	COMPLETED
+}
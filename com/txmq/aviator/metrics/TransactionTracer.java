@@ -0,0 +1,332 @@
+package com.txmq.aviator.metrics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.pipeline.PipelineStatus;
+
+/**
+ * Traces transactions through the pipeline of the node they were submitted to, so 
+ * that the time a slow transaction took can be broken down by stage.  Each traced 
+ * message carries a TraceContext, which is timestamped as the message reaches each 
+ * TraceStage.  Messages read back from platform transactions are new copies, so they 
+ * find their context by the message's identifier among the traces still in progress.
+ * 
+ * A trace is finished when the transactionComplete notification has been delivered, 
+ * and, if the transaction reached consensus, once it has been handed to the block 
+ * logger.  The time between each stage and the next one reached is then added to a 
+ * histogram for that pair of stages, along with the end to end time and the platform's 
+ * own consensus lag.  A sample of finished traces is written out in full by the 
+ * exporter.  Traces that don't finish within the timeout, e.g. because the platform 
+ * dropped the transaction, are abandoned.
+ * 
+ * Queries answered from a snapshot of the state aren't traced.
+ * 
+ * @see com.txmq.aviator.config.model.TracingConfig
+ */
+public class TransactionTracer {
+	
+	/**
+	 * Histogram of the end to end time of each trace
+	 */
+	public static final String TOTAL = "total";
+	
+	/**
+	 * Histogram of the time between the platform creating a transaction and its consensus timestamp
+	 */
+	public static final String CONSENSUS_LAG = "timeCreated->consensusTimestamp";
+	
+	private static final String[][] TRANSITIONS = new String[TraceStage.values().length][TraceStage.values().length];
+	static {
+		for (TraceStage from : TraceStage.values()) {
+			for (TraceStage to : TraceStage.values()) {
+				TRANSITIONS[from.ordinal()][to.ordinal()] = from.name() + "->" + to.name();
+			}
+		}
+	}
+	
+	private static volatile boolean enabled = false;
+	private static volatile double sampleRate = 0;
+	private static volatile int maxActive = 0;
+	private static volatile long timeoutMillis = 0;
+	private static volatile TraceExporter exporter;
+	
+	private static final ConcurrentHashMap<UUID, TraceContext> active = new ConcurrentHashMap<UUID, TraceContext>();
+	private static final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+	
+	private static final AtomicLong lastSweep = new AtomicLong();
+	private static final AtomicLong started = new AtomicLong();
+	private static final AtomicLong finished = new AtomicLong();
+	private static final AtomicLong skipped = new AtomicLong();
+	private static final AtomicLong timedOut = new AtomicLong();
+	
+	/**
+	 * Starts tracing transactions.  sampleRate is the fraction of traces written out by 
+	 * the exporter, which may be null to only aggregate them.  At most maxActive traces 
+	 * are kept in progress, and transactions submitted while that many are in progress 
+	 * aren't traced.
+	 */
+	public static void init(double sampleRate, int maxActive, long timeoutMillis, TraceExporter exporter) {
+		TransactionTracer.sampleRate = sampleRate;
+		TransactionTracer.maxActive = maxActive;
+		TransactionTracer.timeoutMillis = timeoutMillis;
+		TransactionTracer.exporter = exporter;
+		TransactionTracer.enabled = true;
+	}
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Timestamps a message as it arrives from a client, before it's known whether it 
+	 * will be traced.  The trace is started, or not, by begin().
+	 */
+	public static void received(AviatorMessage<?> message) {
+		if (enabled && message.getTrace() == null) {
+			TraceContext trace = new TraceContext(message.getUuid());
+			trace.mark(TraceStage.RECEIVED);
+			message.setTrace(trace);
+		}
+	}
+	
+	/**
+	 * Starts tracing a message submitted to a node
+	 */
+	public static void begin(AviatorMessage<?> message, String nodeName) {
+		if (!enabled) {
+			return;
+		}
+		
+		sweep();
+		if (active.size() >= maxActive) {
+			skipped.incrementAndGet();
+			message.setTrace(null);
+			return;
+		}
+		
+		TraceContext trace = message.getTrace();
+		if (trace == null) {
+			trace = new TraceContext(message.getUuid());
+			trace.mark(TraceStage.RECEIVED);
+			message.setTrace(trace);
+		}
+		
+		trace.setNodeName(nodeName);
+		trace.setTransactionType(message.transactionType);
+		trace.setSampled(ThreadLocalRandom.current().nextDouble() < sampleRate);
+		if (active.putIfAbsent(trace.getUuid(), trace) == null) {
+			started.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Timestamps a stage of a message's trace, if the message is being traced on the node
+	 */
+	public static void mark(AviatorMessage<?> message, String nodeName, TraceStage stage) {
+		TraceContext trace = find(message, nodeName);
+		if (trace != null) {
+			trace.mark(stage);
+		}
+	}
+	
+	/**
+	 * Timestamps a message reaching consensus, and records the platform's timestamps for it
+	 */
+	public static void reachedConsensus(AviatorMessage<?> message, String nodeName, Instant timeCreated, Instant consensusTimestamp) {
+		TraceContext trace = find(message, nodeName);
+		if (trace != null) {
+			trace.setPlatformTimes(timeCreated, consensusTimestamp);
+			trace.mark(TraceStage.CONSENSUS);
+		}
+	}
+	
+	/**
+	 * Records that a message that reached consensus is done with block logging, 
+	 * whether or not it was logged.  Interrupted messages aren't logged.
+	 */
+	public static void logged(AviatorMessage<?> message, String nodeName, boolean logged) {
+		TraceContext trace = find(message, nodeName);
+		if (trace != null) {
+			if (logged) {
+				trace.mark(TraceStage.LOGGED);
+			}
+			settle(trace);
+		}
+	}
+	
+	/**
+	 * Records that a message's transactionComplete notification has been delivered
+	 */
+	public static void completed(UUID messageId, String nodeName, PipelineStatus status) {
+		if (!enabled || active.isEmpty()) {
+			return;
+		}
+		
+		TraceContext trace = active.get(messageId);
+		if (trace != null && trace.getNodeName().equals(nodeName)) {
+			trace.setStatus(status.name());
+			trace.mark(TraceStage.COMPLETED);
+			settle(trace);
+		}
+	}
+	
+	/**
+	 * Finishes the trace of a message that was turned away before it could complete
+	 */
+	public static void rejected(AviatorMessage<?> message, PipelineStatus status) {
+		TraceContext trace = (enabled) ? message.getTrace() : null;
+		if (trace != null && trace.getNodeName() != null) {
+			trace.setStatus(status.name());
+			finish(trace);
+		}
+	}
+	
+	/**
+	 * Returns the message's trace if it's being traced on the given node, attaching it to the message
+	 */
+	private static TraceContext find(AviatorMessage<?> message, String nodeName) {
+		if (!enabled) {
+			return null;
+		}
+		
+		TraceContext trace = message.getTrace();
+		if (trace == null) {
+			if (active.isEmpty()) {
+				return null;
+			}
+			
+			trace = active.get(message.getUuid());
+			if (trace == null || !trace.getNodeName().equals(nodeName)) {
+				return null;
+			}
+			message.setTrace(trace);
+		}
+		
+		return (nodeName.equals(trace.getNodeName())) ? trace : null;
+	}
+	
+	/**
+	 * Finishes a trace once both ends of the pipeline have been reached:  the 
+	 * transactionComplete notification, and block logging if it reached consensus.
+	 * Which comes first depends on whether notifications are dispatched.
+	 */
+	private static void settle(TraceContext trace) {
+		int ends = (trace.hasReached(TraceStage.CONSENSUS)) ? 2 : 1;
+		if (trace.settled.incrementAndGet() >= ends) {
+			finish(trace);
+		}
+	}
+	
+	private static void finish(TraceContext trace) {
+		if (!active.remove(trace.getUuid(), trace)) {
+			//Already finished or abandoned
+			return;
+		}
+		finished.incrementAndGet();
+		
+		TraceStage[] reached = trace.getReachedStages();
+		for (int i = 1; i < reached.length; i++) {
+			record(	TRANSITIONS[reached[i - 1].ordinal()][reached[i].ordinal()], 
+					trace.getNanos(reached[i]) - trace.getNanos(reached[i - 1]));
+		}
+		if (reached.length > 1) {
+			record(TOTAL, trace.getNanos(reached[reached.length - 1]) - trace.getNanos(reached[0]));
+		}
+		if (trace.getTimeCreated() != null && trace.getConsensusTimestamp() != null) {
+			record(CONSENSUS_LAG, Duration.between(trace.getTimeCreated(), trace.getConsensusTimestamp()).toNanos());
+		}
+		
+		export(trace);
+	}
+	
+	private static void record(String transition, long nanos) {
+		LatencyHistogram histogram = latencies.get(transition);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			LatencyHistogram existing = latencies.putIfAbsent(transition, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		histogram.record(nanos);
+	}
+	
+	private static void export(TraceContext trace) {
+		TraceExporter exporter = TransactionTracer.exporter;
+		if (exporter != null && trace.isSampled()) {
+			exporter.export(trace);
+		}
+	}
+	
+	/**
+	 * Abandons traces that have been in progress for longer than the timeout.  Runs at most once a second.
+	 */
+	private static void sweep() {
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if (now - last < 1000 || !lastSweep.compareAndSet(last, now)) {
+			return;
+		}
+		
+		for (TraceContext trace : active.values()) {
+			if (now - trace.getStartedAt() >= timeoutMillis && active.remove(trace.getUuid(), trace)) {
+				timedOut.incrementAndGet();
+				trace.setStatus("TIMED_OUT");
+				export(trace);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the latency histogram for each pair of consecutive stages that 
+	 * finished traces have passed through, along with TOTAL and CONSENSUS_LAG
+	 */
+	public static Map<String, LatencyHistogram> getLatencies() {
+		return new TreeMap<String, LatencyHistogram>(latencies);
+	}
+	
+	public static double getSampleRate() {
+		return sampleRate;
+	}
+	
+	public static TraceExporter getExporter() {
+		return exporter;
+	}
+	
+	/**
+	 * Returns the number of traces in progress
+	 */
+	public static int getActive() {
+		return active.size();
+	}
+	
+	public static long getStarted() {
+		return started.get();
+	}
+	
+	public static long getFinished() {
+		return finished.get();
+	}
+	
+	/**
+	 * Returns the number of transactions that weren't traced because too many traces were in progress
+	 */
+	public static long getSkipped() {
+		return skipped.get();
+	}
+	
+	/**
+	 * Returns the number of traces abandoned because they took too long to finish
+	 */
+	public static long getTimedOut() {
+		return timedOut.get();
+	}
+}
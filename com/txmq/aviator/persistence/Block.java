@@ -95,6 +95,10 @@ public class Block {
 		if (this.committed == true) {
 			throw new IllegalStateException("This block has already been committed.  No more transactions can be added to a committed block");
 		}
+		
+		//Storage clients may serialize the block by reading fields directly, 
+		//so make sure a lazily-decoded payload has actually been decoded.
+		transaction.getPayload();
 		this.contents.transactions.add(transaction);
 	}
 	
@@ -61,6 +61,19 @@ public class BlockLogger {
 		}
 	}
 	
+	/**
+	 * Passes a transaction to a node's loggers along with the raw bytes it was 
+	 * read from.  Loggers that can store the raw bytes don't need to decode 
+	 * or re-encode the message.
+	 * 
+	 * @see IBlockLogger#addTransaction(AviatorMessage, byte[])
+	 */
+	public void addTransaction(AviatorMessage<?> transaction, byte[] rawTransaction, String nodeName) {
+		for (IBlockLogger logger : this.getLoggers(nodeName)) {
+			logger.addTransaction(transaction, rawTransaction);
+		}
+	}
+	
 	public void flushLoggers() {
 		for (List<IBlockLogger> loggers : this.loggers.values()) {
 			for (IBlockLogger logger : loggers) {
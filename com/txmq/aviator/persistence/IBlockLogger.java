@@ -16,6 +16,18 @@ public interface IBlockLogger {
      */
     public void addTransaction(AviatorMessage<?> transaction);
     
+    /**
+     * Adds a transaction to the next block, supplying the raw bytes of the 
+     * platform transaction it was read from.  The message's payload may not 
+     * have been decoded yet.  Loggers that store transactions in binary form 
+     * can override this method to write the raw bytes straight through.  The 
+     * default implementation hands the message to addTransaction(), which will 
+     * decode the payload if the logger reads it.
+     */
+    public default void addTransaction(AviatorMessage<?> transaction, byte[] rawTransaction) {
+    	this.addTransaction(transaction);
+    }
+    
     /**
      * Asks the logger to persist a block to storage
      */
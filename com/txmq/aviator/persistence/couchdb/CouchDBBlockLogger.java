@@ -14,6 +14,8 @@ import org.lightcouch.CouchDbClient;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.txmq.aviator.core.PlatformLocator;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorMessage;
 import com.txmq.aviator.persistence.Block;
 import com.txmq.aviator.persistence.IBlockLogger;
@@ -29,6 +31,8 @@ import com.txmq.aviator.persistence.IBlockLogger;
  * file based scheme for setting CouchDB logger parameters.
  */
 public class CouchDBBlockLogger implements IBlockLogger {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("persistence");
 	private int BLOCK_SIZE = 4;
 	private Block block;
 	private CouchDbClient client;
@@ -104,7 +108,7 @@ public class CouchDBBlockLogger implements IBlockLogger {
 				.put(Entity.json(maxIndexView));
 		
 		if (createViewResponse.getStatus() >= 400) {
-			System.out.println("Received " + createViewResponse.getStatus() + " when creating block logger views");
+			logger.warn("Received {} when creating block logger views", createViewResponse.getStatus());
 		}
 		
 		//Prepare the new block..  Assume it's a genesis block
@@ -119,7 +123,7 @@ public class CouchDBBlockLogger implements IBlockLogger {
 				.get();
 		
 		if (response.getStatus() != 200) {
-			System.out.println("Received " + response.getStatus() + " while querying for existing chain.");
+			logger.warn("Received {} while querying for existing chain", response.getStatus());
 		} else {
 			try {
 				Map<String, Object> queryResult = new ObjectMapper().readValue(
@@ -2,6 +2,8 @@ package com.txmq.aviator.persistence.transactions;
 
 import com.txmq.aviator.core.PlatformLocator;
 import com.txmq.aviator.core.AviatorState;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorCoreTransactionTypes;
 import com.txmq.aviator.messaging.AviatorMessage;
 import com.txmq.aviator.pipeline.PlatformEvents;
@@ -9,6 +11,8 @@ import com.txmq.aviator.pipeline.metadata.AviatorHandler;
 
 public class PersistenceTransactions {
 
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("persistence");
+
 	@AviatorHandler(	namespace="AviatorCoreTransactionTypes",
 					transactionType=AviatorCoreTransactionTypes.SHUTDOWN, 
 					events= {PlatformEvents.executeConsensus})
@@ -16,7 +20,8 @@ public class PersistenceTransactions {
 		//If we have a block logger, then ask it to flush to the chain.
 		if (PlatformLocator.getBlockLogger() != null) {
 			PlatformLocator.shutdown();	
-			System.out.println("It is now safe to shut down.");
+			logger.info("It is now safe to shut down.");
+			AviatorLogManager.flush();
 		}
 		
 		return message;
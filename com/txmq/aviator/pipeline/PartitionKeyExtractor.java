@@ -0,0 +1,33 @@
+package com.txmq.aviator.pipeline;
+
+import com.txmq.aviator.messaging.AviatorMessage;
+
+/**
+ * Declares which part of the state a transaction type's handlers touch, so that 
+ * pre-consensus handling of messages that touch different parts can run in parallel.
+ * 
+ * Name an implementation in a handler's annotation:
+ * 
+ * @AviatorHandler(..., events={PlatformEvents.executePreConsensus}, partitionKey=AnimalNameKey.class)
+ * 
+ * Messages with equal keys are handled one at a time, in the order they arrived.  
+ * Messages with different keys may be handled at the same time, so the state must 
+ * be safe to update concurrently wherever keys differ, e.g. by keeping each 
+ * partition in a concurrent map.  Return null to have a message handled on its 
+ * own, after every message before it and before any message after it.
+ * 
+ * Only messages that arrive together, i.e. in the same batch, are handled in parallel. 
+ * The state waits for all of them before handing control back to the platform, so 
+ * they run on pool threads while the platform's thread holds the state's lock, and 
+ * mustn't call the state's synchronized methods.
+ * 
+ * Implementations need a public no-argument constructor, and are shared by every 
+ * node in the JVM.
+ */
+public interface PartitionKeyExtractor {
+	
+	/**
+	 * Returns the partition of the state a message touches.  Keys are compared with equals().
+	 */
+	public Object getPartitionKey(AviatorMessage<?> message);
+}
@@ -4,5 +4,6 @@ public enum PipelineStatus {
 	OK,
 	INTERRUPTED,
 	ERROR,
-	COMPLETED
+	COMPLETED,
+	BUSY
 }
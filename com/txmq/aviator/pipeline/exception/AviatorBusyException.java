@@ -0,0 +1,36 @@
+package com.txmq.aviator.pipeline.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a transaction is turned away because the node already has as many
+ * transactions waiting for consensus as it can take, or the platform won't accept
+ * any more for now.  The transaction can be submitted again after a while.
+ * 
+ * @see com.txmq.aviator.core.AdmissionController
+ */
+public class AviatorBusyException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterMillis;
+	
+	public AviatorBusyException(String message, long retryAfterMillis) {
+		super(message);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+	
+	/**
+	 * Returns how long the caller should wait before submitting the transaction again
+	 */
+	public long getRetryAfterMillis() {
+		return this.retryAfterMillis;
+	}
+	
+	/**
+	 * Returns the retry delay rounded up to whole seconds, as used by HTTP's Retry-After header
+	 */
+	public long getRetryAfterSeconds() {
+		return (this.retryAfterMillis + 999) / 1000;
+	}
+}
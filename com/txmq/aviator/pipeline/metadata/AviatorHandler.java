@@ -5,6 +5,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import com.txmq.aviator.messaging.codec.PayloadCodec;
+import com.txmq.aviator.pipeline.PartitionKeyExtractor;
 import com.txmq.aviator.pipeline.PlatformEvents;
 
 /**
@@ -21,6 +23,15 @@ import com.txmq.aviator.pipeline.PlatformEvents;
  * example, if your (executeConsensus) handler returns a value, then that value will be 
  * used as the payload for the message received by your (consensusResult) handler.
  * 
+ * Handlers can optionally declare how the payload of their transaction type is encoded 
+ * on the wire by supplying a PayloadCodec class, e.g.
+ * 
+ * @AviatorHandler(..., payloadClass=Animal.class, payloadCodec=JsonPayloadCodec.class)
+ * 
+ * Transaction types that don't declare a codec use the framework's built-in encoding.
+ * 
+ * @see com.txmq.aviator.messaging.codec.PayloadCodecRegistry
+ * 
  * @author craigdrabik
  *
  */
@@ -31,4 +42,55 @@ public @interface AviatorHandler {
 	String transactionType(); 
 	PlatformEvents[] events() default {};
 	Class<?> payloadClass() default AviatorNullPayloadType.class;
+	
+	/**
+	 * PayloadCodec implementation used to encode this transaction type's payload.  
+	 * The PayloadCodec interface itself is used as a placeholder for "not declared".
+	 */
+	@SuppressWarnings("rawtypes")
+	Class<? extends PayloadCodec> payloadCodec() default PayloadCodec.class;
+	
+	/**
+	 * Extracts the partition of the state an executePreConsensus handler touches, allowing 
+	 * messages for different partitions to be handled in parallel.  The PartitionKeyExtractor 
+	 * interface itself is used as a placeholder for "not declared", and messages of types 
+	 * that don't declare one are handled one at a time.
+	 * 
+	 * @see PartitionKeyExtractor
+	 */
+	Class<? extends PartitionKeyExtractor> partitionKey() default PartitionKeyExtractor.class;
+
+	/**
+	 * Declares that an executeConsensus handler only uses the state through VersionedMaps,
+	 * has no other side effects, and is deterministic, so that it can be executed
+	 * speculatively in parallel with the handlers of other messages in the same batch.
+	 * A transaction type is only executed speculatively if all of its handlers declare it.
+	 *
+	 * @see com.txmq.aviator.state.OptimisticExecutor
+	 */
+	boolean speculative() default false;
+
+	/**
+	 * Declares that a messageReceived handler only reads the state, so that it can answer
+	 * queries from a snapshot of the latest consensus state on a pool of reader threads
+	 * rather than waiting for the platform's state.  The handler is the whole of the
+	 * message's processing, and the message is never submitted to the platform.
+	 * A transaction type is only handled this way if all of its handlers declare it.
+	 * Read-only handlers must not modify the state:  the snapshot is the platform's own
+	 * copy, which other queries read at the same time and which the platform signs.
+	 *
+	 * @see com.txmq.aviator.core.PlatformLocator#initQueryExecution(int)
+	 */
+	boolean readOnly() default false;
+
+	/**
+	 * Declares that a messageReceived handler's result only depends on its payload and on
+	 * data in the state that handlers in its own namespace maintain, so that the result
+	 * can be cached until a pre-consensus or consensus handler in the namespace runs.
+	 * Results are only cached when the handler interrupts the message, i.e. answers it
+	 * without submitting it to the platform.
+	 *
+	 * @see com.txmq.aviator.pipeline.routers.QueryCache
+	 */
+	boolean cacheable() default false;
 }
@@ -0,0 +1,28 @@
+package com.txmq.aviator.pipeline.metadata;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class of handlers or subscribers as stateless, so that every node running 
+ * in the same JVM can share one instance of it.  By default, each node's pipeline 
+ * creates its own instance of every class it routes to, since processors may keep 
+ * state that belongs to a single node.
+ * 
+ * Only annotate classes whose handlers keep everything they need in the state, the 
+ * message, or other objects passed to them.  Shared instances are called from every 
+ * node's threads at once.
+ * 
+ * @AviatorSharedProcessor
+ * public class AnimalTransactions {
+ *     @AviatorHandler(...)
+ *     public Animal addAnimal(AviatorMessage<Animal> message, ZooState state) { ... }
+ * }
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface AviatorSharedProcessor {
+
+}
@@ -1,24 +1,29 @@
 package com.txmq.aviator.pipeline.routers;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import org.reflections.Reflections;
-import org.reflections.scanners.MethodAnnotationsScanner;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.txmq.aviator.core.AviatorState;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorTransactionType;
 import com.txmq.aviator.messaging.AviatorMessage;
-import com.txmq.aviator.messaging.websocket.grizzly.AviatorMessageJsonParser;
+import com.txmq.aviator.messaging.codec.PayloadCodec;
+import com.txmq.aviator.metrics.HandlerMetrics;
+import com.txmq.aviator.messaging.codec.PayloadCodecRegistry;
+import com.txmq.aviator.pipeline.PartitionKeyExtractor;
 import com.txmq.aviator.pipeline.metadata.AviatorNullPayloadType;
+import com.txmq.aviator.pipeline.metadata.AviatorSharedProcessor;
+import com.txmq.aviator.transactionrouter.HandlerInvoker;
+import com.txmq.aviator.util.index.AnnotationIndex;
 
 /**
  * Generic router that enables us to "parameterize" the lookup of methods decorated with handler metadata.
@@ -48,14 +53,87 @@ import com.txmq.aviator.pipeline.metadata.AviatorNullPayloadType;
  */
 //public class ExoParameterizedRouter<T extends Annotation, E extends Enum<E>> extends ExoRouter<T> {
 public class AviatorParameterizedRouter<E extends Enum<E>> {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("pipeline");
 	
 	protected E event;
 	protected Class<? extends Annotation> annotationType;
 	
 	/**
-	 * Map of transaction type values to the methods that handle them.
+	 * Methods that handle each transaction type, indexed by the type's ordinal.  
+	 * Types with no handlers have a null entry, or are past the end of the array.
+	 * 
+	 * The arrays are never modified once they've been assigned here.  Adding a handler 
+	 * replaces them with updated copies, so routers created from this one can share them.
+	 * 
+	 * @see AviatorTransactionType#getOrdinal()
+	 */
+	protected HandlerInvoker[][] handlers;
+	
+	/**
+	 * Metrics recorded for each handler in handlers, at the same indexes.  Replaced 
+	 * rather than modified, like handlers, but each router has its own, so that 
+	 * every node's handlers are measured separately.
+	 */
+	protected HandlerMetrics[][] handlerMetrics;
+	
+	/**
+	 * The node this router routes for, or null if it isn't a node's router
+	 */
+	protected String nodeName;
+	
+	/**
+	 * The instance each handler in handlers is invoked on, at the same indexes.  
+	 * Filled in the first time each handler is invoked.  Unlike handlers, these 
+	 * belong to this router alone.
+	 */
+	protected Object[][] processors;
+	
+	/**
+	 * Partition key extractor for each transaction type, indexed by ordinal like handlers.  
+	 * A type only has one if all of its handlers declare the same extractor.  Replaced 
+	 * rather than modified, like handlers.
+	 */
+	protected PartitionKeyExtractor[] partitionKeyExtractors;
+	
+	/**
+	 * Flags declared by every handler of a transaction type, indexed by ordinal like 
+	 * handlers.  A type only has a flag if all of its handlers declare it.  Replaced 
+	 * rather than modified, like handlers.
+	 */
+	protected int[] handlerFlags;
+	
+	/**
+	 * Set for transaction types whose handlers can be executed speculatively
+	 * 
+	 * @see com.txmq.aviator.pipeline.metadata.AviatorHandler#speculative()
+	 */
+	public static final int FLAG_SPECULATIVE = 1;
+	
+	/**
+	 * Set for transaction types whose handlers only read the state
+	 * 
+	 * @see com.txmq.aviator.pipeline.metadata.AviatorHandler#readOnly()
+	 */
+	public static final int FLAG_READ_ONLY = 2;
+	
+	/**
+	 * Set for transaction types whose messageReceived results can be cached
+	 * 
+	 * @see com.txmq.aviator.pipeline.metadata.AviatorHandler#cacheable()
+	 */
+	public static final int FLAG_CACHEABLE = 4;
+	
+	/**
+	 * Extractor instances, shared by every router in the JVM
 	 */
-	protected Map<AviatorTransactionType, List<Method>> transactionMap;
+	private static final ConcurrentHashMap<Class<?>, PartitionKeyExtractor> extractors = new ConcurrentHashMap<Class<?>, PartitionKeyExtractor>();
+	
+	/**
+	 * Instances of processor classes annotated with @AviatorSharedProcessor, 
+	 * shared by the routers of every node in the JVM
+	 */
+	private static final Map<Class<?>, Object> sharedProcessors = new ConcurrentHashMap<Class<?>, Object>();
 
 	/**
 	 * Methods have to be invoked on an instance of an object (unless
@@ -79,12 +157,44 @@ public class AviatorParameterizedRouter<E extends Enum<E>> {
 	 * @see com.txmq.aviator.core.PlatformLocator
 	 */
 	public AviatorParameterizedRouter(Class<? extends Annotation> annotationType, E event) {
-		this.transactionMap = new HashMap<AviatorTransactionType, List<Method>>();
+		this.handlers = new HandlerInvoker[0][];
+		this.handlerMetrics = new HandlerMetrics[0][];
+		this.processors = new Object[0][];
+		this.partitionKeyExtractors = new PartitionKeyExtractor[0];
+		this.handlerFlags = new int[0];
 		this.transactionProcessors = new HashMap<Class<?>, Object>(); 		
 		this.annotationType = annotationType;
 		this.event = event;		
 	}
 	
+	/**
+	 * Creates a router for a node with the same routes as another router, without 
+	 * scanning any packages.  The new router creates its own processor instances, 
+	 * and records its own handler metrics under the node's name.
+	 * 
+	 * @see RoutingTable
+	 */
+	public AviatorParameterizedRouter(AviatorParameterizedRouter<E> routes, String nodeName) {
+		this(routes.annotationType, routes.event);
+		this.nodeName = nodeName;
+		this.handlers = routes.handlers;
+		this.partitionKeyExtractors = routes.partitionKeyExtractors;
+		this.handlerFlags = routes.handlerFlags;
+		
+		HandlerMetrics[][] handlerMetrics = new HandlerMetrics[routes.handlerMetrics.length][];
+		for (int ordinal = 0; ordinal < handlerMetrics.length; ordinal++) {
+			HandlerMetrics[] template = routes.handlerMetrics[ordinal];
+			if (template != null) {
+				handlerMetrics[ordinal] = new HandlerMetrics[template.length];
+				for (int i = 0; i < template.length; i++) {
+					handlerMetrics[ordinal][i] = HandlerMetrics.forHandler(
+							nodeName, this.event, template[i].getTransactionType(), template[i].getMethod());
+				}
+			}
+		}
+		this.handlerMetrics = handlerMetrics;
+	}
+	
 	/**
 	 * Scans a package, e.g. "com.txmq.exo.messaging.rest" for 
 	 * @ExoHandler annotations using reflection and sets up the
@@ -96,9 +206,8 @@ public class AviatorParameterizedRouter<E extends Enum<E>> {
 	 */
 	@SuppressWarnings("unchecked")
 	public AviatorParameterizedRouter<E> addPackage(String transactionPackage) {
-		System.out.println("Adding routes for " + event.name() + " in package " + transactionPackage);
-		Reflections reflections = new Reflections(transactionPackage, new MethodAnnotationsScanner());			
-		Set<Method> methods = reflections.getMethodsAnnotatedWith(this.annotationType);
+		logger.debug("Adding routes for {} in package {}", event, transactionPackage);
+		Set<Method> methods = AnnotationIndex.getMethodsAnnotatedWith(this.annotationType, transactionPackage);
 		for (Method method : methods) {
 			try {
 				Annotation[] methodAnnotations = method.getAnnotationsByType(this.annotationType);
@@ -108,12 +217,22 @@ public class AviatorParameterizedRouter<E extends Enum<E>> {
 					Method transactionTypeMethod;
 					Method eventTypesMethod;
 					Method payloadTypeMethod;
+					Method payloadCodecMethod;
+					Method partitionKeyMethod;
+					Method speculativeMethod;
+					Method readOnlyMethod;
+					Method cacheableMethod;
 					
 					try {
 						namespaceMethod = methodAnnotation.getClass().getMethod("namespace");
 						transactionTypeMethod = methodAnnotation.getClass().getMethod("transactionType");
 						eventTypesMethod = methodAnnotation.getClass().getMethod("events");
 						payloadTypeMethod = null;
+						payloadCodecMethod = null;
+						partitionKeyMethod = null;
+						speculativeMethod = null;
+						readOnlyMethod = null;
+						cacheableMethod = null;
 						
 						try {
 							payloadTypeMethod = methodAnnotation.getClass().getMethod("payloadClass");
@@ -121,6 +240,36 @@ public class AviatorParameterizedRouter<E extends Enum<E>> {
 							//No problem, we check for nulls later on
 						}
 						
+						try {
+							payloadCodecMethod = methodAnnotation.getClass().getMethod("payloadCodec");
+						} catch (NoSuchMethodException e) {
+							//No problem, we check for nulls later on
+						}
+						
+						try {
+							partitionKeyMethod = methodAnnotation.getClass().getMethod("partitionKey");
+						} catch (NoSuchMethodException e) {
+							//No problem, we check for nulls later on
+						}
+						
+						try {
+							speculativeMethod = methodAnnotation.getClass().getMethod("speculative");
+						} catch (NoSuchMethodException e) {
+							//No problem, we check for nulls later on
+						}
+						
+						try {
+							readOnlyMethod = methodAnnotation.getClass().getMethod("readOnly");
+						} catch (NoSuchMethodException e) {
+							//No problem, we check for nulls later on
+						}
+						
+						try {
+							cacheableMethod = methodAnnotation.getClass().getMethod("cacheable");
+						} catch (NoSuchMethodException e) {
+							//No problem, we check for nulls later on
+						}
+						
 						E[] eventTypes = (E[]) eventTypesMethod.invoke(methodAnnotation);
 						for (E eventType : eventTypes) {
 							//Add a mapping from this transaction type to its processor 
@@ -128,24 +277,59 @@ public class AviatorParameterizedRouter<E extends Enum<E>> {
 							if (eventType.equals(this.event)) {
 								String namespace = (String) namespaceMethod.invoke(methodAnnotation);
 								String transactionTypeValue = (String) transactionTypeMethod.invoke(methodAnnotation);
-								AviatorTransactionType transactionType = new AviatorTransactionType(namespace, transactionTypeValue);
-								if (!this.transactionMap.containsKey(transactionType)) {
-									this.transactionMap.put(transactionType, new ArrayList<Method>());
+								AviatorTransactionType transactionType = AviatorTransactionType.register(namespace, transactionTypeValue);
+								
+								//We use the PartitionKeyExtractor interface as a placeholder for an undeclared extractor
+								PartitionKeyExtractor partitionKeyExtractor = null;
+								if (partitionKeyMethod != null) {
+									Class<?> extractorClass = (Class<?>) partitionKeyMethod.invoke(methodAnnotation);
+									if (!extractorClass.equals(PartitionKeyExtractor.class)) {
+										partitionKeyExtractor = getPartitionKeyExtractor(extractorClass);
+									}
 								}
-								this.transactionMap.get(transactionType).add(method);
+								
+								int flags = 0;
+								if (speculativeMethod != null && (Boolean) speculativeMethod.invoke(methodAnnotation)) {
+									flags |= FLAG_SPECULATIVE;
+								}
+								if (readOnlyMethod != null && (Boolean) readOnlyMethod.invoke(methodAnnotation)) {
+									flags |= FLAG_READ_ONLY;
+								}
+								if (cacheableMethod != null && (Boolean) cacheableMethod.invoke(methodAnnotation)) {
+									flags |= FLAG_CACHEABLE;
+								}
+								this.addHandler(transactionType, HandlerInvoker.forMethod(method), partitionKeyExtractor, flags);
 
 								//Add a mapping from transaction type to its payload if the payload isn't empty.
 								//We use ExoNullPayloadType as a placeholder for an empty payload in annotations
+								Class<?> payloadType = null;
 								if (payloadTypeMethod != null) {
-									Class<?> payloadType = (Class<?>) payloadTypeMethod.invoke(methodAnnotation);
+									payloadType = (Class<?>) payloadTypeMethod.invoke(methodAnnotation);
 									if (!payloadType.equals(AviatorNullPayloadType.class)) {
-										AviatorMessageJsonParser.registerPayloadType(transactionType, payloadType);
+										PayloadCodecRegistry.registerPayloadType(transactionType, payloadType);
+									} else {
+										payloadType = null;
 									}
 								}
+								
+								//Register the payload codec if one was declared.  
+								//We use the PayloadCodec interface as a placeholder for an undeclared codec
+								Class<?> payloadCodec = PayloadCodec.class;
+								if (payloadCodecMethod != null) {
+									payloadCodec = (Class<?>) payloadCodecMethod.invoke(methodAnnotation);
+									if (!payloadCodec.equals(PayloadCodec.class)) {
+										PayloadCodecRegistry.registerCodec(transactionType, payloadCodec, payloadType);
+									}
+								}
+								
+								//Otherwise, generate one for the payload class if we can
+								if (payloadCodec.equals(PayloadCodec.class) && payloadType != null && Serializable.class.isAssignableFrom(payloadType)) {
+									PayloadCodecRegistry.registerGeneratedCodec(transactionType, payloadType.asSubclass(Serializable.class));
+								}
 							}
 						}
 					} catch (Exception e) {
-						e.printStackTrace();
+						logger.error("Unable to add a route for {}", method, e);
 						throw new IllegalArgumentException(
 								"The annotation " + this.annotationType.getName() + 
 								" returned an unexpected event type or value"
@@ -153,49 +337,218 @@ public class AviatorParameterizedRouter<E extends Enum<E>> {
 					}
 				}
 			} catch (Exception e) {
-				e.printStackTrace();
+				logger.error("Unable to add routes for {}", method, e);
 			}
 		}
 		return this;
 	}
 	
-	public Serializable routeTransaction(AviatorMessage<?> message, AviatorState state) throws ReflectiveOperationException {
-		return this.invokeHandler(message.transactionType, message, state);
+	private void addHandler(AviatorTransactionType transactionType, HandlerInvoker invoker, PartitionKeyExtractor partitionKeyExtractor, int flags) {
+		//Copy rather than modify, since other routers may share the arrays
+		int ordinal = transactionType.getOrdinal();
+		int length = Math.max(this.handlers.length, ordinal + 1);
+		HandlerInvoker[][] handlers = Arrays.copyOf(this.handlers, length);
+		HandlerMetrics[][] handlerMetrics = Arrays.copyOf(this.handlerMetrics, length);
+		HandlerMetrics metrics = HandlerMetrics.forHandler(this.nodeName, this.event, transactionType, invoker.getMethod());
+		PartitionKeyExtractor[] partitionKeyExtractors = Arrays.copyOf(this.partitionKeyExtractors, length);
+		int[] handlerFlags = Arrays.copyOf(this.handlerFlags, length);
+		HandlerInvoker[] existing = handlers[ordinal];
+		if (existing == null) {
+			handlers[ordinal] = new HandlerInvoker[] { invoker };
+			handlerMetrics[ordinal] = new HandlerMetrics[] { metrics };
+			partitionKeyExtractors[ordinal] = partitionKeyExtractor;
+			handlerFlags[ordinal] = flags;
+		} else {
+			existing = Arrays.copyOf(existing, existing.length + 1);
+			existing[existing.length - 1] = invoker;
+			handlers[ordinal] = existing;
+			
+			HandlerMetrics[] existingMetrics = Arrays.copyOf(handlerMetrics[ordinal], existing.length);
+			existingMetrics[existing.length - 1] = metrics;
+			handlerMetrics[ordinal] = existingMetrics;
+			
+			//Handlers that disagree about the partition make the partition unknown
+			if (partitionKeyExtractors[ordinal] != partitionKeyExtractor) {
+				partitionKeyExtractors[ordinal] = null;
+			}
+			handlerFlags[ordinal] &= flags;
+		}
+		this.handlers = handlers;
+		this.handlerMetrics = handlerMetrics;
+		this.partitionKeyExtractors = partitionKeyExtractors;
+		this.handlerFlags = handlerFlags;
+	}
+	
+	private static PartitionKeyExtractor getPartitionKeyExtractor(Class<?> extractorClass) throws ReflectiveOperationException {
+		PartitionKeyExtractor result = extractors.get(extractorClass);
+		if (result == null) {
+			result = (PartitionKeyExtractor) extractorClass.getConstructor().newInstance();
+			PartitionKeyExtractor existing = extractors.putIfAbsent(extractorClass, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the partition of the state a message's handlers touch, or null if they 
+	 * didn't declare one.  Decodes the payload, since extractors usually read it.
+	 * 
+	 * @see PartitionKeyExtractor
+	 */
+	public Object getPartitionKey(AviatorMessage<?> message) throws IOException {
+		int ordinal = AviatorTransactionType.ordinalOf(message.transactionType);
+		PartitionKeyExtractor[] partitionKeyExtractors = this.partitionKeyExtractors;
+		if (ordinal < 0 || ordinal >= partitionKeyExtractors.length || partitionKeyExtractors[ordinal] == null) {
+			return null;
+		}
+		
+		message.decodePayload();
+		return partitionKeyExtractors[ordinal].getPartitionKey(message);
+	}
+	
+	/**
+	 * Tests if a transaction type has handlers, and all of them declare a flag
+	 */
+	public boolean hasFlag(AviatorTransactionType transactionType, int flag) {
+		int ordinal = AviatorTransactionType.ordinalOf(transactionType);
+		int[] handlerFlags = this.handlerFlags;
+		return ordinal >= 0 && ordinal < handlerFlags.length && (handlerFlags[ordinal] & flag) == flag;
+	}
+	
+	/**
+	 * Returns the handlers for a transaction type, or null if it has none
+	 */
+	private HandlerInvoker[] getHandlers(AviatorTransactionType transactionType) {
+		int ordinal = AviatorTransactionType.ordinalOf(transactionType);
+		HandlerInvoker[][] handlers = this.handlers;
+		return (ordinal >= 0 && ordinal < handlers.length) ? handlers[ordinal] : null;
+	}
+	
+	public Serializable routeTransaction(AviatorMessage<?> message, AviatorState state) throws ReflectiveOperationException, IOException {
+		return this.routeTransaction(message, state, true);
+	}
+	
+	/**
+	 * Routes a message without recording handler metrics, for speculative executions 
+	 * whose results may be discarded and the message executed again.
+	 * 
+	 * @see com.txmq.aviator.state.OptimisticExecutor
+	 */
+	public Serializable routeSpeculatively(AviatorMessage<?> message, AviatorState state) throws ReflectiveOperationException, IOException {
+		return this.routeTransaction(message, state, false);
+	}
+	
+	private Serializable routeTransaction(AviatorMessage<?> message, AviatorState state, boolean measure) throws ReflectiveOperationException, IOException {
+		if (this.getHandlers(message.transactionType) == null) {
+			return null;
+		}
+		
+		//Payloads of messages read from platform transactions are decoded 
+		//lazily, so decode it now that we know a handler is going to see it.
+		message.decodePayload();
+		return this.invokeHandler(measure, message.transactionType, message, state);
 	}
 	
 	public boolean hasRouteForTransactionType(AviatorTransactionType transactionType) {
-		return this.transactionMap.containsKey(transactionType);
+		return this.getHandlers(transactionType) != null;
+	}
+	
+	/**
+	 * Tests if there's a handler for the transaction type with the given ordinal
+	 */
+	public boolean hasRouteForOrdinal(int ordinal) {
+		HandlerInvoker[][] handlers = this.handlers;
+		return ordinal >= 0 && ordinal < handlers.length && handlers[ordinal] != null;
 	}
 	
 	protected Serializable invokeHandler(AviatorTransactionType key, Object... args) throws ReflectiveOperationException {
-		Serializable result = null;;
-		if (this.transactionMap.containsKey(key)) {
-			List<Method> methods = this.transactionMap.get(key); 
-			for (Method method : methods) { 
-				Class<?> processorClass = method.getDeclaringClass();			
-				if (!this.transactionProcessors.containsKey(processorClass)) {
-					Constructor<?> processorConstructor = processorClass.getConstructor();
-					this.transactionProcessors.put(processorClass, processorConstructor.newInstance());				
+		return this.invokeHandler(true, key, args);
+	}
+	
+	private Serializable invokeHandler(boolean measure, AviatorTransactionType key, Object... args) throws ReflectiveOperationException {
+		Serializable result = null;
+		HandlerInvoker[] invokers = this.getHandlers(key);
+		if (invokers != null) {
+			Object[] processors = this.getProcessors(key.getOrdinal(), invokers.length);
+			HandlerMetrics[] metrics = this.handlerMetrics[key.getOrdinal()];
+			measure = measure && HandlerMetrics.isEnabled();
+			for (int i = 0; i < invokers.length; i++) { 
+				HandlerInvoker invoker = invokers[i];
+				if (processors[i] == null && !invoker.isStatic()) {
+					processors[i] = this.getTransactionProcessor(invoker.getMethod().getDeclaringClass());
 				}
 				
-				Object transactionProcessor = this.transactionProcessors.get(processorClass);
-				System.out.println("Invoking " + event.name() + " handler for " + key);
+				logger.trace("Invoking {} handler for {}", event, key);
+				
+				/*
+				 * Kind of a "safe hack"..  We should only have one handler (processor) for platform events, 
+				 * while notifications may have multiple handlers, but we don't care about the results of those 
+				 * handlers.  Thus, it's safe to just return the last value we get from a processor.  It'll either 
+				 * be the only one, or irrelevant.
+				 * 
+				 * Handlers that declare fewer parameters than we've been passed just don't see the extras.
+				 */
+				if (!measure) {
+					result = (Serializable) invoker.invokeOn(processors[i], args);
+					continue;
+				}
 				
-				//Kind of a "safe hack" - If the length of the args lists differs between 
-				//what we've been passed and what the function expects, just truncate.
-				if (args.length > method.getParameterCount()) {
-					/*
-					 * Also kind of a "safe hack"..  We should only have one handler (processor) for platform events, 
-					 * while notifications may have multiple handlers, but we don't care about the results of those 
-					 * handlers.  Thus, it's safe to just return the last value we get from a processor.  It'll either 
-					 * be the only one, or irrelevant.
-					 */
-					result = (Serializable) method.invoke(transactionProcessor, Arrays.copyOfRange(args, 0, method.getParameterCount()));
-				} else {
-					result = (Serializable) method.invoke(transactionProcessor, args);
+				long start = System.nanoTime();
+				boolean failed = true;
+				try {
+					result = (Serializable) invoker.invokeOn(processors[i], args);
+					failed = false;
+				} finally {
+					metrics[i].record(System.nanoTime() - start, failed);
 				}
 			}
 		} 
 		return result;
 	}
+	
+	/**
+	 * Returns the processor instances for a transaction type's handlers
+	 */
+	private Object[] getProcessors(int ordinal, int handlerCount) {
+		//Once a type's processors array exists, it only needs to be read
+		Object[][] processors = this.processors;
+		if (ordinal < processors.length && processors[ordinal] != null && processors[ordinal].length >= handlerCount) {
+			return processors[ordinal];
+		}
+		return this.createProcessors(ordinal, handlerCount);
+	}
+	
+	private synchronized Object[] createProcessors(int ordinal, int handlerCount) {
+		if (ordinal >= this.processors.length) {
+			this.processors = Arrays.copyOf(this.processors, this.handlers.length);
+		}
+		
+		Object[] result = this.processors[ordinal];
+		if (result == null || result.length < handlerCount) {
+			result = (result == null) ? new Object[handlerCount] : Arrays.copyOf(result, handlerCount);
+			this.processors[ordinal] = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns this router's instance of a transaction processor class, creating it if needed.  
+	 * Classes annotated with @AviatorSharedProcessor have one instance for the whole JVM.
+	 */
+	protected Object getTransactionProcessor(Class<?> processorClass) throws ReflectiveOperationException {
+		Map<Class<?>, Object> processors = (processorClass.isAnnotationPresent(AviatorSharedProcessor.class)) ? 
+				sharedProcessors : this.transactionProcessors;
+		
+		synchronized (processors) {
+			Object result = processors.get(processorClass);
+			if (result == null) {
+				Constructor<?> processorConstructor = processorClass.getConstructor();
+				result = processorConstructor.newInstance();
+				processors.put(processorClass, result);
+			}
+			return result;
+		}
+	}
 }
@@ -1,25 +1,47 @@
 package com.txmq.aviator.pipeline.routers;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.txmq.aviator.core.PlatformLocator;
 import com.txmq.aviator.core.AviatorState;
+import com.txmq.aviator.core.PartitionedExecutor;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
 import com.txmq.aviator.messaging.AviatorTransactionType;
 import com.txmq.aviator.messaging.AviatorMessage;
 import com.txmq.aviator.messaging.AviatorNotification;
+import com.txmq.aviator.metrics.TraceStage;
+import com.txmq.aviator.metrics.TransactionTracer;
 import com.txmq.aviator.pipeline.PipelineStatus;
 import com.txmq.aviator.pipeline.PlatformEvents;
 import com.txmq.aviator.pipeline.ReportingEvents;
 import com.txmq.aviator.pipeline.metadata.AviatorHandler;
 import com.txmq.aviator.pipeline.metadata.AviatorSubscriber;
 import com.txmq.aviator.pipeline.subscribers.AviatorSubscriberManager;
+import com.txmq.aviator.state.OptimisticExecutor;
 
 public class AviatorPipelineRouter {
 
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("pipeline");
+
 	private AviatorSubscriberManager subscriberManager = new AviatorSubscriberManager();
 	
+	/**
+	 * Delivers notifications on worker threads when set.  Otherwise, notifications 
+	 * are delivered by the thread that raises them.  Shared by every node in the JVM.
+	 */
+	private static volatile NotificationDispatcher notificationDispatcher = null;
+	
+	/**
+	 * Caches results of cacheable messageReceived handlers for every node in the JVM.  
+	 * Null when results aren't cached.
+	 */
+	private static volatile QueryCache queryCache = null;
+	
 	////	Routers for Platform Events 	////
 	
 	/**
@@ -73,49 +95,166 @@ public class AviatorPipelineRouter {
 	protected AviatorParameterizedRouter<ReportingEvents> transactionCompletedRouter = 
 			new AviatorParameterizedRouter<ReportingEvents>(AviatorSubscriber.class, ReportingEvents.transactionComplete);
 	
+	/**
+	 * Which reporting events have subscribers for each transaction type, indexed by the
+	 * type's ordinal.  Bit n is set when the ReportingEvents value with ordinal n has at 
+	 * least one subscriber.  Built by init() so that the pipeline doesn't create or route 
+	 * notifications that nobody is listening for.
+	 */
+	private int[] subscribedEvents = new int[0];
 	
 	
+	/**
+	 * Sets up routes to the handlers and subscribers in a list of packages.  
+	 * Packages are only scanned once per JVM, and nodes initialized with the same 
+	 * packages share the routes.  Each node still gets its own processor instances, 
+	 * unless the processor class is annotated with @AviatorSharedProcessor.
+	 */
 	public void init(List<String> packages) {
-		for (String pkg : packages ) {
-			this.messageReceivedRouter.addPackage(pkg);
-			this.executePreConsensusRouter.addPackage(pkg);
-			this.executeConsensusRouter.addPackage(pkg);
-			this.submittedRouter.addPackage(pkg);
-			this.preConsensusResultRouter.addPackage(pkg);
-			this.consensusResultRouter.addPackage(pkg);
-			this.transactionCompletedRouter.addPackage(pkg);
-		}		
+		this.init(packages, null);
+	}
+	
+	/**
+	 * Sets up routes for a node.  Handler metrics are recorded under the node's 
+	 * name, and aren't reported when it's null.
+	 * 
+	 * @see com.txmq.aviator.metrics.HandlerMetrics
+	 */
+	public void init(List<String> packages, String nodeName) {
+		RoutingTable routes = RoutingTable.forPackages(packages);
+		this.messageReceivedRouter = new AviatorParameterizedRouter<PlatformEvents>(routes.messageReceivedRoutes, nodeName);
+		this.executePreConsensusRouter = new AviatorParameterizedRouter<PlatformEvents>(routes.executePreConsensusRoutes, nodeName);
+		this.executeConsensusRouter = new AviatorParameterizedRouter<PlatformEvents>(routes.executeConsensusRoutes, nodeName);
+		this.submittedRouter = new AviatorParameterizedRouter<ReportingEvents>(routes.submittedRoutes, nodeName);
+		this.preConsensusResultRouter = new AviatorParameterizedRouter<ReportingEvents>(routes.preConsensusResultRoutes, nodeName);
+		this.consensusResultRouter = new AviatorParameterizedRouter<ReportingEvents>(routes.consensusResultRoutes, nodeName);
+		this.transactionCompletedRouter = new AviatorParameterizedRouter<ReportingEvents>(routes.transactionCompletedRoutes, nodeName);
+		
+		//Handlers have all been registered, so every transaction type with a subscriber has an ordinal by now
+		int[] subscribedEvents = new int[AviatorTransactionType.getTransactionTypeCount()];
+		for (int ordinal = 0; ordinal < subscribedEvents.length; ordinal++) {
+			for (ReportingEvents event : ReportingEvents.values()) {
+				if (this.getReportingRouter(event).hasRouteForOrdinal(ordinal)) {
+					subscribedEvents[ordinal] |= 1 << event.ordinal();
+				}
+			}
+		}
+		this.subscribedEvents = subscribedEvents;
+	}
+	
+	/**
+	 * Tests if anything subscribes to a reporting event for a transaction type
+	 */
+	public boolean hasSubscribers(ReportingEvents event, AviatorTransactionType transactionType) {
+		int ordinal = AviatorTransactionType.ordinalOf(transactionType);
+		int[] subscribedEvents = this.subscribedEvents;
+		return	ordinal >= 0 && ordinal < subscribedEvents.length && 
+				(subscribedEvents[ordinal] & (1 << event.ordinal())) != 0;
 	}
 	
 	public List<ReportingEvents> getRegisteredNotificationsForTransactionType(AviatorTransactionType transactionType) {
 		List<ReportingEvents> registeredEvents = new ArrayList<ReportingEvents>();
-		
-		if (this.submittedRouter.hasRouteForTransactionType(transactionType)) {
-			registeredEvents.add(ReportingEvents.submitted);			
+		for (ReportingEvents event : ReportingEvents.values()) {
+			if (this.hasSubscribers(event, transactionType)) {
+				registeredEvents.add(event);
+			}
 		}
 		
-		if (this.preConsensusResultRouter.hasRouteForTransactionType(transactionType)) {
-			registeredEvents.add(ReportingEvents.preConsensusResult);			
+		return registeredEvents;
+	}
+	
+	public void routeMessageReceived(AviatorMessage<?> message, AviatorState state) {
+		//System.out.println("Routing " + message.getUuid() + " to messageReceived");
+		QueryCache cache = queryCache;
+		if (cache != null && this.messageReceivedRouter.hasFlag(message.transactionType, AviatorParameterizedRouter.FLAG_CACHEABLE)) {
+			this.routeCacheable(message, state, cache, false);
+			return;
 		}
 		
-		if (this.consensusResultRouter.hasRouteForTransactionType(transactionType)) {
-			registeredEvents.add(ReportingEvents.consensusResult);			
+		try {
+			Serializable result = this.route(message, state, this.messageReceivedRouter);
+			if (message.isInterrupted()) {
+				this.sendNotification(ReportingEvents.transactionComplete, result, message, PipelineStatus.INTERRUPTED, state.getMyName());
+			} 
+		} catch (AviatorRoutingException e) {
+			/*
+			 * Indicates that something happened during processing that should prevent 
+			 * the normal notification handler from running.  We don't need to handle 
+			 * it directly, it's purpose is simply to short circuit notification.
+			 */
 		}
-		
-		if (this.transactionCompletedRouter.hasRouteForTransactionType(transactionType)) {
-			registeredEvents.add(ReportingEvents.transactionComplete);			
+	}
+	
+	/**
+	 * Tests if a transaction type is a query, i.e. all of its messageReceived handlers are read-only
+	 */
+	public boolean isReadOnly(AviatorTransactionType transactionType) {
+		return this.messageReceivedRouter.hasFlag(transactionType, AviatorParameterizedRouter.FLAG_READ_ONLY);
+	}
+	
+	/**
+	 * Routes a query through its read-only messageReceived handlers against a snapshot 
+	 * of the state.  Queries are never submitted to the platform, so the message is 
+	 * complete once its handlers have run.
+	 */
+	public void routeQuery(AviatorMessage<?> message, AviatorState snapshot) {
+		QueryCache cache = queryCache;
+		if (cache != null && this.messageReceivedRouter.hasFlag(message.transactionType, AviatorParameterizedRouter.FLAG_CACHEABLE)) {
+			this.routeCacheable(message, snapshot, cache, true);
+			return;
 		}
 		
-		return registeredEvents;
+		try {
+			Serializable result = this.route(message, snapshot, this.messageReceivedRouter);
+			message.interrupt();
+			this.sendNotification(ReportingEvents.transactionComplete, result, message, PipelineStatus.INTERRUPTED, snapshot.getMyName());
+		} catch (AviatorRoutingException e) {
+			/*
+			 * Indicates that something happened during processing that should prevent 
+			 * the normal notification handler from running.  We don't need to handle 
+			 * it directly, it's purpose is simply to short circuit notification.
+			 */
+		}
 	}
 	
-	public void routeMessageReceived(AviatorMessage<?> message, AviatorState state) {
-		//System.out.println("Routing " + message.uuid + " to messageReceived");
+	/**
+	 * Routes a message through cacheable messageReceived handlers, answering it from the 
+	 * cache if its result has been cached for the current version of its namespace.  
+	 * Queries are complete once they've been answered, as in routeQuery().
+	 */
+	private void routeCacheable(AviatorMessage<?> message, AviatorState state, QueryCache cache, boolean query) {
+		//Read the version first, so a result read while the namespace is changing is already stale
+		long version = state.getNamespaceVersion(message.transactionType.getNamespaceHash());
+		QueryCache.Key key = null;
+		try {
+			key = cache.keyFor(state.getMyName(), message);
+		} catch (IOException | RuntimeException e) {
+			//Route it uncached, and let routing report any problem with the payload
+			logger.debug("Unable to fingerprint the payload of {}", message.getUuid(), e);
+		}
+		
+		if (key != null) {
+			QueryCache.Entry cached = cache.get(key, version);
+			if (cached != null) {
+				message.interrupt();
+				this.sendNotification(ReportingEvents.transactionComplete, cached.result, message, PipelineStatus.INTERRUPTED, state.getMyName());
+				return;
+			}
+		}
+		
 		try {
 			Serializable result = this.route(message, state, this.messageReceivedRouter);
+			if (query) {
+				message.interrupt();
+			}
+			
+			//Only results that answered the message can stand in for running the handler
 			if (message.isInterrupted()) {
+				if (key != null) {
+					cache.put(key, version, result);
+				}
 				this.sendNotification(ReportingEvents.transactionComplete, result, message, PipelineStatus.INTERRUPTED, state.getMyName());
-			} 
+			}
 		} catch (AviatorRoutingException e) {
 			/*
 			 * Indicates that something happened during processing that should prevent 
@@ -126,9 +265,10 @@ public class AviatorPipelineRouter {
 	}
 	
 	public void routeExecutePreConsensus(AviatorMessage<?> message, AviatorState state) throws ReflectiveOperationException {
-		//System.out.println("Routing " + message.uuid + " to executePreConsensus");
+		//System.out.println("Routing " + message.getUuid() + " to executePreConsensus");
 		try {
 			Serializable result = this.route(message, state, this.executePreConsensusRouter);
+			TransactionTracer.mark(message, state.getMyName(), TraceStage.PRE_CONSENSUS);
 			this.sendNotification(	ReportingEvents.preConsensusResult, 
 									result, 
 									message, 
@@ -146,16 +286,53 @@ public class AviatorPipelineRouter {
 		}
 	}
 	
+	/**
+	 * Routes a message through executePreConsensus on an executor if its handlers declare 
+	 * the partition of the state they touch, so that messages for different partitions are 
+	 * handled in parallel.  Messages whose handlers don't declare a partition wait for every 
+	 * partitioned message before them and are handled on the calling thread.  Without an 
+	 * executor, every message is handled on the calling thread.
+	 * 
+	 * @see com.txmq.aviator.pipeline.PartitionKeyExtractor
+	 */
+	public void routeExecutePreConsensus(final AviatorMessage<?> message, final AviatorState state, PartitionedExecutor executor) throws ReflectiveOperationException {
+		if (executor == null || !this.executePreConsensusRouter.hasRouteForTransactionType(message.transactionType)) {
+			//Nothing touches the state, so there's nothing to order it against
+			this.routeExecutePreConsensus(message, state);
+			return;
+		}
+		
+		Object partitionKey = null;
+		try {
+			partitionKey = this.executePreConsensusRouter.getPartitionKey(message);
+		} catch (IOException | RuntimeException e) {
+			//Handle it on its own, and let routing report the problem
+			logger.debug("Unable to extract a partition key from {}", message.getUuid(), e);
+		}
+		
+		if (partitionKey == null) {
+			executor.awaitQuiescence();
+			this.routeExecutePreConsensus(message, state);
+			return;
+		}
+		
+		executor.execute(partitionKey, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					routeExecutePreConsensus(message, state);
+				} catch (ReflectiveOperationException e) {
+					logger.error("Unable to route {} to executePreConsensus", message.getUuid(), e);
+				}
+			}
+		});
+	}
+	
 	public void routeExecuteConsensus(AviatorMessage<?> message, AviatorState state) throws ReflectiveOperationException {
-		System.out.println("Routing " + message.uuid + " to executeConsensus on " + state.getMyName());
+		logger.debug("Routing {} to executeConsensus on {}", message.getUuid(), state.getMyName());
 		try {
 			Serializable result = this.route(message, state, this.executeConsensusRouter);
-			this.sendNotification(	ReportingEvents.consensusResult, 
-					result, 
-					message, 
-					(message.isInterrupted()) ? PipelineStatus.INTERRUPTED : PipelineStatus.OK,
-					state.getMyName());
-			this.sendNotification(ReportingEvents.transactionComplete, result, message, PipelineStatus.COMPLETED, state.getMyName());
+			this.reportConsensusResult(message, result, state);
 		} catch (AviatorRoutingException e) {
 			/*
 			 * Indicates that something happened during processing that should prevent 
@@ -165,7 +342,73 @@ public class AviatorPipelineRouter {
 		}		
 	}
 	
+	/**
+	 * Routes a run of consensus-ordered messages, e.g. the contents of a batch, through 
+	 * executeConsensus.  Consecutive messages whose handlers are all declared speculative 
+	 * are executed in parallel by the executor, which commits them in order with the same 
+	 * results as routing them one at a time.  Other messages, and every message when there 
+	 * is no executor, are routed one at a time.  Notifications are raised in order either way.
+	 * 
+	 * @see OptimisticExecutor
+	 */
+	public void routeExecuteConsensus(List<AviatorMessage<?>> messages, final AviatorState state, OptimisticExecutor executor) throws ReflectiveOperationException {
+		int start = 0;
+		while (start < messages.size()) {
+			int end = start;
+			while (executor != null && end < messages.size() && 
+					this.executeConsensusRouter.hasFlag(messages.get(end).transactionType, AviatorParameterizedRouter.FLAG_SPECULATIVE)) {
+				end++;
+			}
+			
+			if (end - start < 2) {
+				//Nothing to run alongside it
+				this.routeExecuteConsensus(messages.get(start), state);
+				start++;
+				continue;
+			}
+			
+			final List<AviatorMessage<?>> run = messages.subList(start, end);
+			List<Callable<Serializable>> transactions = new ArrayList<Callable<Serializable>>(run.size());
+			for (final AviatorMessage<?> message : run) {
+				final boolean interrupted = message.isInterrupted();
+				transactions.add(new Callable<Serializable>() {
+					@Override
+					public Serializable call() throws Exception {
+						//Forget anything a discarded execution did to the message
+						if (!interrupted) {
+							message.clearInterrupt();
+						}
+						//Only executions in order count towards handler metrics, since a 
+						//speculation may be discarded and the message executed again
+						if (OptimisticExecutor.isSpeculating()) {
+							return executeConsensusRouter.routeSpeculatively(message, state);
+						}
+						return executeConsensusRouter.routeTransaction(message, state);
+					}
+				});
+			}
+			
+			logger.debug("Executing {} messages speculatively on {}", run.size(), state.getMyName());
+			executor.execute(transactions, new OptimisticExecutor.CommitListener() {
+				@Override
+				public void committed(int index, Object result, Exception error) {
+					AviatorMessage<?> message = run.get(index);
+					if (queryCache != null) {
+						state.touchNamespace(message.transactionType.getNamespaceHash());
+					}
+					if (error != null) {
+						reportError(message, error, state);
+					} else {
+						reportConsensusResult(message, (Serializable) result, state);
+					}
+				}
+			});
+			start = end;
+		}
+	}
+	
 	public void notifySubmitted(AviatorMessage<?> message, String nodeName) {
+		TransactionTracer.mark(message, nodeName, TraceStage.SUBMITTED);
 		this.sendNotification(ReportingEvents.submitted, null, message, PipelineStatus.OK, nodeName);
 	}
 	
@@ -180,24 +423,61 @@ public class AviatorPipelineRouter {
 			 * error in a transactionCompelete notification 
 			 */
 			
-			message.interrupt();
-			this.sendNotification(	ReportingEvents.transactionComplete, 
-									e, 
-									message,
-									PipelineStatus.ERROR,
-									state.getMyName());
-			
+			this.reportError(message, e, state);
 			throw new AviatorRoutingException();
-		}	
+		} finally {
+			//Handlers that can modify the state invalidate cached query results in their namespace.
+			//Versions are only read by the cache, so there's nothing to invalidate without one.
+			if (queryCache != null && router != this.messageReceivedRouter && router.hasRouteForTransactionType(message.transactionType)) {
+				state.touchNamespace(message.transactionType.getNamespaceHash());
+			}
+		}
 		
 		return result;
 	}
 	
+	private void reportConsensusResult(AviatorMessage<?> message, Serializable result, AviatorState state) {
+		TransactionTracer.mark(message, state.getMyName(), TraceStage.EXECUTED);
+		this.sendNotification(	ReportingEvents.consensusResult, 
+				result, 
+				message, 
+				(message.isInterrupted()) ? PipelineStatus.INTERRUPTED : PipelineStatus.OK,
+				state.getMyName());
+		this.sendNotification(ReportingEvents.transactionComplete, result, message, PipelineStatus.COMPLETED, state.getMyName());
+	}
+	
+	private void reportError(AviatorMessage<?> message, Exception e, AviatorState state) {
+		message.interrupt();
+		this.sendNotification(	ReportingEvents.transactionComplete, 
+								e, 
+								message,
+								PipelineStatus.ERROR,
+								state.getMyName());
+	}
+	
 	private void sendNotification(	ReportingEvents event, 
 									Serializable payload, 
 									AviatorMessage<?> triggeringMessage, 
 									PipelineStatus status,
 									String nodeName) {
+		if (!this.hasSubscribers(event, triggeringMessage.transactionType) && 
+				!(event == ReportingEvents.transactionComplete && notificationDispatcher != null)) {
+			//Nobody to notify, so don't build the notification.  Responders registered 
+			//for the transaction still need cleaning up once it's complete, though.  
+			//When notifications are dispatched, the cleanup has to wait its turn behind 
+			//the message's other notifications, so it goes through the dispatcher.
+			//The message id is only asked for when it's needed, since it may not exist yet.
+			if (event == ReportingEvents.transactionComplete) {
+				if (AviatorSubscriberManager.mayHaveResponders(triggeringMessage.transactionType)) {
+					this.subscriberManager.removeResponder(nodeName, event, triggeringMessage.getUuid());
+				}
+				if (TransactionTracer.isEnabled()) {
+					TransactionTracer.completed(triggeringMessage.getUuid(), nodeName, status);
+				}
+			}
+			return;
+		}
+		
 		this.sendNotification(	new AviatorNotification<Serializable>(	event, 
 																	payload, 
 																	status, 
@@ -207,24 +487,21 @@ public class AviatorPipelineRouter {
 	}
 	
 	private void sendNotification(AviatorNotification<?> notification) {
-		//System.out.println("Routing " + notification.triggeringMessage.uuid + " to " + notification.event.toString());
-		
-		AviatorParameterizedRouter<ReportingEvents> router = null;
-		switch (notification.event) {
-			case submitted:
-				router = this.submittedRouter;
-				break;
-			case preConsensusResult:
-				router = this.preConsensusResultRouter;
-				break;
-			case consensusResult:
-				router = this.consensusResultRouter;
-				break;
-			case transactionComplete:
-				router = this.transactionCompletedRouter;
-				break;				
+		NotificationDispatcher dispatcher = notificationDispatcher;
+		if (dispatcher != null) {
+			dispatcher.dispatch(this, notification);
+		} else {
+			this.deliverNotification(notification);
 		}
+	}
+	
+	/**
+	 * Routes a notification to its subscribers
+	 */
+	void deliverNotification(AviatorNotification<?> notification) {
+		//System.out.println("Routing " + notification.triggeringMessage.uuid + " to " + notification.event.toString());
 		
+		AviatorParameterizedRouter<ReportingEvents> router = this.getReportingRouter(notification.event);
 		try {
 			router.routeTransaction(notification, null);
 		} catch (Exception e) {
@@ -232,13 +509,46 @@ public class AviatorPipelineRouter {
 			 * Something has gone wrong that was unhandled while sending a notification.  
 			 * In this case, we don't want to interrupt the further processing of the transaction
 			 */
-			
-			e.printStackTrace();
+			logger.error("Unhandled exception sending {} notification for {}", notification.event, notification.triggeringMessageId, e);
 		} finally {
 			//Clean up responders if this is the last step in the pipeline
 			if (notification.event.equals(ReportingEvents.transactionComplete)) {
 				this.subscriberManager.removeResponder(notification);
+				TransactionTracer.completed(notification.triggeringMessageId, notification.nodeName, notification.status);
 			}
 		}
 	}
+	
+	/**
+	 * Sets the dispatcher used to deliver notifications on worker threads, or 
+	 * null to deliver them on the thread that raises them.
+	 */
+	public static void setNotificationDispatcher(NotificationDispatcher dispatcher) {
+		notificationDispatcher = dispatcher;
+	}
+	
+	public static NotificationDispatcher getNotificationDispatcher() {
+		return notificationDispatcher;
+	}
+	
+	public static void setQueryCache(QueryCache cache) {
+		queryCache = cache;
+	}
+	
+	public static QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	private AviatorParameterizedRouter<ReportingEvents> getReportingRouter(ReportingEvents event) {
+		switch (event) {
+			case submitted:
+				return this.submittedRouter;
+			case preConsensusResult:
+				return this.preConsensusResultRouter;
+			case consensusResult:
+				return this.consensusResultRouter;
+			default:
+				return this.transactionCompletedRouter;
+		}
+	}
 }
@@ -0,0 +1,249 @@
+package com.txmq.aviator.pipeline.routers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
+import com.txmq.aviator.messaging.AviatorNotification;
+import com.txmq.aviator.pipeline.ReportingEvents;
+import com.txmq.aviator.util.collections.BoundedMpmcQueue;
+
+/**
+ * Delivers notifications to subscribers on worker threads, so that a slow subscriber
+ * (or the slow client behind it) doesn't hold up the thread that raised the notification,
+ * which is usually the thread processing transactions at consensus.
+ *
+ * Notifications are spread across shards, each a bounded lock-free queue drained by a
+ * single worker.  Every notification for a message goes to the same shard, chosen from
+ * the message's uuid, so a message's notifications are delivered in the order they were
+ * raised: submitted, preConsensusResult, consensusResult, transactionComplete.
+ * Notifications for different messages may be delivered in any order.
+ *
+ * When a shard's queue is full, the overflow policy decides what happens.  BLOCK makes
+ * the raising thread wait for room, which slows consensus down to the speed of the
+ * subscribers but loses nothing.  DROP discards the notification and counts it, so
+ * clients waiting on it won't hear about it.  transactionComplete notifications are
+ * never dropped, since delivering them is what cleans up the message's responders.
+ * After shutdown, notifications are delivered on the thread that raises them, once
+ * anything still queued in their shard has been delivered.
+ *
+ * @see com.txmq.aviator.config.model.NotificationsConfig
+ */
+public class NotificationDispatcher {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("pipeline");
+
+	public enum OverflowPolicy {
+		BLOCK,
+		DROP
+	}
+
+	/**
+	 * How long a worker sleeps between checks of an empty queue,
+	 * if it isn't woken by a new notification first
+	 */
+	private static final long IDLE_NANOS = 1000000;
+
+	/**
+	 * A notification waiting to be delivered, and the router that delivers it
+	 */
+	private static class Delivery {
+		final AviatorPipelineRouter router;
+		final AviatorNotification<?> notification;
+
+		Delivery(AviatorPipelineRouter router, AviatorNotification<?> notification) {
+			this.router = router;
+			this.notification = notification;
+		}
+	}
+
+	private class Shard implements Runnable {
+		final BoundedMpmcQueue<Delivery> queue;
+		final Thread worker;
+
+		/**
+		 * Set while the worker is about to park, so submitters know to wake it
+		 */
+		volatile boolean idle = false;
+
+		Shard(int index, int queueSize) {
+			this.queue = new BoundedMpmcQueue<Delivery>(queueSize);
+			this.worker = new Thread(this, "aviator-notifications-" + index);
+			this.worker.setDaemon(true);
+		}
+
+		void wake() {
+			if (this.idle) {
+				LockSupport.unpark(this.worker);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (!shutdown || !this.queue.isEmpty()) {
+				if (!this.deliverNext()) {
+					this.idle = true;
+					if (this.queue.isEmpty()) {
+						LockSupport.parkNanos(IDLE_NANOS);
+					}
+					this.idle = false;
+				}
+			}
+		}
+
+		/**
+		 * Delivers the notification at the head of the queue, returning false if it's empty.  
+		 * Deliveries are made under the shard's lock, so that after shutdown a raising thread 
+		 * can drain the queue itself without overtaking the worker.
+		 */
+		synchronized boolean deliverNext() {
+			Delivery delivery = this.queue.poll();
+			if (delivery == null) {
+				return false;
+			}
+
+			this.deliver(delivery);
+			return true;
+		}
+
+		/**
+		 * Delivers everything queued, then the given notification, on the calling thread.  
+		 * Used once the worker may have exited, so nothing is left in the queue for good.
+		 */
+		synchronized void drain(Delivery delivery) {
+			while (this.deliverNext()) {
+			}
+
+			if (delivery != null) {
+				this.deliver(delivery);
+			}
+		}
+
+		private void deliver(Delivery delivery) {
+			try {
+				delivery.router.deliverNotification(delivery.notification);
+			} catch (RuntimeException e) {
+				logger.error("Unhandled exception delivering {} notification", delivery.notification.event, e);
+			}
+			delivered.incrementAndGet();
+		}
+	}
+
+	private final Shard[] shards;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private volatile boolean shutdown = false;
+
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+
+	/**
+	 * Creates a dispatcher with a worker thread and a queue of queueSize notifications for each shard
+	 */
+	public NotificationDispatcher(int shards, int queueSize, OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+		this.shards = new Shard[Math.max(1, shards)];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard(i, queueSize);
+			this.shards[i].worker.start();
+		}
+	}
+
+	/**
+	 * Queues a notification for delivery by a router
+	 */
+	void dispatch(AviatorPipelineRouter router, AviatorNotification<?> notification) {
+		Delivery delivery = new Delivery(router, notification);
+		Shard shard = this.shards[(notification.triggeringMessageId.hashCode() & 0x7FFFFFFF) % this.shards.length];
+		if (this.shutdown) {
+			//The worker is finishing up or gone, so deliver it here, after anything still queued
+			shard.drain(delivery);
+			return;
+		}
+		
+		if (!shard.queue.offer(delivery)) {
+			//transactionComplete is never dropped, since it's what releases the message's responders
+			if (this.overflowPolicy == OverflowPolicy.DROP && notification.event != ReportingEvents.transactionComplete) {
+				this.dropped.incrementAndGet();
+				logger.warn("Notification queue is full, dropped {} notification for {}",
+						notification.event, notification.triggeringMessageId);
+				return;
+			}
+
+			this.blocked.incrementAndGet();
+			do {
+				if (this.shutdown && !shard.worker.isAlive()) {
+					//Nobody is left to make room
+					shard.drain(delivery);
+					return;
+				}
+				LockSupport.unpark(shard.worker);
+				LockSupport.parkNanos(10000);
+			} while (!shard.queue.offer(delivery));
+		}
+		
+		if (this.shutdown) {
+			//The worker may have found its queue empty and exited before this was queued
+			shard.drain(null);
+			return;
+		}
+		shard.wake();
+	}
+
+	/**
+	 * Stops queueing notifications and waits up to timeoutMillis for queued notifications to be delivered
+	 */
+	public void shutdown(long timeoutMillis) {
+		this.shutdown = true;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Shard shard : this.shards) {
+			LockSupport.unpark(shard.worker);
+			try {
+				shard.worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of notifications waiting in each shard's queue
+	 */
+	public int[] getQueueDepths() {
+		int[] result = new int[this.shards.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.shards[i].queue.size();
+		}
+		return result;
+	}
+
+	public int getQueueCapacity() {
+		return this.shards[0].queue.capacity();
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return this.overflowPolicy;
+	}
+
+	public long getDeliveredNotifications() {
+		return this.delivered.get();
+	}
+
+	/**
+	 * Returns the number of notifications discarded because their queue was full
+	 */
+	public long getDroppedNotifications() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Returns the number of times a thread had to wait for room in a queue
+	 */
+	public long getBlockedSubmissions() {
+		return this.blocked.get();
+	}
+}
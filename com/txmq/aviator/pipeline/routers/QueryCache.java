@@ -0,0 +1,281 @@
+package com.txmq.aviator.pipeline.routers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.txmq.aviator.messaging.AviatorMessage;
+import com.txmq.aviator.messaging.codec.PayloadCodec;
+import com.txmq.aviator.messaging.codec.PayloadCodecRegistry;
+import com.txmq.aviator.util.hash.MurmurHash3;
+
+/**
+ * Caches the results of cacheable messageReceived handlers, so that repeating a query
+ * doesn't run its handler again until the state it reads has changed.
+ *
+ * Results are keyed by node, transaction type, and a 128-bit fingerprint of the payload.
+ * Each result is stored with the version of its namespace's data in the state it was
+ * read from, and is only returned for a state with the same version.  The version
+ * changes whenever a pre-consensus or consensus handler in the namespace runs, so
+ * results are invalidated by any transaction that could have changed what they read.
+ *
+ * The least recently used results are evicted to keep the cache within its limits on
+ * the number of results and their estimated size.  Results are shared by every query
+ * that hits them, so they must not be modified.
+ *
+ * @see com.txmq.aviator.core.AviatorState#getNamespaceVersion(int)
+ * @see com.txmq.aviator.config.model.QueryCacheConfig
+ */
+public class QueryCache {
+
+	/**
+	 * Estimated size of an entry besides its result
+	 */
+	private static final int ENTRY_BYTES = 128;
+
+	/**
+	 * Size charged for results that can't be serialized to be measured
+	 */
+	private static final int UNMEASURED_RESULT_BYTES = 1024;
+
+	static final class Key {
+		final String nodeName;
+		final int ordinal;
+		final long fingerprint1;
+		final long fingerprint2;
+
+		Key(String nodeName, int ordinal, long fingerprint1, long fingerprint2) {
+			this.nodeName = nodeName;
+			this.ordinal = ordinal;
+			this.fingerprint1 = fingerprint1;
+			this.fingerprint2 = fingerprint2;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return this.ordinal == other.ordinal &&
+					this.fingerprint1 == other.fingerprint1 &&
+					this.fingerprint2 == other.fingerprint2 &&
+					this.nodeName.equals(other.nodeName);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) this.fingerprint1 ^ (31 * this.ordinal);
+		}
+	}
+
+	static final class Entry {
+		final long version;
+		final Serializable result;
+		final long bytes;
+
+		Entry(long version, Serializable result, long bytes) {
+			this.version = version;
+			this.result = result;
+			this.bytes = bytes;
+		}
+	}
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	/**
+	 * Entries in access order, least recently used first.  Everything below is guarded by this.
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long invalidations = 0;
+	private long evictions = 0;
+
+	public QueryCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the key a message's result is cached under on a node
+	 */
+	Key keyFor(String nodeName, AviatorMessage<?> message) throws IOException {
+		message.decodePayload();
+		byte[] payload = encodePayload(message);
+		MurmurHash3.LongPair fingerprint = new MurmurHash3.LongPair();
+		MurmurHash3.murmurhash3_x64_128(payload, 0, payload.length, 0, fingerprint);
+		return new Key(nodeName, message.transactionType.getOrdinal(), fingerprint.val1, fingerprint.val2);
+	}
+
+	/**
+	 * Returns the entry cached under a key if it was read from a state at the given
+	 * version, or null if there isn't one.  Entries from other versions are discarded.
+	 */
+	synchronized Entry get(Key key, long version) {
+		Entry result = this.entries.get(key);
+		if (result != null && result.version != version) {
+			this.entries.remove(key);
+			this.bytes -= result.bytes;
+			this.invalidations++;
+			result = null;
+		}
+
+		if (result != null) {
+			this.hits++;
+		} else {
+			this.misses++;
+		}
+		return result;
+	}
+
+	/**
+	 * Caches a result read from a state at the given version
+	 */
+	void put(Key key, long version, Serializable result) {
+		Entry entry = new Entry(version, result, ENTRY_BYTES + measure(result));
+		if (entry.bytes > this.maxBytes) {
+			return;
+		}
+
+		synchronized (this) {
+			Entry previous = this.entries.put(key, entry);
+			if (previous != null) {
+				this.bytes -= previous.bytes;
+			}
+			this.bytes += entry.bytes;
+
+			Iterator<Map.Entry<Key, Entry>> eldest = this.entries.entrySet().iterator();
+			while (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) {
+				this.bytes -= eldest.next().getValue().bytes;
+				eldest.remove();
+				this.evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Discards every cached result
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * Encodes a payload the way the wire format would, for fingerprinting
+	 */
+	private static byte[] encodePayload(AviatorMessage<?> message) throws IOException {
+		Object payload = message.payload;
+		if (payload == null) {
+			return new byte[0];
+		}
+
+		PayloadCodec<Serializable> codec = PayloadCodecRegistry.getCodec(message.transactionType);
+		if (codec != null) {
+			return codec.encode((Serializable) payload);
+		} else if (payload instanceof String) {
+			return ((String) payload).getBytes(StandardCharsets.UTF_8);
+		} else if (payload instanceof byte[]) {
+			return (byte[]) payload;
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(result);
+		out.writeObject(payload);
+		out.close();
+		return result.toByteArray();
+	}
+
+	/**
+	 * Estimates a result's size by the length of its serialized form
+	 */
+	private static long measure(Serializable result) {
+		if (result == null) {
+			return 0;
+		}
+
+		CountingOutputStream counter = new CountingOutputStream();
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(counter);
+			out.writeObject(result);
+			out.close();
+			return counter.count;
+		} catch (IOException e) {
+			return UNMEASURED_RESULT_BYTES;
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.count += len;
+		}
+	}
+
+	public synchronized int getEntries() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the estimated size of the cached results
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Returns the number of results discarded because the state they were read from had changed
+	 */
+	public synchronized long getInvalidations() {
+		return this.invalidations;
+	}
+
+	/**
+	 * Returns the number of results discarded to stay within the cache's limits
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a result, or 0 if there haven't been any
+	 */
+	public synchronized double getHitRate() {
+		long lookups = this.hits + this.misses;
+		return (lookups > 0) ? (double) this.hits / lookups : 0;
+	}
+}
@@ -0,0 +1,75 @@
+package com.txmq.aviator.pipeline.routers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.txmq.aviator.pipeline.PlatformEvents;
+import com.txmq.aviator.pipeline.ReportingEvents;
+import com.txmq.aviator.pipeline.metadata.AviatorHandler;
+import com.txmq.aviator.pipeline.metadata.AviatorSubscriber;
+
+/**
+ * The handlers and subscribers found in a list of packages, for each pipeline event.
+ *
+ * When several nodes run in the same JVM, each node has its own pipeline router,
+ * but they're usually initialized with the same packages.  Scanning the packages
+ * once and sharing the result saves the startup time and memory of repeating it
+ * for every node.  Routers created from a table share its handler arrays, which
+ * aren't modified once built, and create their own processor instances.
+ *
+ * Tables are cached by package list for the life of the JVM.
+ *
+ * @see AviatorPipelineRouter#init(List)
+ */
+class RoutingTable {
+
+	private static final Map<List<String>, RoutingTable> tables = new HashMap<List<String>, RoutingTable>();
+
+	final AviatorParameterizedRouter<PlatformEvents> messageReceivedRoutes =
+			new AviatorParameterizedRouter<PlatformEvents>(AviatorHandler.class, PlatformEvents.messageReceived);
+
+	final AviatorParameterizedRouter<PlatformEvents> executePreConsensusRoutes =
+			new AviatorParameterizedRouter<PlatformEvents>(AviatorHandler.class, PlatformEvents.executePreConsensus);
+
+	final AviatorParameterizedRouter<PlatformEvents> executeConsensusRoutes =
+			new AviatorParameterizedRouter<PlatformEvents>(AviatorHandler.class, PlatformEvents.executeConsensus);
+
+	final AviatorParameterizedRouter<ReportingEvents> submittedRoutes =
+			new AviatorParameterizedRouter<ReportingEvents>(AviatorSubscriber.class, ReportingEvents.submitted);
+
+	final AviatorParameterizedRouter<ReportingEvents> preConsensusResultRoutes =
+			new AviatorParameterizedRouter<ReportingEvents>(AviatorSubscriber.class, ReportingEvents.preConsensusResult);
+
+	final AviatorParameterizedRouter<ReportingEvents> consensusResultRoutes =
+			new AviatorParameterizedRouter<ReportingEvents>(AviatorSubscriber.class, ReportingEvents.consensusResult);
+
+	final AviatorParameterizedRouter<ReportingEvents> transactionCompletedRoutes =
+			new AviatorParameterizedRouter<ReportingEvents>(AviatorSubscriber.class, ReportingEvents.transactionComplete);
+
+	/**
+	 * Returns the table for a list of packages, scanning them if no node has yet
+	 */
+	static synchronized RoutingTable forPackages(List<String> packages) {
+		List<String> key = new ArrayList<String>(packages);
+		RoutingTable result = tables.get(key);
+		if (result == null) {
+			result = new RoutingTable(key);
+			tables.put(key, result);
+		}
+		return result;
+	}
+
+	private RoutingTable(List<String> packages) {
+		for (String pkg : packages) {
+			this.messageReceivedRoutes.addPackage(pkg);
+			this.executePreConsensusRoutes.addPackage(pkg);
+			this.executeConsensusRoutes.addPackage(pkg);
+			this.submittedRoutes.addPackage(pkg);
+			this.preConsensusResultRoutes.addPackage(pkg);
+			this.consensusResultRoutes.addPackage(pkg);
+			this.transactionCompletedRoutes.addPackage(pkg);
+		}
+	}
+}
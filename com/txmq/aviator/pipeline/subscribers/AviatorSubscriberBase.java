@@ -48,4 +48,18 @@ public class AviatorSubscriberBase<T> {
 			return null;
 		}
 	}
+	
+	/**
+	 * Returns the notification in the form the subscription asked for, either 
+	 * as-is or compacted so that it doesn't include the triggering message.
+	 * 
+	 * @see AviatorNotification#compact()
+	 */
+	protected AviatorNotification<?> prepareNotification(AviatorNotification<?> notification) {
+		AviatorSubscriberManager.Subscription subscription = this.subscriberManager.getSubscription(notification);
+		if (subscription != null && !subscription.includeTriggeringMessage && notification.triggeringMessage != null) {
+			return notification.compact();
+		} 
+		return notification;
+	}
 }
@@ -5,24 +5,66 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.ws.rs.core.MultivaluedHashMap;
 
+import com.txmq.aviator.config.model.NotificationsConfig;
 import com.txmq.aviator.core.PlatformLocator;
 import com.txmq.aviator.messaging.AviatorMessage;
 import com.txmq.aviator.messaging.AviatorNotification;
+import com.txmq.aviator.messaging.AviatorTransactionType;
 import com.txmq.aviator.pipeline.ReportingEvents;
 
 public class AviatorSubscriberManager {
 
-	private static Map<String, Map<ReportingEvents, Map<UUID, Object>>> responders;
+	private static Map<String, Map<ReportingEvents, Map<UUID, Subscription>>> responders;
 	private static Map<Object, List<ResponderLookup>> responderLookups;
 	
+	/**
+	 * Transaction types that a responder has ever been registered for.  Messages of 
+	 * other types can't have responders, so there's nothing to clean up after them.
+	 */
+	private static final Set<AviatorTransactionType> respondedTypes = 
+			Collections.newSetFromMap(new ConcurrentHashMap<AviatorTransactionType, Boolean>());
+	
+	/**
+	 * Whether subscriptions receive the full triggering message unless they say otherwise
+	 */
+	private static volatile boolean includeTriggeringMessage = true;
+	
+	/**
+	 * Applies the "notifications" section of aviator-config.json
+	 */
+	public static void configure(NotificationsConfig config) {
+		includeTriggeringMessage = config.includeTriggeringMessage;
+	}
+	
+	/**
+	 * A responder registered for an event on a message, and how it wants to be notified
+	 */
+	public static class Subscription {
+		public final Object responder;
+		
+		/**
+		 * When false, the responder should be sent compact notifications
+		 * 
+		 * @see AviatorNotification#compact()
+		 */
+		public final boolean includeTriggeringMessage;
+		
+		public Subscription(Object responder, boolean includeTriggeringMessage) {
+			this.responder = responder;
+			this.includeTriggeringMessage = includeTriggeringMessage;
+		}
+	}
+	
 	//TODO:  Should allow for more than one subscriber per message, per event?
 	public AviatorSubscriberManager() {
 		if (responders == null) {
-			responders = Collections.synchronizedMap(new HashMap<String, Map<ReportingEvents, Map<UUID, Object>>>());
+			responders = Collections.synchronizedMap(new HashMap<String, Map<ReportingEvents, Map<UUID, Subscription>>>());
 		}
 		
 		if (responderLookups == null) {
@@ -30,24 +72,24 @@ public class AviatorSubscriberManager {
 		}
 	}
 	
-	private Map<ReportingEvents, Map<UUID, Object>> getRespondersForNode(String nodeName) {
+	private Map<ReportingEvents, Map<UUID, Subscription>> getRespondersForNode(String nodeName) {
 		if (nodeName == null) {
 			nodeName = PlatformLocator.getState().getMyName();
 		}
 		
 		if (!responders.containsKey(nodeName)) {
-			Map<ReportingEvents, Map<UUID, Object>> nodeMap = Collections.synchronizedMap(
-					new HashMap<ReportingEvents, Map<UUID, Object>> ()
+			Map<ReportingEvents, Map<UUID, Subscription>> nodeMap = Collections.synchronizedMap(
+					new HashMap<ReportingEvents, Map<UUID, Subscription>> ()
 			);
 			
 			nodeMap.put(ReportingEvents.submitted, 
-						Collections.synchronizedMap(new HashMap<UUID, Object>()));
+						Collections.synchronizedMap(new HashMap<UUID, Subscription>()));
 			nodeMap.put(ReportingEvents.preConsensusResult, 
-						Collections.synchronizedMap(new HashMap<UUID, Object>()));
+						Collections.synchronizedMap(new HashMap<UUID, Subscription>()));
 			nodeMap.put(ReportingEvents.consensusResult, 
-						Collections.synchronizedMap(new HashMap<UUID, Object>()));
+						Collections.synchronizedMap(new HashMap<UUID, Subscription>()));
 			nodeMap.put(ReportingEvents.transactionComplete, 
-						Collections.synchronizedMap(new HashMap<UUID, Object>()));
+						Collections.synchronizedMap(new HashMap<UUID, Subscription>()));
 			
 			responders.put(nodeName, nodeMap);
 		}
@@ -55,7 +97,18 @@ public class AviatorSubscriberManager {
 		return responders.get(nodeName);
 	}
 	
-	public synchronized void registerResponder(AviatorMessage<?> message, ReportingEvents event, Object responderInstance) {	
+	public synchronized void registerResponder(AviatorMessage<?> message, ReportingEvents event, Object responderInstance) {
+		this.registerResponder(message, event, responderInstance, includeTriggeringMessage);
+	}
+	
+	/**
+	 * Registers a responder, choosing whether its notifications should include the 
+	 * full triggering message or only identify it.
+	 */
+	public synchronized void registerResponder(	AviatorMessage<?> message, 
+												ReportingEvents event, 
+												Object responderInstance, 
+												boolean includeTriggeringMessage) {	
 		String myName = null;
 		try {
 			myName = PlatformLocator.getState().getMyName();
@@ -63,40 +116,80 @@ public class AviatorSubscriberManager {
 			PlatformLocator.getPlatform().releaseState();
 		}
 		
-		getRespondersForNode(myName).get(event).put(message.uuid, responderInstance);
+		if (message.transactionType != null) {
+			respondedTypes.add(message.transactionType);
+		}
+		getRespondersForNode(myName).get(event).put(	message.getUuid(), 
+														new Subscription(responderInstance, includeTriggeringMessage));
 		
 		if (!responderLookups.containsKey(responderInstance)) {
 			responderLookups.put(responderInstance, new ArrayList<ResponderLookup>());
 		}
 		
-		responderLookups.get(responderInstance).add(new ResponderLookup(myName, event, message.uuid));
+		responderLookups.get(responderInstance).add(new ResponderLookup(myName, event, message.getUuid()));
 	}
 	
 	public synchronized void registerAllAvailableResponders(AviatorMessage<?> message, Object responderInstance) {
+		this.registerAllAvailableResponders(message, responderInstance, includeTriggeringMessage);
+	}
+	
+	public synchronized void registerAllAvailableResponders(	AviatorMessage<?> message, 
+																Object responderInstance, 
+																boolean includeTriggeringMessage) {
 		List<ReportingEvents> events = PlatformLocator
 				.getPipelineRouter()
 				.getRegisteredNotificationsForTransactionType(message.transactionType);
 		
 		for (ReportingEvents event : events) {
-			this.registerResponder(message, event, responderInstance);
+			this.registerResponder(message, event, responderInstance, includeTriggeringMessage);
 		}
 		
 	}
 	
 	public synchronized Object getResponder(AviatorNotification<?> notification) {
-		Map<UUID, Object> eventMap = getRespondersForNode(notification.nodeName).get(notification.event);
-		if (eventMap.containsKey(notification.triggeringMessage.uuid)) {
-			return eventMap.get(notification.triggeringMessage.uuid);
-		} else {
-			return null;
-		}
+		Subscription subscription = this.getSubscription(notification);
+		return (subscription != null) ? subscription.responder : null;
+	}
+	
+	public synchronized Subscription getSubscription(AviatorNotification<?> notification) {
+		Map<UUID, Subscription> eventMap = getRespondersForNode(notification.nodeName).get(notification.event);
+		return eventMap.get(notification.triggeringMessageId);
 	}
 	
 	public synchronized void removeResponder(AviatorNotification<?> notification) {
-		Map<UUID, Object> eventMap = getRespondersForNode(notification.nodeName).get(notification.event);
-		eventMap.remove(notification.triggeringMessage.uuid);
+		Map<UUID, Subscription> eventMap = getRespondersForNode(notification.nodeName).get(notification.event);
+		eventMap.remove(notification.triggeringMessageId);
 	}	
 	
+	/**
+	 * Returns false if no responder has been registered for any message of a transaction 
+	 * type, in which case a message of that type has no responders to remove.
+	 */
+	public static boolean mayHaveResponders(AviatorTransactionType transactionType) {
+		return transactionType != null && respondedTypes.contains(transactionType);
+	}
+	
+	/**
+	 * Removes the responder registered for an event on a message, if there is one.  
+	 * Used when the pipeline skips a notification because nothing subscribes to it.
+	 */
+	public synchronized void removeResponder(String nodeName, ReportingEvents event, UUID triggeringMessageId) {
+		Map<UUID, Subscription> eventMap = getRespondersForNode(nodeName).get(event);
+		if (!eventMap.isEmpty()) {
+			eventMap.remove(triggeringMessageId);
+		}
+	}
+	
+	/**
+	 * Removes every responder registered for a message, e.g. when it's turned away 
+	 * before it can raise any notifications.
+	 */
+	public synchronized void removeResponders(String nodeName, UUID triggeringMessageId) {
+		for (ReportingEvents event : ReportingEvents.values()) {
+			this.removeResponder(nodeName, event, triggeringMessageId);
+		}
+	}
+	
 	public synchronized void removeResponder(Object responder) {
 		if (responderLookups.containsKey(responder)) {
 			for (ResponderLookup lookup : responderLookups.get(responder)) {
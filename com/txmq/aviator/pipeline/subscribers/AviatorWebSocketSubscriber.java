@@ -9,13 +9,18 @@ import com.txmq.aviator.pipeline.PipelineStatus;
 
 public class AviatorWebSocketSubscriber extends AviatorSubscriberBase<WebSocket> {
 
+	/**
+	 * ObjectMappers are thread-safe once configured, and expensive to create
+	 */
+	private static final ObjectMapper mapper = new ObjectMapper();
+	
 	protected void sendNotification(AviatorNotification<?> notification) {
 		WebSocket ws = this.getResponder(notification);
 		if (ws == null) {
 			return;
 		}
 		
-		ObjectMapper mapper = new ObjectMapper();
+		notification = this.prepareNotification(notification);
 		String message = null;
 		try {
 			message = mapper.writeValueAsString(notification);
@@ -25,6 +30,7 @@ public class AviatorWebSocketSubscriber extends AviatorSubscriberBase<WebSocket>
 			err.status = PipelineStatus.ERROR;
 			err.transactionType = notification.transactionType;
 			err.triggeringMessage = notification.triggeringMessage;
+			err.triggeringMessageId = notification.triggeringMessageId;
 			err.payload = "An error occurred trying to serialize a notification to JSON";
 			
 			try { 
@@ -0,0 +1,213 @@
+package com.txmq.aviator.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executes a run of consensus-ordered transactions in parallel, with the same result
+ * as executing them one at a time in order.
+ *
+ * Every transaction is first executed speculatively, in parallel, against the state
+ * as it was before the run, with its VersionedMap reads recorded and its writes held
+ * back.  Nothing is committed until every speculative execution has finished, so they
+ * all see the same, unchanging state.  Transactions are then committed one at a time
+ * in consensus order.  A
+ * transaction whose reads still match the state left by the transactions committed
+ * before it saw exactly what it would have seen running in order, so its writes are
+ * applied as they are.  A transaction that read something an earlier transaction
+ * changed is executed again, directly against the state, since every transaction
+ * before it has been committed by then.  Transactions that don't touch the same data
+ * run in parallel, and the rest fall back to running in order.
+ *
+ * If the speculative executions haven't all finished within the timeout, the run is
+ * abandoned:  executions still going are stopped at their next read of the state, and
+ * every transaction that didn't finish is executed again in order.  A slow or stuck
+ * speculation can delay consensus by the timeout, but no longer.
+ *
+ * Transactions must only use the state through VersionedMaps, must not have side
+ * effects besides their writes to those maps and the result they return, and must
+ * be deterministic.  A speculative execution may see data that no execution in order
+ * would, and the exceptions that causes are discarded along with the execution.
+ *
+ * @see VersionedMap
+ */
+public class OptimisticExecutor {
+
+	/**
+	 * Receives the outcome of each transaction as it's committed, in consensus order
+	 */
+	public interface CommitListener {
+		/**
+		 * Called after the writes of the transaction at index have been applied.
+		 * Exactly one of result and error is meaningful; error is null if the
+		 * transaction completed normally.
+		 */
+		public void committed(int index, Object result, Exception error);
+	}
+
+	private final ForkJoinPool pool;
+	private final long timeoutMillis;
+
+	private long speculations = 0;
+	private long reexecutions = 0;
+	private long abandonedRuns = 0;
+
+	public OptimisticExecutor(ForkJoinPool pool, long timeoutMillis) {
+		this.pool = pool;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Outcome of one execution of a transaction
+	 */
+	private static class Attempt {
+		ReadWriteSet readWriteSet;
+		Object result;
+		Exception error;
+	}
+
+	/**
+	 * Executes transactions, reporting each outcome to the listener in order.  Called on
+	 * the thread that owns the state, which is blocked until every transaction has committed.
+	 */
+	public void execute(List<? extends Callable<?>> transactions, CommitListener listener) {
+		final ReadWriteSet.Run run = new ReadWriteSet.Run();
+		List<Future<Attempt>> speculative = new ArrayList<Future<Attempt>>(transactions.size());
+		for (final Callable<?> transaction : transactions) {
+			speculative.add(this.pool.submit(new Callable<Attempt>() {
+				@Override
+				public Attempt call() {
+					return speculate(transaction, run);
+				}
+			}));
+		}
+
+		//Every speculation has to be done reading the state before any commit changes it
+		boolean abandoned = !this.awaitAll(speculative);
+		if (abandoned) {
+			run.abandon();
+			for (Future<Attempt> future : speculative) {
+				future.cancel(true);
+			}
+		}
+
+		int reexecuted = 0;
+		for (int i = 0; i < transactions.size(); i++) {
+			Attempt attempt = this.resultOf(speculative.get(i));
+			if (attempt != null && !attempt.readWriteSet.isStopped() && attempt.readWriteSet.validate()) {
+				attempt.readWriteSet.commit();
+			} else {
+				//Everything before this transaction has been committed, so running it directly is running it in order
+				attempt = execute(transactions.get(i));
+				reexecuted++;
+			}
+			listener.committed(i, attempt.result, attempt.error);
+		}
+
+		synchronized (this) {
+			this.speculations += transactions.size();
+			this.reexecutions += reexecuted;
+			if (abandoned) {
+				this.abandonedRuns++;
+			}
+		}
+	}
+
+	private static Attempt speculate(Callable<?> transaction, ReadWriteSet.Run run) {
+		Attempt result = new Attempt();
+		result.readWriteSet = new ReadWriteSet(run);
+		ReadWriteSet.setCurrent(result.readWriteSet);
+		try {
+			result.result = transaction.call();
+		} catch (Exception e) {
+			result.error = e;
+		} finally {
+			ReadWriteSet.setCurrent(null);
+		}
+		return result;
+	}
+
+	private static Attempt execute(Callable<?> transaction) {
+		Attempt result = new Attempt();
+		try {
+			result.result = transaction.call();
+		} catch (Exception e) {
+			result.error = e;
+		}
+		return result;
+	}
+
+	/**
+	 * Waits up to the timeout for every speculative execution to finish, returning false if they didn't
+	 */
+	private boolean awaitAll(List<Future<Attempt>> speculative) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+		for (Future<Attempt> future : speculative) {
+			try {
+				future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				//Reported as a failed speculation when it's committed
+			} catch (TimeoutException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the outcome of a finished speculative execution, or null if 
+	 * it failed outright or was cancelled before it finished
+	 */
+	private Attempt resultOf(Future<Attempt> future) {
+		if (!future.isDone() || future.isCancelled()) {
+			return null;
+		}
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the number of transactions executed speculatively
+	 */
+	public synchronized long getSpeculations() {
+		return this.speculations;
+	}
+
+	/**
+	 * Returns the number of transactions that had to be executed again because of a conflict
+	 */
+	public synchronized long getReexecutions() {
+		return this.reexecutions;
+	}
+
+	/**
+	 * Tests if the calling thread is executing a transaction speculatively, 
+	 * rather than in order against the state itself
+	 */
+	public static boolean isSpeculating() {
+		return ReadWriteSet.current() != null;
+	}
+
+	/**
+	 * Returns the number of runs abandoned because their speculative executions took too long
+	 */
+	public synchronized long getAbandonedRuns() {
+		return this.abandonedRuns;
+	}
+}
@@ -0,0 +1,223 @@
+package com.txmq.aviator.state;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The VersionedMap reads and writes made by one speculative execution of a handler.
+ * Reads see the state as it was when speculation began, plus the execution's own
+ * writes.  Writes are held here until the execution is committed.
+ */
+class ReadWriteSet {
+
+	/**
+	 * Thrown into a speculative execution that reads the state after its run has been abandoned
+	 */
+	static class AbandonedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		AbandonedException() {
+			super("Speculative execution abandoned", null, false, false);
+		}
+	}
+
+	/**
+	 * The speculative executions of a run of transactions.  Nothing is committed to the
+	 * state until every execution has finished, unless the run is abandoned because one
+	 * is taking too long.  Executions still going then are stopped at their next read,
+	 * and the lock makes sure none is part way through a read when commits start.
+	 */
+	static final class Run {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private volatile boolean abandoned = false;
+
+		/**
+		 * Stops every execution in the run from reading the state again.  When this
+		 * returns, no execution is reading it, so it can be changed.
+		 */
+		void abandon() {
+			this.abandoned = true;
+			this.lock.writeLock().lock();
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private static final ThreadLocal<ReadWriteSet> current = new ThreadLocal<ReadWriteSet>();
+
+	/**
+	 * Stands in for "no value" in reads and writes, since maps can't hold nulls
+	 */
+	private static final Object ABSENT = new Object();
+
+	/**
+	 * Accesses to a single map
+	 */
+	private static class MapAccess {
+		final Map<Object, Object> reads = new HashMap<Object, Object>();
+		final Map<Object, Object> writes = new HashMap<Object, Object>();
+
+		/**
+		 * The map's modification count when the whole map was read, or -1 if it wasn't
+		 */
+		long modificationsRead = -1;
+	}
+
+	private final IdentityHashMap<VersionedMap<?, ?>, MapAccess> accesses = new IdentityHashMap<VersionedMap<?, ?>, MapAccess>();
+
+	private final Run run;
+
+	/**
+	 * Set if the execution tried to read the state after its run was abandoned, so
+	 * whatever it did afterwards, e.g. catching the exception, can't be trusted
+	 */
+	private boolean stopped = false;
+
+	ReadWriteSet(Run run) {
+		this.run = run;
+	}
+
+	static ReadWriteSet current() {
+		return current.get();
+	}
+
+	static void setCurrent(ReadWriteSet readWriteSet) {
+		if (readWriteSet != null) {
+			current.set(readWriteSet);
+		} else {
+			current.remove();
+		}
+	}
+
+	private MapAccess access(VersionedMap<?, ?> map) {
+		MapAccess result = this.accesses.get(map);
+		if (result == null) {
+			result = new MapAccess();
+			this.accesses.put(map, result);
+		}
+		return result;
+	}
+
+	Object get(VersionedMap<?, ?> map, Object key) {
+		MapAccess access = this.access(map);
+		Object written = access.writes.get(key);
+		if (written != null) {
+			return (written != ABSENT) ? written : null;
+		}
+
+		Object value;
+		Lock lock = this.lockState();
+		try {
+			value = map.baseGet(key);
+		} finally {
+			lock.unlock();
+		}
+
+		if (!access.reads.containsKey(key)) {
+			access.reads.put(key, (value != null) ? value : ABSENT);
+		}
+		return value;
+	}
+
+	/**
+	 * Records a write, or a removal if value is null, returning the previous value
+	 */
+	Object put(VersionedMap<?, ?> map, Object key, Object value) {
+		Object previous = this.get(map, key);
+		this.access(map).writes.put(key, (value != null) ? value : ABSENT);
+		return previous;
+	}
+
+	int size(VersionedMap<?, ?> map) {
+		return this.keySet(map).size();
+	}
+
+	Set<Object> keySet(VersionedMap<?, ?> map) {
+		MapAccess access = this.access(map);
+		Set<Object> result;
+		Lock lock = this.lockState();
+		try {
+			if (access.modificationsRead < 0) {
+				access.modificationsRead = map.baseModifications();
+			}
+			result = new HashSet<Object>(map.baseEntries().keySet());
+		} finally {
+			lock.unlock();
+		}
+
+		for (Map.Entry<Object, Object> write : access.writes.entrySet()) {
+			if (write.getValue() != ABSENT) {
+				result.add(write.getKey());
+			} else {
+				result.remove(write.getKey());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Takes the run's read lock before reading the state, stopping the execution
+	 * instead if the run has been abandoned
+	 */
+	private Lock lockState() {
+		Lock result = this.run.lock.readLock();
+		result.lock();
+		if (this.run.abandoned) {
+			result.unlock();
+			this.stopped = true;
+			throw new AbandonedException();
+		}
+		return result;
+	}
+
+	/**
+	 * Tests if the execution was stopped because its run was abandoned
+	 */
+	boolean isStopped() {
+		return this.stopped;
+	}
+
+	/**
+	 * Tests if everything this execution read is unchanged, i.e. if it would have read the same
+	 * values had it run after every transaction committed so far.  Values are compared by
+	 * identity, which is why VersionedMap values have to be immutable.
+	 */
+	boolean validate() {
+		for (Map.Entry<VersionedMap<?, ?>, MapAccess> entry : this.accesses.entrySet()) {
+			VersionedMap<?, ?> map = entry.getKey();
+			MapAccess access = entry.getValue();
+			if (access.modificationsRead >= 0 && access.modificationsRead != map.baseModifications()) {
+				return false;
+			}
+
+			for (Map.Entry<Object, Object> read : access.reads.entrySet()) {
+				Object value = map.baseGet(read.getKey());
+				if (value != ((read.getValue() != ABSENT) ? read.getValue() : null)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies this execution's writes to the maps
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void commit() {
+		for (Map.Entry<VersionedMap<?, ?>, MapAccess> entry : this.accesses.entrySet()) {
+			VersionedMap map = entry.getKey();
+			for (Map.Entry<Object, Object> write : entry.getValue().writes.entrySet()) {
+				if (write.getValue() != ABSENT) {
+					map.basePut(write.getKey(), write.getValue());
+				} else {
+					map.baseRemove(write.getKey());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.txmq.aviator.state;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map for keeping application data in the state, which allows consensus handlers
+ * that only use VersionedMaps to be executed speculatively in parallel.
+ *
+ * Used normally, a VersionedMap is a HashMap.  While OptimisticExecutor is executing
+ * a handler speculatively, reads are recorded and writes are held back, so that the
+ * executor can tell whether the handler saw the same data it would have seen running
+ * in consensus order, and apply its writes in that order.
+ *
+ * Values must be treated as immutable.  To change a value, put a new one; modifying
+ * a value in place can't be tracked and would be seen by speculative executions of
+ * other transactions.  Null keys and values aren't supported.
+ *
+ * Like the rest of the state, a VersionedMap is not thread-safe outside of the
+ * speculative execution managed by the framework.
+ *
+ * @see OptimisticExecutor
+ */
+public class VersionedMap<K, V> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final HashMap<K, V> entries;
+
+	/**
+	 * Number of changes made to the map, used to validate speculative reads of the whole map
+	 */
+	private transient long modifications = 0;
+
+	public VersionedMap() {
+		this.entries = new HashMap<K, V>();
+	}
+
+	/**
+	 * Copy constructor, for use in the state's copyFrom().  Values are shared, not copied.
+	 */
+	public VersionedMap(VersionedMap<K, V> other) {
+		this.entries = new HashMap<K, V>(other.entries);
+	}
+
+	public VersionedMap<K, V> copy() {
+		return new VersionedMap<K, V>(this);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(K key) {
+		ReadWriteSet speculation = ReadWriteSet.current();
+		return (speculation != null) ? (V) speculation.get(this, key) : this.entries.get(key);
+	}
+
+	public boolean containsKey(K key) {
+		return this.get(key) != null;
+	}
+
+	/**
+	 * Associates a value with a key, returning the key's previous value
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(K key, V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("VersionedMap does not support null keys or values");
+		}
+
+		ReadWriteSet speculation = ReadWriteSet.current();
+		if (speculation != null) {
+			return (V) speculation.put(this, key, value);
+		}
+		return this.basePut(key, value);
+	}
+
+	/**
+	 * Removes a key, returning its previous value
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(K key) {
+		ReadWriteSet speculation = ReadWriteSet.current();
+		if (speculation != null) {
+			return (V) speculation.put(this, key, null);
+		}
+		return this.baseRemove(key);
+	}
+
+	/**
+	 * Returns the number of entries.  While executing speculatively, this depends on
+	 * every entry in the map, so the handler conflicts with any transaction before it
+	 * that changes the map.
+	 */
+	public int size() {
+		ReadWriteSet speculation = ReadWriteSet.current();
+		return (speculation != null) ? speculation.size(this) : this.entries.size();
+	}
+
+	public boolean isEmpty() {
+		return this.size() == 0;
+	}
+
+	/**
+	 * Returns a snapshot of the keys.  Like size(), reading every key while executing
+	 * speculatively conflicts with any earlier transaction that changes the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<K> keySet() {
+		ReadWriteSet speculation = ReadWriteSet.current();
+		if (speculation != null) {
+			return Collections.unmodifiableSet((Set<K>) speculation.keySet(this));
+		}
+		return Collections.unmodifiableSet(new HashSet<K>(this.entries.keySet()));
+	}
+
+	/*
+	 * Direct access to the underlying entries, used by ReadWriteSet
+	 */
+
+	V baseGet(Object key) {
+		return this.entries.get(key);
+	}
+
+	V basePut(K key, V value) {
+		this.modifications++;
+		return this.entries.put(key, value);
+	}
+
+	V baseRemove(Object key) {
+		V result = this.entries.remove(key);
+		if (result != null) {
+			this.modifications++;
+		}
+		return result;
+	}
+
+	Map<K, V> baseEntries() {
+		return this.entries;
+	}
+
+	long baseModifications() {
+		return this.modifications;
+	}
+}
@@ -4,14 +4,13 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-import org.reflections.Reflections;
-import org.reflections.scanners.MethodAnnotationsScanner;
-
 import com.txmq.aviator.messaging.AviatorTransactionType;
+import com.txmq.aviator.util.index.AnnotationIndex;
 
 /**
  * ExoTransactionRouter implements an annotation-based transaction routing 
@@ -42,9 +41,11 @@ import com.txmq.aviator.messaging.AviatorTransactionType;
 public abstract class AviatorRouter<T extends Annotation> {
 	
 	/**
-	 * Map of transaction type values to the methods that handle them.
+	 * Methods that handle each transaction type, indexed by the type's ordinal.
+	 * 
+	 * @see AviatorTransactionType#getOrdinal()
 	 */
-	protected Map<AviatorTransactionType, Method> transactionMap;
+	protected HandlerInvoker[] handlers;
 
 	/**
 	 * Methods have to be invoked on an instance of an object (unless
@@ -70,7 +71,7 @@ public abstract class AviatorRouter<T extends Annotation> {
 	 */
 	@SuppressWarnings("unchecked")
 	public AviatorRouter() {
-		this.transactionMap = new HashMap<AviatorTransactionType, Method>();
+		this.handlers = new HandlerInvoker[0];
 		this.transactionProcessors = new HashMap<Class<?>, Object>(); 		
 		this.annotationType = ((Class<? extends Annotation>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0]);
 	}
@@ -81,9 +82,7 @@ public abstract class AviatorRouter<T extends Annotation> {
 	 * internal mapping of transaction type to processing method.
 	 */
 	public AviatorRouter<T> addPackage(String transactionPackage) {
-		Reflections reflections = new Reflections(transactionPackage, new MethodAnnotationsScanner());			
-		
-		Set<Method> methods = reflections.getMethodsAnnotatedWith(this.annotationType);
+		Set<Method> methods = AnnotationIndex.getMethodsAnnotatedWith(this.annotationType, transactionPackage);
 		for (Method method : methods) {
 			@SuppressWarnings("unchecked")
 			T methodAnnotation = (T) method.getAnnotation(this.annotationType);
@@ -91,11 +90,14 @@ public abstract class AviatorRouter<T extends Annotation> {
 			try {
 				namespaceMethod = this.annotationType.getMethod("namespace", (Class<?>[]) null);
 				valueMethod = this.annotationType.getMethod("value", (Class<?>[]) null);
-				AviatorTransactionType transactionType = new AviatorTransactionType(
+				AviatorTransactionType transactionType = AviatorTransactionType.register(
 					(String) namespaceMethod.invoke(methodAnnotation),
 					(String) valueMethod.invoke(methodAnnotation)
 				);
-				this.transactionMap.put(transactionType, method);
+				if (transactionType.getOrdinal() >= this.handlers.length) {
+					this.handlers = Arrays.copyOf(this.handlers, transactionType.getOrdinal() + 1);
+				}
+				this.handlers[transactionType.getOrdinal()] = HandlerInvoker.forMethod(method);
 			} catch (Exception e) {
 				e.printStackTrace();
 				throw new IllegalArgumentException(
@@ -109,16 +111,21 @@ public abstract class AviatorRouter<T extends Annotation> {
 	}
 	
 	protected Object invokeHandler(AviatorTransactionType key, Object... args) throws ReflectiveOperationException {
-		if (this.transactionMap.containsKey(key)) {
-			Method method = this.transactionMap.get(key);
-			Class<?> processorClass = method.getDeclaringClass();			
-			if (!this.transactionProcessors.containsKey(processorClass)) {
-				Constructor<?> processorConstructor = processorClass.getConstructor();
-				this.transactionProcessors.put(processorClass, processorConstructor.newInstance());				
+		int ordinal = AviatorTransactionType.ordinalOf(key);
+		HandlerInvoker invoker = (ordinal >= 0 && ordinal < this.handlers.length) ? this.handlers[ordinal] : null;
+		if (invoker != null) {
+			if (invoker.getProcessor() == null && !invoker.isStatic()) {
+				Class<?> processorClass = invoker.getMethod().getDeclaringClass();
+				Object processor = this.transactionProcessors.get(processorClass);
+				if (processor == null) {
+					Constructor<?> processorConstructor = processorClass.getConstructor();
+					processor = processorConstructor.newInstance();
+					this.transactionProcessors.put(processorClass, processor);
+				}
+				invoker.setProcessor(processor);
 			}
 			
-			Object transactionProcessor = this.transactionProcessors.get(processorClass);
-			return method.invoke(transactionProcessor, args);
+			return invoker.invoke(args);
 		} else {
 			throw new IllegalArgumentException(
 					"A handler for route type " + key + 
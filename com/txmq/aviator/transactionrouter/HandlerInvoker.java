@@ -0,0 +1,250 @@
+package com.txmq.aviator.transactionrouter;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * Calls a transaction handler without going through Method.invoke().  Invokers are
+ * built once, when a router registers the handler, and are shared by the pipeline
+ * routers of every node in the JVM and the socket message router.
+ *
+ * Public instance methods with up to two parameters, which covers the handler
+ * signatures the framework documents, are compiled with LambdaMetafactory into a
+ * class that calls the handler directly.  Anything else is called through a
+ * MethodHandle.  Either way, how the router's arguments map onto the handler's
+ * parameters is worked out when the invoker is built, not on every call.
+ *
+ * Exceptions thrown by the handler are wrapped in InvocationTargetException,
+ * the same as Method.invoke() does, so callers handle errors as before.
+ */
+public abstract class HandlerInvoker {
+
+	/*
+	 * Shapes LambdaMetafactory implements for handlers, one per parameter count
+	 * and return kind.  The processor the handler is called on comes first.
+	 */
+	interface Call0 { Object call(Object processor) throws Throwable; }
+	interface Call1 { Object call(Object processor, Object arg0) throws Throwable; }
+	interface Call2 { Object call(Object processor, Object arg0, Object arg1) throws Throwable; }
+	interface Run0 { void call(Object processor) throws Throwable; }
+	interface Run1 { void call(Object processor, Object arg0) throws Throwable; }
+	interface Run2 { void call(Object processor, Object arg0, Object arg1) throws Throwable; }
+
+	private static final Class<?>[] CALL_SHAPES = { Call0.class, Call1.class, Call2.class };
+	private static final Class<?>[] RUN_SHAPES = { Run0.class, Run1.class, Run2.class };
+
+	protected final Method method;
+
+	protected final int parameterCount;
+
+	/**
+	 * Instance of the handler's class invoke() calls it on.  The router creates 
+	 * it the first time the handler is called.  Null for static handlers, and 
+	 * for invokers shared by routers that call invokeOn() instead.
+	 */
+	private Object processor;
+
+	protected HandlerInvoker(Method method) {
+		this.method = method;
+		this.parameterCount = method.getParameterCount();
+	}
+
+	/**
+	 * Builds an invoker for a handler method.
+	 */
+	public static HandlerInvoker forMethod(Method method) {
+		HandlerInvoker result = LambdaInvoker.create(method);
+		if (result == null) {
+			result = new MethodHandleInvoker(method);
+		}
+		return result;
+	}
+
+	public Method getMethod() {
+		return this.method;
+	}
+
+	public boolean isStatic() {
+		return Modifier.isStatic(this.method.getModifiers());
+	}
+
+	public Object getProcessor() {
+		return this.processor;
+	}
+
+	public void setProcessor(Object processor) {
+		this.processor = processor;
+	}
+
+	/**
+	 * Calls the handler on its processor with as many of the supplied arguments as it
+	 * declares parameters.  Extra arguments are ignored, as routers have always done.
+	 */
+	public Object invoke(Object... args) throws InvocationTargetException {
+		return this.invokeOn(this.processor, args);
+	}
+
+	/**
+	 * Calls the handler on the supplied processor.  Invokers don't change once built, 
+	 * so routers that keep processors themselves can share them.
+	 */
+	public Object invokeOn(Object processor, Object... args) throws InvocationTargetException {
+		if (args.length < this.parameterCount) {
+			throw new IllegalArgumentException(
+				this.method + " expects " + this.parameterCount + " arguments but was passed " + args.length
+			);
+		}
+
+		try {
+			return this.call(processor, args);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	protected abstract Object call(Object processor, Object[] args) throws Throwable;
+
+	/**
+	 * Calls the handler through a class generated by LambdaMetafactory
+	 */
+	private static class LambdaInvoker extends HandlerInvoker {
+		private final Object function;
+		private final boolean returnsValue;
+
+		private LambdaInvoker(Method method, Object function) {
+			super(method);
+			this.function = function;
+			this.returnsValue = method.getReturnType() != void.class;
+		}
+
+		/**
+		 * Returns null if the method can't be compiled this way
+		 */
+		private static LambdaInvoker create(Method method) {
+			int parameterCount = method.getParameterCount();
+			if (	parameterCount >= CALL_SHAPES.length ||
+					Modifier.isStatic(method.getModifiers()) ||
+					!Modifier.isPublic(method.getModifiers()) ||
+					!Modifier.isPublic(method.getDeclaringClass().getModifiers()) ||
+					!isVisible(method.getDeclaringClass())) {
+				return null;
+			}
+
+			for (Class<?> parameterType : method.getParameterTypes()) {
+				if (!isVisible(parameterType)) {
+					return null;
+				}
+			}
+
+			boolean returnsValue = method.getReturnType() != void.class;
+			Class<?> shape = (returnsValue) ? CALL_SHAPES[parameterCount] : RUN_SHAPES[parameterCount];
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				MethodHandle implementation = lookup.unreflect(method);
+				MethodType erased = MethodType.genericMethodType(parameterCount + 1);
+				if (!returnsValue) {
+					erased = erased.changeReturnType(void.class);
+				}
+
+				CallSite site = LambdaMetafactory.metafactory(
+					lookup,
+					"call",
+					MethodType.methodType(shape),
+					erased,
+					implementation,
+					implementation.type().wrap().changeReturnType(erased.returnType())
+				);
+				return new LambdaInvoker(method, site.getTarget().invoke());
+			} catch (Throwable t) {
+				return null;
+			}
+		}
+
+		/**
+		 * The generated class links against the handler's types from this
+		 * class's loader, so they have to be visible from it.
+		 */
+		private static boolean isVisible(Class<?> type) {
+			while (type.isArray()) {
+				type = type.getComponentType();
+			}
+
+			if (type.isPrimitive()) {
+				return true;
+			}
+
+			try {
+				return Class.forName(type.getName(), false, HandlerInvoker.class.getClassLoader()) == type;
+			} catch (ClassNotFoundException e) {
+				return false;
+			}
+		}
+
+		@Override
+		protected Object call(Object processor, Object[] args) throws Throwable {
+			if (this.returnsValue) {
+				switch (this.parameterCount) {
+					case 0:
+						return ((Call0) this.function).call(processor);
+					case 1:
+						return ((Call1) this.function).call(processor, args[0]);
+					default:
+						return ((Call2) this.function).call(processor, args[0], args[1]);
+				}
+			} else {
+				switch (this.parameterCount) {
+					case 0:
+						((Run0) this.function).call(processor);
+						break;
+					case 1:
+						((Run1) this.function).call(processor, args[0]);
+						break;
+					default:
+						((Run2) this.function).call(processor, args[0], args[1]);
+						break;
+				}
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Calls the handler through a MethodHandle, for handlers LambdaMetafactory can't compile
+	 */
+	private static class MethodHandleInvoker extends HandlerInvoker {
+		private final MethodHandle handle;
+
+		private MethodHandleInvoker(Method method) {
+			super(method);
+			try {
+				method.setAccessible(true);
+				MethodHandle handle = MethodHandles.lookup().unreflect(method);
+				if (Modifier.isStatic(method.getModifiers())) {
+					handle = MethodHandles.dropArguments(handle, 0, Object.class);
+				}
+
+				//(Object processor, Object[] args) -> Object, with void returning null
+				this.handle = handle
+						.asType(MethodType.genericMethodType(this.parameterCount + 1))
+						.asSpreader(Object[].class, this.parameterCount);
+			} catch (IllegalAccessException | RuntimeException e) {
+				throw new IllegalArgumentException("Unable to create an invoker for " + method, e);
+			}
+		}
+
+		@Override
+		protected Object call(Object processor, Object[] args) throws Throwable {
+			if (args.length != this.parameterCount) {
+				args = Arrays.copyOf(args, this.parameterCount);
+			}
+			return this.handle.invokeExact(processor, args);
+		}
+	}
+}
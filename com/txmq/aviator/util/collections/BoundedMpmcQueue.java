@@ -0,0 +1,111 @@
+package com.txmq.aviator.util.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for any number of producers and consumers,
+ * after Dmitry Vyukov's bounded MPMC queue.  Each slot in the ring carries
+ * a sequence number that tells producers and consumers whether it's their
+ * turn to use the slot, so offer() and poll() each cost a single CAS and
+ * never block or allocate.
+ *
+ * offer() returns false instead of waiting when the queue is full.  Callers
+ * decide what to do with the element that didn't fit.
+ */
+public class BoundedMpmcQueue<E> {
+
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong enqueuePosition = new AtomicLong();
+	private final AtomicLong dequeuePosition = new AtomicLong();
+
+	/**
+	 * Creates a queue that holds at least capacity elements.
+	 * Capacity is rounded up to a power of two.
+	 */
+	public BoundedMpmcQueue(int capacity) {
+		if (capacity < 2) {
+			capacity = 2;
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = size - 1;
+		this.elements = new AtomicReferenceArray<E>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			this.sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Adds an element to the queue, returning false if the queue is full
+	 */
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new NullPointerException();
+		}
+
+		long position = this.enqueuePosition.get();
+		for (;;) {
+			int slot = (int) position & this.mask;
+			long difference = this.sequences.get(slot) - position;
+			if (difference == 0) {
+				if (this.enqueuePosition.compareAndSet(position, position + 1)) {
+					this.elements.lazySet(slot, element);
+					this.sequences.set(slot, position + 1);
+					return true;
+				}
+				position = this.enqueuePosition.get();
+			} else if (difference < 0) {
+				//The consumer hasn't freed this slot from the last lap yet
+				return false;
+			} else {
+				position = this.enqueuePosition.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes and returns the element at the head of the queue, or null if it's empty
+	 */
+	public E poll() {
+		long position = this.dequeuePosition.get();
+		for (;;) {
+			int slot = (int) position & this.mask;
+			long difference = this.sequences.get(slot) - (position + 1);
+			if (difference == 0) {
+				if (this.dequeuePosition.compareAndSet(position, position + 1)) {
+					E element = this.elements.get(slot);
+					this.elements.lazySet(slot, null);
+					this.sequences.set(slot, position + this.mask + 1);
+					return element;
+				}
+				position = this.dequeuePosition.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				position = this.dequeuePosition.get();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the queue.  The count is only a
+	 * snapshot while other threads are using the queue.
+	 */
+	public int size() {
+		long size = this.enqueuePosition.get() - this.dequeuePosition.get();
+		return (int) Math.max(0, Math.min(size, this.mask + 1));
+	}
+
+	public boolean isEmpty() {
+		return this.size() == 0;
+	}
+
+	public int capacity() {
+		return this.mask + 1;
+	}
+}
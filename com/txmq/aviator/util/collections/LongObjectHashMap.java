@@ -0,0 +1,101 @@
+package com.txmq.aviator.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed hash map from long keys to objects.  Lookups don't box
+ * or allocate, which matters on paths that run once per transaction.
+ *
+ * Not thread-safe.  Maps that are read concurrently should be built up front,
+ * or replaced with an updated copy() rather than modified in place.
+ */
+public class LongObjectHashMap<V> {
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	public LongObjectHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+	}
+
+	/**
+	 * Returns the value for a key, or null if the key isn't in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int mask = this.keys.length - 1;
+		for (int slot = slot(key, mask); this.values[slot] != null; slot = (slot + 1) & mask) {
+			if (this.keys[slot] == key) {
+				return (V) this.values[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Associates a value with a key.  Null values aren't supported.
+	 */
+	public void put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("LongObjectHashMap does not support null values");
+		}
+
+		if (this.size + 1 > this.keys.length * LOAD_FACTOR) {
+			this.resize(this.keys.length << 1);
+		}
+
+		int mask = this.keys.length - 1;
+		int slot = slot(key, mask);
+		while (this.values[slot] != null && this.keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		if (this.values[slot] == null) {
+			this.keys[slot] = key;
+			this.size++;
+		}
+		this.values[slot] = value;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public LongObjectHashMap<V> copy() {
+		LongObjectHashMap<V> result = new LongObjectHashMap<V>(0);
+		result.keys = Arrays.copyOf(this.keys, this.keys.length);
+		result.values = Arrays.copyOf(this.values, this.values.length);
+		result.size = this.size;
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void resize(int capacity) {
+		long[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				this.put(oldKeys[i], (V) oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Spreads the key's bits so that keys built from two packed ints distribute evenly
+	 */
+	private static int slot(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+}
@@ -0,0 +1,283 @@
+package com.txmq.aviator.util.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.reflections.Reflections;
+import org.reflections.scanners.MethodAnnotationsScanner;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+
+import com.txmq.aviator.config.AviatorConfiguration;
+import com.txmq.aviator.logging.AviatorLogManager;
+import com.txmq.aviator.logging.AviatorLogger;
+import com.txmq.aviator.messaging.annotations.TransactionTypes;
+import com.txmq.aviator.messaging.socket.ExoMessageHandler;
+import com.txmq.aviator.pipeline.metadata.AviatorHandler;
+import com.txmq.aviator.pipeline.metadata.AviatorSubscriber;
+
+/**
+ * Finds the classes and methods carrying the framework's annotations.  Classpath
+ * scanning with Reflections is slow on large applications, so when code is compiled
+ * with the framework on its classpath, AnnotationIndexProcessor records annotated
+ * classes and methods in an index under META-INF/aviator/index/.
+ *
+ * Classpath roots (directories or jars) that contain an index are read from it.  Roots
+ * that don't are scanned as before, and each scan is done once and shared, rather than
+ * once per router.  Setting the system property aviator.annotationIndex=false ignores
+ * indexes and scans everything.
+ *
+ * @see AnnotationIndexProcessor
+ */
+public class AnnotationIndex {
+
+	private static final AviatorLogger logger = AviatorLogManager.getLogger("core");
+
+	/**
+	 * Location of the index files within a classpath root
+	 */
+	public static final String INDEX_PATH = "META-INF/aviator/index/";
+
+	/**
+	 * Annotations recorded in the index
+	 */
+	public static final Set<String> INDEXED_ANNOTATIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+		TransactionTypes.class.getName(),
+		AviatorConfiguration.class.getName(),
+		AviatorHandler.class.getName(),
+		AviatorSubscriber.class.getName(),
+		ExoMessageHandler.class.getName()
+	)));
+
+	/**
+	 * Package containing framework classes.  Type annotations are found by
+	 * scanning every classpath root that contains this package.
+	 */
+	private static final String FRAMEWORK_PACKAGE = "com.txmq";
+
+	/**
+	 * Index entries by annotation name, read the first time each is needed
+	 */
+	private static Map<String, List<String>> indexEntries = new HashMap<String, List<String>>();
+
+	/**
+	 * Classpath roots that contain an index, in the form returned by ClasspathHelper
+	 */
+	private static Set<String> indexedRoots = null;
+
+	/**
+	 * Scans of roots without an index.  Types are scanned once;  methods once per package.
+	 */
+	private static Reflections typeScan = null;
+	private static Map<String, Reflections> methodScans = new HashMap<String, Reflections>();
+
+	/**
+	 * Returns the classes annotated with a type annotation, e.g. @TransactionTypes
+	 */
+	public static synchronized Set<Class<?>> getTypesAnnotatedWith(Class<? extends Annotation> annotationType) {
+		Set<Class<?>> result = new LinkedHashSet<Class<?>>();
+		for (String entry : getIndexEntries(annotationType)) {
+			Class<?> indexedClass = loadClass(entry);
+			if (indexedClass != null && indexedClass.isAnnotationPresent(annotationType)) {
+				result.add(indexedClass);
+			}
+		}
+
+		if (typeScan == null) {
+			Collection<URL> urls = getUnindexedUrls(FRAMEWORK_PACKAGE);
+			if (!urls.isEmpty()) {
+				typeScan = new Reflections(new ConfigurationBuilder().addUrls(urls));
+			}
+		}
+
+		if (typeScan != null) {
+			result.addAll(typeScan.getTypesAnnotatedWith(annotationType));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the methods within a package annotated with a method annotation, e.g. @AviatorHandler
+	 */
+	public static synchronized Set<Method> getMethodsAnnotatedWith(Class<? extends Annotation> annotationType, String pkg) {
+		Set<Method> result = new LinkedHashSet<Method>();
+		for (String entry : getIndexEntries(annotationType)) {
+			int methodStart = entry.indexOf('#');
+			if (methodStart < 0 || !entry.startsWith(pkg + ".")) {
+				continue;
+			}
+
+			Class<?> indexedClass = loadClass(entry.substring(0, methodStart));
+			if (indexedClass != null) {
+				Method method = findMethod(indexedClass, entry.substring(methodStart + 1));
+				if (method != null && method.isAnnotationPresent(annotationType)) {
+					result.add(method);
+				}
+			}
+		}
+
+		Reflections methodScan = methodScans.get(pkg);
+		if (methodScan == null && !methodScans.containsKey(pkg)) {
+			Collection<URL> urls = getUnindexedUrls(pkg);
+			if (!urls.isEmpty()) {
+				methodScan = new Reflections(new ConfigurationBuilder()
+						.addUrls(urls)
+						.filterInputsBy(new FilterBuilder().includePackage(pkg))
+						.setScanners(new MethodAnnotationsScanner()));
+			}
+			methodScans.put(pkg, methodScan);
+		}
+
+		if (methodScan != null) {
+			result.addAll(methodScan.getMethodsAnnotatedWith(annotationType));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the classpath roots containing a package that don't have an index
+	 */
+	private static Collection<URL> getUnindexedUrls(String pkg) {
+		List<URL> result = new ArrayList<URL>();
+		for (URL url : ClasspathHelper.forPackage(pkg)) {
+			if (!getIndexedRoots().contains(url.toExternalForm())) {
+				result.add(url);
+			}
+		}
+		return result;
+	}
+
+	private static Set<String> getIndexedRoots() {
+		if (indexedRoots == null) {
+			indexedRoots = new HashSet<String>();
+			if (!"false".equals(System.getProperty("aviator.annotationIndex"))) {
+				//The processor writes every index file, so any one of them identifies an indexed root
+				for (String annotationName : INDEXED_ANNOTATIONS) {
+					for (URL resource : getResources(INDEX_PATH + annotationName)) {
+						indexedRoots.add(toRoot(resource, INDEX_PATH + annotationName));
+					}
+				}
+			}
+		}
+		return indexedRoots;
+	}
+
+	/**
+	 * Converts the URL of a resource into the URL of the classpath root
+	 * containing it, in the same form ClasspathHelper reports roots.
+	 */
+	private static String toRoot(URL resource, String path) {
+		String result = resource.toExternalForm();
+		result = result.substring(0, result.length() - path.length());
+		if (result.startsWith("jar:") && result.endsWith("!/")) {
+			result = result.substring("jar:".length(), result.length() - "!/".length());
+		}
+		return result;
+	}
+
+	private static List<String> getIndexEntries(Class<? extends Annotation> annotationType) {
+		List<String> result = indexEntries.get(annotationType.getName());
+		if (result != null) {
+			return result;
+		}
+
+		result = new ArrayList<String>();
+		if (!getIndexedRoots().isEmpty()) {
+			for (URL resource : getResources(INDEX_PATH + annotationType.getName())) {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8));
+					try {
+						String line;
+						while ((line = reader.readLine()) != null) {
+							if (!line.trim().isEmpty()) {
+								result.add(line.trim());
+							}
+						}
+					} finally {
+						reader.close();
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException("Unable to read annotation index " + resource, e);
+				}
+			}
+		}
+
+		indexEntries.put(annotationType.getName(), result);
+		return result;
+	}
+
+	private static List<URL> getResources(String path) {
+		try {
+			return Collections.list(getClassLoader().getResources(path));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to locate annotation index " + path, e);
+		}
+	}
+
+	/**
+	 * Loads an indexed class.  Entries for classes that have since been
+	 * removed are left behind by incremental builds, and are skipped.
+	 */
+	private static Class<?> loadClass(String className) {
+		try {
+			return Class.forName(className, false, getClassLoader());
+		} catch (ClassNotFoundException e) {
+			logger.warn("Skipping stale annotation index entry for {}", className);
+			return null;
+		}
+	}
+
+	/**
+	 * Finds a method from its index description, e.g. handle(com.mycompany.Payload,int[])
+	 */
+	private static Method findMethod(Class<?> declaringClass, String description) {
+		int parametersStart = description.indexOf('(');
+		String name = description.substring(0, parametersStart);
+		String parameters = description.substring(parametersStart + 1, description.length() - 1);
+
+		for (Method method : declaringClass.getDeclaredMethods()) {
+			if (method.getName().equals(name) && describeParameters(method).equals(parameters)) {
+				return method;
+			}
+		}
+
+		logger.warn("Skipping stale annotation index entry for {}#{}", declaringClass.getName(), description);
+		return null;
+	}
+
+	private static String describeParameters(Method method) {
+		StringBuilder result = new StringBuilder();
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				result.append(',');
+			}
+			result.append(parameterTypes[i].getCanonicalName());
+		}
+		return result.toString();
+	}
+
+	private static ClassLoader getClassLoader() {
+		ClassLoader result = Thread.currentThread().getContextClassLoader();
+		return (result != null) ? result : AnnotationIndex.class.getClassLoader();
+	}
+}
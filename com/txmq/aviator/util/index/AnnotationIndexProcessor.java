@@ -0,0 +1,150 @@
+package com.txmq.aviator.util.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes the index read by AnnotationIndex.  It runs
+ * automatically when an application is compiled with the framework on its classpath,
+ * and records every class and method carrying one of the framework's annotations
+ * under META-INF/aviator/index/, one file per annotation.
+ *
+ * Classes are recorded by binary name.  Methods are recorded as
+ * class#method(parameter types), using the erasure of each parameter type.
+ *
+ * @see AnnotationIndex
+ */
+public class AnnotationIndexProcessor extends AbstractProcessor {
+
+	/**
+	 * Entries found in this compilation, by annotation name
+	 */
+	private final Map<String, Set<String>> entries = new HashMap<String, Set<String>>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return new TreeSet<String>(AnnotationIndex.INDEXED_ANNOTATIONS);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (TypeElement annotation : annotations) {
+			String annotationName = annotation.getQualifiedName().toString();
+			Set<String> annotationEntries = this.entries.get(annotationName);
+			if (annotationEntries == null) {
+				annotationEntries = new TreeSet<String>();
+				this.entries.put(annotationName, annotationEntries);
+			}
+
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() == ElementKind.METHOD) {
+					annotationEntries.add(this.describeMethod((ExecutableElement) element));
+				} else if (element.getKind().isClass() || element.getKind().isInterface()) {
+					annotationEntries.add(this.binaryName((TypeElement) element));
+				}
+			}
+		}
+
+		if (roundEnv.processingOver()) {
+			//Every index file is written, even if empty, since their presence 
+			//tells AnnotationIndex not to scan this part of the classpath.
+			for (String annotationName : AnnotationIndex.INDEXED_ANNOTATIONS) {
+				Set<String> annotationEntries = this.entries.get(annotationName);
+				this.writeIndex(annotationName, (annotationEntries != null) ? annotationEntries : new TreeSet<String>());
+			}
+		}
+
+		//Other processors are free to handle these annotations too
+		return false;
+	}
+
+	private String describeMethod(ExecutableElement method) {
+		StringBuilder result = new StringBuilder();
+		result.append(this.binaryName((TypeElement) method.getEnclosingElement()));
+		result.append('#');
+		result.append(method.getSimpleName());
+		result.append('(');
+		boolean first = true;
+		for (VariableElement parameter : method.getParameters()) {
+			if (!first) {
+				result.append(',');
+			}
+			result.append(this.processingEnv.getTypeUtils().erasure(parameter.asType()).toString());
+			first = false;
+		}
+		result.append(')');
+		return result.toString();
+	}
+
+	private String binaryName(TypeElement type) {
+		return this.processingEnv.getElementUtils().getBinaryName(type).toString();
+	}
+
+	/**
+	 * Writes an annotation's index file.  Entries already in the file from a previous
+	 * compilation are kept, so incremental builds don't lose classes that weren't
+	 * recompiled.  AnnotationIndex skips entries that no longer resolve.
+	 */
+	private void writeIndex(String annotationName, Set<String> annotationEntries) {
+		String path = AnnotationIndex.INDEX_PATH + annotationName;
+		try {
+			FileObject existing = this.processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", path);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.trim().isEmpty()) {
+						annotationEntries.add(line.trim());
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			//No previous index, which is the usual case
+		}
+
+		try {
+			FileObject index = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path);
+			Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8);
+			try {
+				for (String entry : annotationEntries) {
+					writer.write(entry);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			this.processingEnv.getMessager().printMessage(
+				Diagnostic.Kind.WARNING,
+				"Unable to write annotation index " + path + ":  " + e.getMessage()
+			);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.txmq.aviator.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that executing transactions with OptimisticExecutor leaves the state, and 
+ * reports the results, exactly as executing them one at a time in order would.
+ */
+public class OptimisticExecutorTest {
+
+	private static final int ACCOUNTS = 20;
+
+	private final ForkJoinPool pool = new ForkJoinPool(8);
+
+	@After
+	public void shutdown() {
+		this.pool.shutdownNow();
+	}
+
+	/**
+	 * One of a handful of banking transactions, chosen up front so the 
+	 * same sequence can be run against different copies of the state
+	 */
+	private static class Operation {
+		final int kind;
+		final String from;
+		final String to;
+		final long amount;
+
+		Operation(Random random) {
+			this.kind = random.nextInt(10);
+			this.from = "account" + random.nextInt(ACCOUNTS);
+			this.to = "account" + random.nextInt(ACCOUNTS);
+			this.amount = random.nextInt(50);
+		}
+
+		Callable<Object> on(final VersionedMap<String, Long> accounts) {
+			return new Callable<Object>() {
+				@Override
+				public Object call() {
+					switch (kind) {
+						case 0:
+							//Audit every account, which conflicts with any earlier change
+							long total = 0;
+							for (String account : accounts.keySet()) {
+								total += accounts.get(account);
+							}
+							return total;
+						case 1:
+							if (!accounts.containsKey(from)) {
+								accounts.put(from, amount);
+							}
+							return accounts.size();
+						case 2:
+							Long closing = accounts.get(from);
+							if (closing != null && closing < 10) {
+								accounts.remove(from);
+							}
+							return closing;
+						default:
+							Long balance = accounts.get(from);
+							if (balance == null || balance < amount) {
+								throw new IllegalStateException("Insufficient funds in " + from);
+							}
+							Long credited = accounts.get(to);
+							accounts.put(from, balance - amount);
+							accounts.put(to, ((to.equals(from)) ? balance - amount : (credited != null) ? credited : 0) + amount);
+							return balance - amount;
+					}
+				}
+			};
+		}
+	}
+
+	private static VersionedMap<String, Long> openAccounts() {
+		VersionedMap<String, Long> result = new VersionedMap<String, Long>();
+		for (int i = 0; i < ACCOUNTS; i += 2) {
+			result.put("account" + i, 100L);
+		}
+		return result;
+	}
+
+	private static String describe(Object result, Exception error) {
+		return (error != null) ? error.toString() : String.valueOf(result);
+	}
+
+	@Test
+	public void matchesSequentialExecution() {
+		OptimisticExecutor executor = new OptimisticExecutor(this.pool, 10000);
+		Random random = new Random(42);
+		for (int round = 0; round < 200; round++) {
+			List<Operation> operations = new ArrayList<Operation>();
+			int length = 2 + random.nextInt(40);
+			for (int i = 0; i < length; i++) {
+				operations.add(new Operation(random));
+			}
+
+			VersionedMap<String, Long> sequential = openAccounts();
+			List<String> expected = new ArrayList<String>();
+			for (Operation operation : operations) {
+				try {
+					expected.add(describe(operation.on(sequential).call(), null));
+				} catch (Exception e) {
+					expected.add(describe(null, e));
+				}
+			}
+
+			VersionedMap<String, Long> parallel = openAccounts();
+			List<Callable<Object>> transactions = new ArrayList<Callable<Object>>();
+			for (Operation operation : operations) {
+				transactions.add(operation.on(parallel));
+			}
+			final String[] actual = new String[length];
+			executor.execute(transactions, new OptimisticExecutor.CommitListener() {
+				@Override
+				public void committed(int index, Object result, Exception error) {
+					actual[index] = describe(result, error);
+				}
+			});
+
+			assertEquals("Results of round " + round, expected, Arrays.asList(actual));
+			assertEquals("State after round " + round, contents(sequential), contents(parallel));
+		}
+		assertTrue(executor.getSpeculations() > executor.getReexecutions());
+	}
+
+	@Test(timeout = 10000)
+	public void abandonsSpeculationsThatDontFinish() {
+		final VersionedMap<String, Long> flags = new VersionedMap<String, Long>();
+		List<Callable<Object>> transactions = new ArrayList<Callable<Object>>();
+		transactions.add(new Callable<Object>() {
+			@Override
+			public Object call() {
+				flags.put("ready", 1L);
+				return 1L;
+			}
+		});
+		transactions.add(new Callable<Object>() {
+			@Override
+			public Object call() {
+				//Never finishes speculatively, since it can't see the write before it
+				while (flags.get("ready") == null) {
+					Thread.yield();
+				}
+				return flags.get("ready") + 1;
+			}
+		});
+
+		OptimisticExecutor executor = new OptimisticExecutor(this.pool, 100);
+		final Object[] results = new Object[transactions.size()];
+		executor.execute(transactions, new OptimisticExecutor.CommitListener() {
+			@Override
+			public void committed(int index, Object result, Exception error) {
+				results[index] = describe(result, error);
+			}
+		});
+
+		assertEquals(Arrays.asList("1", "2"), Arrays.asList(results));
+		assertEquals(1, executor.getAbandonedRuns());
+	}
+
+	private static TreeMap<String, Long> contents(VersionedMap<String, Long> map) {
+		TreeMap<String, Long> result = new TreeMap<String, Long>();
+		for (String key : map.keySet()) {
+			result.put(key, map.get(key));
+		}
+		return result;
+	}
+}